@@ -70,12 +70,18 @@ package org.opencadc.inventory.db;
 import ca.nrc.cadc.db.ConnectionConfig;
 import ca.nrc.cadc.db.DBConfig;
 import ca.nrc.cadc.db.DBUtil;
+import ca.nrc.cadc.db.TransactionManager;
 import ca.nrc.cadc.util.Log4jInit;
 import java.net.URI;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 import javax.sql.DataSource;
 import org.apache.log4j.Level;
@@ -392,4 +398,248 @@ public class ArtifactDAOTest {
             Assert.fail("unexpected exception: " + unexpected);
         }
     }
+    
+    @Test
+    public void testBatchPutDelete() {
+        try {
+            ArtifactDAO bdao = new ArtifactDAO(dao);
+            bdao.setBatchSize(7);
+            List<Artifact> artifacts = new ArrayList<Artifact>();
+            for (int i = 0; i < 20; i++) {
+                Artifact a = new Artifact(
+                    URI.create("cadc:ARCHIVE/batch-" + i),
+                    URI.create("md5:d41d8cd98f00b204e9800998ecf8427e"),
+                    new Date(),
+                    new Long(i));
+                artifacts.add(a);
+            }
+            
+            TransactionManager txn = bdao.getTransactionManager();
+            txn.startTransaction();
+            bdao.put(artifacts);
+            txn.commitTransaction();
+            
+            for (Artifact expected : artifacts) {
+                Assert.assertNotNull(expected.getLastModified());
+                Artifact actual = dao.get(expected.getID());
+                Assert.assertNotNull(actual);
+                Assert.assertEquals(expected.getLastModified(), actual.getLastModified());
+                Assert.assertEquals(expected.getMetaChecksum(), actual.getMetaChecksum());
+            }
+            
+            // unchanged: not written
+            Artifact first = artifacts.get(0);
+            Date lastModified = first.getLastModified();
+            Thread.sleep(10L);
+            bdao.put(artifacts);
+            Assert.assertEquals(lastModified, first.getLastModified());
+            Assert.assertEquals(lastModified, dao.get(first.getID()).getLastModified());
+            
+            // changed
+            first.contentType = "text/plain";
+            bdao.put(artifacts);
+            Assert.assertTrue(first.getLastModified().after(lastModified));
+            Artifact actual = dao.get(first.getID());
+            Assert.assertEquals("text/plain", actual.contentType);
+            Assert.assertEquals(first.getLastModified(), actual.getLastModified());
+            
+            // unchanged copy without lastModified: assigned the stored value
+            Artifact copy = new Artifact(first.getID(), first.getURI(), first.getContentChecksum(),
+                first.getContentLastModified(), first.getContentLength());
+            copy.contentType = first.contentType;
+            bdao.put(Collections.singletonList(copy));
+            Assert.assertEquals(actual.getLastModified(), copy.getLastModified());
+            
+            List<UUID> ids = new ArrayList<UUID>();
+            for (Artifact a : artifacts) {
+                ids.add(a.getID());
+            }
+            txn.startTransaction();
+            bdao.delete(ids);
+            txn.rollbackTransaction();
+            Assert.assertNotNull("rollback", dao.get(first.getID()));
+            
+            bdao.delete(ids);
+            for (UUID id : ids) {
+                Assert.assertNull(dao.get(id));
+            }
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+    
+    @Test
+    public void testIterator() {
+        try {
+            ArtifactDAO idao = new ArtifactDAO(dao);
+            idao.setBatchSize(3); // several cursor fetches
+            List<Artifact> artifacts = new ArrayList<Artifact>();
+            for (int i = 0; i < 10; i++) {
+                Artifact a = new Artifact(
+                    URI.create("cadc:ARCHIVE/iter-" + i),
+                    URI.create("md5:d41d8cd98f00b204e9800998ecf8427e"),
+                    new Date(),
+                    new Long(i));
+                if (i % 2 == 0) {
+                    a.storageLocation = new StorageLocation(URI.create("foo:" + (9 - i)));
+                    if (i < 5) {
+                        a.storageLocation.storageBucket = "ab";
+                    } else if (i < 8) {
+                        a.storageLocation.storageBucket = "cd";
+                    } // else: null storageBucket
+                }
+                artifacts.add(a);
+            }
+            idao.put(artifacts);
+            
+            int num = 0;
+            String prev = null;
+            try (ResourceIterator<Artifact> iter = idao.iterator(null, true)) {
+                while (iter.hasNext()) {
+                    Artifact a = iter.next();
+                    if (prev != null) {
+                        Assert.assertTrue("ordered", prev.compareTo(a.getURI().toASCIIString()) < 0);
+                    }
+                    prev = a.getURI().toASCIIString();
+                    num++;
+                }
+                Assert.assertFalse(iter.hasNext());
+            }
+            Assert.assertEquals(artifacts.size(), num);
+            
+            Artifact first = artifacts.get(0);
+            String bucket = first.getBucket();
+            int expected = 0;
+            for (Artifact a : artifacts) {
+                if (a.getBucket().startsWith(bucket.substring(0, 1))) {
+                    expected++;
+                }
+            }
+            num = 0;
+            try (ResourceIterator<Artifact> iter = idao.iterator(bucket.substring(0, 1), false)) {
+                while (iter.hasNext()) {
+                    Assert.assertTrue(iter.next().getBucket().startsWith(bucket.substring(0, 1)));
+                    num++;
+                }
+            }
+            Assert.assertEquals(expected, num);
+            
+            // StorageLocation order: bucket order differs from storageID order
+            List<StorageLocation> locs = new ArrayList<StorageLocation>();
+            StorageLocation prevLoc = null;
+            try (ResourceIterator<Artifact> iter = idao.storedIterator(null, true)) {
+                while (iter.hasNext()) {
+                    Artifact a = iter.next();
+                    Assert.assertNotNull(a.storageLocation);
+                    if (prevLoc != null) {
+                        Assert.assertTrue("ordered", prevLoc.compareTo(a.storageLocation) < 0);
+                    }
+                    prevLoc = a.storageLocation;
+                    locs.add(a.storageLocation);
+                }
+            }
+            Assert.assertEquals(5, locs.size());
+            String[] expectedIDs = new String[] { "foo:5", "foo:7", "foo:9", "foo:3", "foo:1" };
+            for (int i = 0; i < expectedIDs.length; i++) {
+                Assert.assertEquals(expectedIDs[i], locs.get(i).getStorageID().toASCIIString());
+            }
+            Assert.assertNull("null storageBucket last", locs.get(4).storageBucket);
+            
+            num = 0;
+            try (ResourceIterator<Artifact> iter = idao.storedIterator("c", false)) {
+                while (iter.hasNext()) {
+                    Assert.assertEquals("cd", iter.next().storageLocation.storageBucket);
+                    num++;
+                }
+            }
+            Assert.assertEquals(1, num);
+            
+            // LIKE wildcards in the prefix match literally
+            try (ResourceIterator<Artifact> iter = idao.storedIterator("_", false)) {
+                Assert.assertFalse(iter.hasNext());
+            }
+            try (ResourceIterator<Artifact> iter = idao.storedIterator("%", false)) {
+                Assert.assertFalse(iter.hasNext());
+            }
+            
+            // early close inside a transaction leaves the connection usable
+            TransactionManager txn = idao.getTransactionManager();
+            txn.startTransaction();
+            try (ResourceIterator<Artifact> iter = idao.iterator(null, false)) {
+                Assert.assertTrue(iter.hasNext());
+                iter.next();
+            }
+            idao.delete(first.getID());
+            txn.commitTransaction();
+            Assert.assertNull(dao.get(first.getID()));
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+    
+    @Test
+    public void testChanges() {
+        try {
+            ArtifactDAO cdao = new ArtifactDAO(dao);
+            cdao.setBatchSize(3); // several pages
+            List<Artifact> artifacts = new ArrayList<Artifact>();
+            for (int i = 0; i < 10; i++) {
+                Artifact a = new Artifact(
+                    URI.create("cadc:ARCHIVE/changes-" + i),
+                    URI.create("md5:d41d8cd98f00b204e9800998ecf8427e"),
+                    new Date(),
+                    new Long(i));
+                artifacts.add(a);
+            }
+            cdao.put(artifacts); // all the same lastModified
+            Date start = artifacts.get(0).getLastModified();
+            
+            List<Artifact> seen = new ArrayList<Artifact>();
+            try (ResourceIterator<Artifact> iter = cdao.changes(start)) {
+                while (iter.hasNext()) {
+                    seen.add(iter.next());
+                }
+            }
+            Assert.assertEquals(artifacts.size(), seen.size());
+            Set<UUID> ids = new TreeSet<UUID>();
+            for (Artifact a : seen) {
+                Assert.assertEquals(start, a.getLastModified());
+                ids.add(a.getID());
+            }
+            Assert.assertEquals(artifacts.size(), ids.size());
+            
+            // resume within the clock-equal rows
+            Artifact resume = seen.get(3);
+            List<Artifact> rest = new ArrayList<Artifact>();
+            try (ResourceIterator<Artifact> iter = cdao.changes(resume.getLastModified(), resume.getID())) {
+                while (iter.hasNext()) {
+                    rest.add(iter.next());
+                }
+            }
+            Assert.assertEquals(seen.size() - 4, rest.size());
+            for (int i = 0; i < rest.size(); i++) {
+                Assert.assertEquals(seen.get(i + 4).getID(), rest.get(i).getID());
+            }
+            
+            // later change
+            Thread.sleep(10L);
+            Artifact changed = seen.get(0);
+            changed.contentType = "text/plain";
+            cdao.put(changed);
+            Artifact last = seen.get(seen.size() - 1);
+            try (ResourceIterator<Artifact> iter = cdao.changes(last.getLastModified(), last.getID())) {
+                Assert.assertTrue(iter.hasNext());
+                Assert.assertEquals(changed.getID(), iter.next().getID());
+                Assert.assertFalse(iter.hasNext());
+            }
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
 }
@@ -73,6 +73,9 @@ import ca.nrc.cadc.db.DBUtil;
 import ca.nrc.cadc.util.Log4jInit;
 import java.net.URI;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
@@ -220,4 +223,42 @@ public class DeletedEventDAOTest {
             Assert.fail("unexpected exception: " + unexpected);
         }
     }
+    
+    @Test
+    public void testChanges() {
+        try {
+            DeletedEventDAO cdao = new DeletedEventDAO(dao);
+            cdao.setBatchSize(2);
+            List<DeletedStorageLocationEvent> events = new ArrayList<DeletedStorageLocationEvent>();
+            for (int i = 0; i < 5; i++) {
+                events.add(new DeletedStorageLocationEvent(UUID.randomUUID()));
+            }
+            cdao.put(events);
+            cdao.put(new DeletedArtifactEvent(UUID.randomUUID())); // other type
+            
+            Date start = events.get(0).getLastModified();
+            List<DeletedStorageLocationEvent> seen = new ArrayList<DeletedStorageLocationEvent>();
+            try (ResourceIterator<DeletedStorageLocationEvent> iter
+                    = cdao.changes(DeletedStorageLocationEvent.class, start)) {
+                while (iter.hasNext()) {
+                    seen.add(iter.next());
+                }
+            }
+            Assert.assertEquals(events.size(), seen.size());
+            
+            DeletedStorageLocationEvent resume = seen.get(1);
+            int num = 0;
+            try (ResourceIterator<DeletedStorageLocationEvent> iter
+                    = cdao.changes(DeletedStorageLocationEvent.class, resume.getLastModified(), resume.getID())) {
+                while (iter.hasNext()) {
+                    Assert.assertEquals(seen.get(num + 2).getID(), iter.next().getID());
+                    num++;
+                }
+            }
+            Assert.assertEquals(events.size() - 2, num);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
 }
@@ -78,8 +78,14 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
@@ -98,11 +104,15 @@ import org.springframework.jdbc.core.RowMapper;
 class AbstractDAO<T extends Entity> {
 
     private static final Logger log = Logger.getLogger(AbstractDAO.class);
+    
+    static final int DEFAULT_BATCH_SIZE = 1000;
 
     protected SQLGenerator gen;
     protected DataSource dataSource;
     protected TransactionManager txnManager;
     protected MessageDigest digest;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile JdbcTemplate jdbcTemplate;
 
     protected AbstractDAO() {
         try {
@@ -122,7 +132,9 @@ class AbstractDAO<T extends Entity> {
         this();
         this.gen = dao.getSQLGenerator();
         this.dataSource = dao.getDataSource();
+        this.jdbcTemplate = dao.getJdbcTemplate();
         this.txnManager = dao.getTransactionManager();
+        this.batchSize = dao.getBatchSize();
     }
 
     /**
@@ -137,6 +149,22 @@ class AbstractDAO<T extends Entity> {
         return dataSource;
     }
 
+    /**
+     * Get the JdbcTemplate for the DataSource. JdbcTemplate is thread-safe once configured so
+     * one instance (and its lazily created exception translator) is shared by all calls.
+     * 
+     * @return the JdbcTemplate
+     */
+    protected JdbcTemplate getJdbcTemplate() {
+        checkInit();
+        JdbcTemplate ret = jdbcTemplate;
+        if (ret == null) {
+            ret = new JdbcTemplate(dataSource);
+            this.jdbcTemplate = ret;
+        }
+        return ret;
+    }
+
     SQLGenerator getSQLGenerator() {
         checkInit();
         return gen;
@@ -156,12 +184,31 @@ class AbstractDAO<T extends Entity> {
         return txnManager;
     }
 
+    /**
+     * Set the max number of statements sent to the database in one JDBC batch by the
+     * collection put and delete methods. This is also the number of rows fetched per
+     * round trip by iterators.
+     * 
+     * @param batchSize max statements per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     public Map<String, Class> getParams() {
         Map<String, Class> ret = new TreeMap<String, Class>();
         ret.put("jndiDataSourceName", String.class);
         ret.put("database", String.class);
         ret.put("schema", String.class);
         ret.put(SQLGenerator.class.getName(), Class.class);
+        ret.put("batchSize", Integer.class); // optional
         return ret;
     }
     
@@ -177,6 +224,7 @@ class AbstractDAO<T extends Entity> {
         }
         try {
             this.dataSource = DBUtil.findJNDIDataSource(jndiDataSourceName);
+            this.jdbcTemplate = null;
         } catch (NamingException ex) {
             throw new IllegalArgumentException("cannot find JNDI DataSource: " + jndiDataSourceName);
         }
@@ -189,6 +237,11 @@ class AbstractDAO<T extends Entity> {
         } catch (Exception ex) {
             throw new RuntimeException("failed to instantiate SQLGenerator: " + genClass.getName(), ex);
         }
+        
+        Integer bs = (Integer) config.get("batchSize");
+        if (bs != null) {
+            setBatchSize(bs);
+        }
     }
 
     protected void checkInit() {
@@ -200,7 +253,7 @@ class AbstractDAO<T extends Entity> {
     protected Date getCurrentTime() {
         checkInit();
         String tsSQL = gen.getCurrentTimeSQL();
-        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        JdbcTemplate jdbc = getJdbcTemplate();
 
         Date now = (Date) jdbc.queryForObject(tsSQL, new RowMapper() {
             @Override
@@ -218,7 +271,7 @@ class AbstractDAO<T extends Entity> {
         long t = System.currentTimeMillis();
 
         try {
-            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            JdbcTemplate jdbc = getJdbcTemplate();
             EntityGet get = gen.getEntityGet(entityClass);
             get.setID(id);
             Entity e = (Entity) get.execute(jdbc);
@@ -229,6 +282,24 @@ class AbstractDAO<T extends Entity> {
         }
     }
     
+    /**
+     * Iterate over entities in (lastModified, id) order, starting at minLastModified or, to resume
+     * an earlier iteration, after the (lastModified, id) of the last entity processed. Entities are
+     * read batchSize at a time and no database resources are held between reads.
+     * 
+     * @param entityClass entity class
+     * @param minLastModified minimum lastModified, or lastModified of the last entity processed (may be null)
+     * @param afterID id of the last entity processed (may be null)
+     * @return iterator over matching entities
+     */
+    protected ResourceIterator changeIterator(Class entityClass, Date minLastModified, UUID afterID) {
+        checkInit();
+        log.debug("CHANGES: " + entityClass.getSimpleName() + " " + minLastModified + " " + afterID);
+        EntityIteratorQuery iter = gen.getEntityChangesQuery(entityClass, minLastModified, afterID);
+        iter.setFetchSize(batchSize);
+        return iter.query(dataSource);
+    }
+    
     /**
      * Acquire a write lock on the existing entity. This is used as the first action
      * in a transaction in order to avoid race conditions and deadlocks.
@@ -243,7 +314,7 @@ class AbstractDAO<T extends Entity> {
         long t = System.currentTimeMillis();
 
         try {
-            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            JdbcTemplate jdbc = getJdbcTemplate();
             EntityLock lock = gen.getEntityLock(val.getClass());
             lock.setID(val.getID());
             lock.execute(jdbc);
@@ -266,7 +337,19 @@ class AbstractDAO<T extends Entity> {
         long t = System.currentTimeMillis();
 
         try {
-            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            JdbcTemplate jdbc = getJdbcTemplate();
+            if (!forceUpdate && gen.isUpsertSupported()) {
+                // change detection and lastModified assignment done by the database in one round trip
+                digest.reset(); // just in case
+                InventoryUtil.assignMetaChecksum(val, val.computeMetaChecksum(digest));
+                EntityUpsert ups = gen.getEntityUpsert(val.getClass());
+                ups.setValue(val);
+                if (!ups.execute(jdbc)) {
+                    log.debug("no change: " + val);
+                }
+                return;
+            }
+            
             EntityGet get = gen.getSkeletonEntityGet(val.getClass());
             get.setID(val.getID());
             Entity cur = get.execute(jdbc);
@@ -286,6 +369,82 @@ class AbstractDAO<T extends Entity> {
         }
     }
     
+    /**
+     * Put several entities using JDBC batches of up to batchSize statements. New entities are
+     * inserted and existing entities are updated if their metaChecksum changed. Written entities
+     * are stored with the later of the supplied lastModified, the current time (read once per call),
+     * and the stored value. After each batch the stored lastModified of all its entities is read
+     * back in one query and assigned to them, so they match the database as with put(T).
+     * This can be called inside a transaction from getTransactionManager() so that all batches
+     * are committed together.
+     * 
+     * @param vals entities to put
+     */
+    public void put(Collection<T> vals) {
+        if (vals == null) {
+            throw new IllegalArgumentException("entities cannot be null");
+        }
+        checkInit();
+        if (vals.isEmpty()) {
+            return;
+        }
+        log.debug("PUT: " + vals.size() + " batchSize=" + batchSize);
+        long t = System.currentTimeMillis();
+        
+        int num = 0;
+        int unknown = 0;
+        try {
+            JdbcTemplate jdbc = getJdbcTemplate();
+            Date now = getCurrentTime();
+            
+            // one statement per batch so group by entity class
+            Map<Class, List<T>> byClass = new LinkedHashMap<>();
+            for (T val : vals) {
+                byClass.computeIfAbsent(val.getClass(), k -> new ArrayList<>()).add(val);
+            }
+            for (Map.Entry<Class, List<T>> me : byClass.entrySet()) {
+                EntityPut put = gen.getEntityBatchPut(me.getKey());
+                List<T> all = me.getValue();
+                for (int i = 0; i < all.size(); i += batchSize) {
+                    List<T> batch = all.subList(i, Math.min(i + batchSize, all.size()));
+                    List<UUID> ids = new ArrayList<>(batch.size());
+                    for (T val : batch) {
+                        digest.reset(); // just in case
+                        InventoryUtil.assignMetaChecksum(val, val.computeMetaChecksum(digest));
+                        if (val.getLastModified() == null || val.getLastModified().before(now)) {
+                            InventoryUtil.assignLastModified(val, now);
+                        }
+                        ids.add(val.getID());
+                    }
+                    int[] counts = put.executeBatch(jdbc, batch);
+                    for (int count : counts) {
+                        if (count == Statement.SUCCESS_NO_INFO) {
+                            unknown++; // e.g. batches rewritten by the driver
+                        } else if (count > 0) {
+                            num++;
+                        }
+                    }
+                    
+                    Map<UUID, Date> stored = new HashMap<>();
+                    List<Entity> skeletons = gen.getSkeletonEntityList(me.getKey(), ids).query(jdbc);
+                    for (Entity e : skeletons) {
+                        stored.put(e.getID(), e.getLastModified());
+                    }
+                    for (T val : batch) {
+                        Date lastModified = stored.get(val.getID());
+                        if (lastModified == null) {
+                            throw new IllegalStateException("BUG: batch put found no stored " + val);
+                        }
+                        InventoryUtil.assignLastModified(val, lastModified);
+                    }
+                }
+            }
+        } finally {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("PUT: " + vals.size() + " (" + num + " written, " + unknown + " unknown) " + dt + "ms");
+        }
+    }
+    
     protected void delete(Class entityClass, UUID id) {
         if (id == null) {
             throw new IllegalArgumentException("id cannot be null");
@@ -295,7 +454,7 @@ class AbstractDAO<T extends Entity> {
         long t = System.currentTimeMillis();
 
         try {
-            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            JdbcTemplate jdbc = getJdbcTemplate();
             EntityDelete del = gen.getEntityDelete(entityClass);
             del.setID(id);
             del.execute(jdbc);
@@ -305,6 +464,34 @@ class AbstractDAO<T extends Entity> {
         }
     }
     
+    /**
+     * Delete several entities using JDBC batches of up to batchSize statements. This can be called
+     * inside a transaction from getTransactionManager() so that all batches are committed together.
+     * 
+     * @param entityClass entity class
+     * @param ids IDs of entities to delete
+     */
+    protected void delete(Class entityClass, Collection<UUID> ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("ids cannot be null");
+        }
+        checkInit();
+        log.debug("DELETE: " + ids.size() + " batchSize=" + batchSize);
+        long t = System.currentTimeMillis();
+
+        try {
+            JdbcTemplate jdbc = getJdbcTemplate();
+            EntityDelete del = gen.getEntityDelete(entityClass);
+            List<UUID> all = new ArrayList<>(ids);
+            for (int i = 0; i < all.size(); i += batchSize) {
+                del.executeBatch(jdbc, all.subList(i, Math.min(i + batchSize, all.size())));
+            }
+        } finally {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("DELETE: " + ids.size() + " " + dt + "ms");
+        }
+    }
+    
     /**
      * 
      * @param entity entity to persist
@@ -69,6 +69,8 @@ package org.opencadc.inventory.db;
 
 import ca.nrc.cadc.db.TransactionManager;
 import java.net.URI;
+import java.util.Collection;
+import java.util.Date;
 import java.util.UUID;
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.Artifact;
@@ -110,7 +112,7 @@ public class ArtifactDAO extends AbstractDAO<Artifact> {
         long t = System.currentTimeMillis();
 
         try {
-            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            JdbcTemplate jdbc = getJdbcTemplate();
             EntityGet get = gen.getEntityGet(Artifact.class);
             get.setID(id);
             get.setURI(uri);
@@ -122,10 +124,90 @@ public class ArtifactDAO extends AbstractDAO<Artifact> {
         }
     }
     
+    /**
+     * Iterate over artifacts, optionally restricted to a uriBucket prefix. Rows are streamed from a
+     * server-side cursor fetching batchSize rows at a time, so heap usage does not depend on the number
+     * of artifacts. The iterator holds a database connection until it is closed or completely consumed.
+     * 
+     * @param uriBucketPrefix uriBucket prefix (null or empty: all artifacts)
+     * @param ordered order by uri
+     * @return iterator over matching artifacts
+     */
+    public ResourceIterator<Artifact> iterator(String uriBucketPrefix, boolean ordered) {
+        return iterator(uriBucketPrefix, null, false, ordered);
+    }
+    
+    /**
+     * Iterate over artifacts with a storageLocation, optionally restricted to a storageBucket prefix.
+     * Ordered output is in StorageLocation.compareTo order (storageBucket, then storageID) like
+     * StorageAdapter iterators, so the two can be merge-joined.
+     * 
+     * @param storageBucketPrefix storageLocation.storageBucket prefix (null or empty: all stored artifacts)
+     * @param ordered order by storageLocation
+     * @return iterator over matching artifacts
+     */
+    public ResourceIterator<Artifact> storedIterator(String storageBucketPrefix, boolean ordered) {
+        return iterator(null, storageBucketPrefix, true, ordered);
+    }
+    
+    private ResourceIterator<Artifact> iterator(String uriBucketPrefix, String storageBucketPrefix,
+            boolean storageLocationRequired, boolean ordered) {
+        checkInit();
+        if (uriBucketPrefix != null && uriBucketPrefix.isEmpty()) {
+            uriBucketPrefix = null;
+        }
+        if (storageBucketPrefix != null && storageBucketPrefix.isEmpty()) {
+            storageBucketPrefix = null;
+        }
+        log.debug("ITERATOR: uriBucket=" + uriBucketPrefix + " storageBucket=" + storageBucketPrefix
+            + " ordered=" + ordered);
+        long t = System.currentTimeMillis();
+        
+        try {
+            EntityIteratorQuery<Artifact> iter = gen.getArtifactIteratorQuery(uriBucketPrefix, storageBucketPrefix,
+                storageLocationRequired, ordered);
+            iter.setFetchSize(batchSize);
+            return iter.query(dataSource);
+        } finally {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("ITERATOR: " + dt + "ms");
+        }
+    }
+    
+    /**
+     * Iterate over artifacts with lastModified greater than or equal to minLastModified, in
+     * (lastModified, id) order.
+     * 
+     * @param minLastModified minimum lastModified (null: all artifacts)
+     * @return iterator over matching artifacts
+     */
+    public ResourceIterator<Artifact> changes(Date minLastModified) {
+        return changeIterator(Artifact.class, minLastModified, null);
+    }
+    
+    /**
+     * Resume iterating over artifacts after the last one processed, in (lastModified, id) order.
+     * 
+     * @param lastModified lastModified of the last artifact processed
+     * @param afterID id of the last artifact processed
+     * @return iterator over subsequent artifacts
+     */
+    public ResourceIterator<Artifact> changes(Date lastModified, UUID afterID) {
+        if (lastModified == null || afterID == null) {
+            throw new IllegalArgumentException("lastModified and afterID cannot be null");
+        }
+        return changeIterator(Artifact.class, lastModified, afterID);
+    }
+    
     // delete an artifact, all SiteLocation(s), and StorageLocation
     // caller must also fire an appropriate event via DeletedEventDAO in same txn
     // unless performing this delete in reaction to such an event
     public void delete(UUID id) {
         super.delete(Artifact.class, id);
     }
+    
+    // delete artifacts in JDBC batches; same caveats as delete(UUID)
+    public void delete(Collection<UUID> ids) {
+        super.delete(Artifact.class, ids);
+    }
 }
@@ -67,6 +67,10 @@
 
 package org.opencadc.inventory.db;
 
+import java.util.Date;
+import java.util.UUID;
+import org.opencadc.inventory.Entity;
+
 /**
  * Fire/persist a deleted entity event.
  * 
@@ -80,4 +84,33 @@ public class DeletedEventDAO extends AbstractDAO {
     public DeletedEventDAO(AbstractDAO dao) {
         super(dao);
     }
+    
+    /**
+     * Iterate over events with lastModified greater than or equal to minLastModified, in
+     * (lastModified, id) order.
+     * 
+     * @param <T> event type
+     * @param eventClass DeletedArtifactEvent or DeletedStorageLocationEvent
+     * @param minLastModified minimum lastModified (null: all events)
+     * @return iterator over matching events
+     */
+    public <T extends Entity> ResourceIterator<T> changes(Class<T> eventClass, Date minLastModified) {
+        return changeIterator(eventClass, minLastModified, null);
+    }
+    
+    /**
+     * Resume iterating over events after the last one processed, in (lastModified, id) order.
+     * 
+     * @param <T> event type
+     * @param eventClass DeletedArtifactEvent or DeletedStorageLocationEvent
+     * @param lastModified lastModified of the last event processed
+     * @param afterID id of the last event processed
+     * @return iterator over subsequent events
+     */
+    public <T extends Entity> ResourceIterator<T> changes(Class<T> eventClass, Date lastModified, UUID afterID) {
+        if (lastModified == null || afterID == null) {
+            throw new IllegalArgumentException("lastModified and afterID cannot be null");
+        }
+        return changeIterator(eventClass, lastModified, afterID);
+    }
 }
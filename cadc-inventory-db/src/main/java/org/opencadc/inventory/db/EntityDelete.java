@@ -69,6 +69,7 @@
 
 package org.opencadc.inventory.db;
 
+import java.util.List;
 import java.util.UUID;
 import org.opencadc.inventory.Entity;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -83,5 +84,14 @@ interface EntityDelete<T extends Entity> extends PreparedStatementCreator {
 
     void execute(JdbcTemplate jdbc);
 
+    /**
+     * Delete several entities with one JDBC batch.
+     * 
+     * @param jdbc template to execute with
+     * @param ids entity IDs to delete
+     * @return update count for each ID
+     */
+    int[] executeBatch(JdbcTemplate jdbc, List<UUID> ids);
+
     void setID(UUID id);
 }
@@ -69,6 +69,7 @@
 
 package org.opencadc.inventory.db;
 
+import java.util.List;
 import org.opencadc.inventory.Entity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
@@ -81,5 +82,14 @@ interface EntityPut<T extends Entity> extends PreparedStatementCreator {
 
     void execute(JdbcTemplate jdbc);
 
+    /**
+     * Put several values with one JDBC batch.
+     * 
+     * @param jdbc template to execute with
+     * @param values values to put
+     * @return update count for each value
+     */
+    int[] executeBatch(JdbcTemplate jdbc, List<T> values);
+
     void setValue(T value);
 }
@@ -76,12 +76,17 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.Calendar;
+import java.util.ArrayDeque;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.Artifact;
 import org.opencadc.inventory.DeletedArtifactEvent;
@@ -92,19 +97,47 @@ import org.opencadc.inventory.SiteLocation;
 import org.opencadc.inventory.StorageLocation;
 import org.opencadc.inventory.StorageSite;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 
 /**
+ * Generates the SQL and statement creators used by the DAOs. All statements for the supported
+ * entity classes are generated once at construction so every call sends an identical SQL string;
+ * the PostgreSQL driver then switches to a server-side prepared statement after prepareThreshold
+ * executions on a (pooled) connection and reuses it for the life of the connection.
  *
  * @author pdowler
  */
 public class SQLGenerator {
     private static final Logger log = Logger.getLogger(SQLGenerator.class);
+    
+    // lastModified assigned by the database clock, with the same millisecond precision as java.util.Date
+    private static final String CURRENT_TIME_EXPR = "date_trunc('milliseconds', now() AT TIME ZONE 'UTC')";
 
     private final Map<Class,String> tableMap = new TreeMap<Class,String>(new ClassComp());
     private final Map<Class,String[]> columnMap = new TreeMap<Class,String[]>(new ClassComp());
+    private final Map<Class,EntitySQL> sqlMap = new HashMap<Class,EntitySQL>();
+    
+    // Calendar is expensive to create and not thread-safe: one per thread shared by all statements
+    private static final ThreadLocal<Calendar> UTC_CALENDAR = ThreadLocal.withInitial(
+        () -> Calendar.getInstance(DateUtil.UTC));
+    
+    // stateless so shared by all statements
+    private static final RowMapper SKELETON_MAPPER = new SkeletonEntityRowMapper();
+    private static final ResultSetExtractor SKELETON_EXTRACTOR = new SingleRowExtractor(SKELETON_MAPPER);
+    private static final RowMapper ARTIFACT_MAPPER = new ArtifactRowMapper();
+    private static final ResultSetExtractor ARTIFACT_EXTRACTOR = new SingleRowExtractor(ARTIFACT_MAPPER);
+    private static final RowMapper STORAGE_SITE_MAPPER = new StorageSiteRowMapper();
+    private static final ResultSetExtractor STORAGE_SITE_EXTRACTOR = new SingleRowExtractor(STORAGE_SITE_MAPPER);
+    private static final RowMapper DAE_MAPPER = new DeletedArtifactEventRowMapper();
+    private static final ResultSetExtractor DAE_EXTRACTOR = new SingleRowExtractor(DAE_MAPPER);
+    private static final RowMapper DSLE_MAPPER = new DeletedStorageLocationEventRowMapper();
+    private static final ResultSetExtractor DSLE_EXTRACTOR = new SingleRowExtractor(DSLE_MAPPER);
     
     protected final String database; // currently not used in SQL
     protected final String schema; // may be null
@@ -124,6 +157,7 @@ public class SQLGenerator {
         this.database = database;
         this.schema = schema;
         init();
+        initSQL();
     }
     
     protected void init() {
@@ -168,6 +202,58 @@ public class SQLGenerator {
         this.columnMap.put(Entity.class, cols); // skeleton
     }
     
+    // generate all statements after init() so subclasses can change tables and columns
+    private void initSQL() {
+        for (Class c : tableMap.keySet()) {
+            EntitySQL s = new EntitySQL();
+            String pk = getKeyColumn(c, true);
+            s.select = getSelectFromSQL(c, false).toString();
+            s.skeletonGet = getSelectFromSQL(c, true).append(" WHERE ").append(pk).append(" = ?").toString();
+            s.skeletonList = getSelectFromSQL(c, true).append(" WHERE ").append(pk).append(" = ANY(?)").toString();
+            s.getByID = s.select + " WHERE " + pk + " = ?";
+            if (Artifact.class.equals(c) || StorageSite.class.equals(c)) {
+                s.getByKey = s.select + " WHERE " + getKeyColumn(c, false) + " = ?";
+            }
+            s.insert = getInsertSQL(c);
+            s.update = getUpdateSQL(c);
+            if (isUpsertSupported()) {
+                s.upsert = getUpsertSQL(c, false);
+                s.batchUpsert = getUpsertSQL(c, true);
+            }
+            s.delete = getDeleteSQL(c);
+            s.lock = getLockSQL(c);
+            sqlMap.put(c, s);
+            log.debug("initSQL: " + c.getSimpleName());
+        }
+    }
+    
+    // statements for one entity class; not modified after initSQL
+    private static class EntitySQL {
+        String select;
+        String skeletonGet;
+        String skeletonList;
+        String getByID;
+        String getByKey; // null: no logical key
+        String insert;
+        String update;
+        String upsert; // null: upsert not supported
+        String batchUpsert;
+        String delete;
+        String lock;
+    }
+    
+    private EntitySQL getSQL(Class c) {
+        EntitySQL ret = sqlMap.get(c);
+        if (ret == null) {
+            throw new UnsupportedOperationException("entity-sql: " + c.getName());
+        }
+        return ret;
+    }
+    
+    private static Calendar utc() {
+        return UTC_CALENDAR.get();
+    }
+    
     private static class ClassComp implements Comparator<Class> {
         @Override
         public int compare(Class o1, Class o2) {
@@ -209,9 +295,55 @@ public class SQLGenerator {
         throw new UnsupportedOperationException("entity-list: " + c.getName());
     }
     
+    /**
+     * Get a list of the skeletons (id, lastModified, metaChecksum) of the given entities,
+     * in no particular order. Entities that do not exist are not included.
+     * 
+     * @param c entity class
+     * @param ids entity IDs
+     * @return skeleton list
+     */
+    public EntityList getSkeletonEntityList(Class c, List<UUID> ids) {
+        return new SkeletonList(c, ids);
+    }
+    
+    /**
+     * Get a query that streams artifacts, optionally restricted to those with a storage location.
+     * 
+     * @param uriBucketPrefix uriBucket prefix (may be null)
+     * @param storageBucketPrefix storageLocation.storageBucket prefix (may be null); implies storageLocationRequired
+     * @param storageLocationRequired only artifacts with a storageLocation
+     * @param ordered order by storageLocation (as StorageLocation.compareTo) if storageLocationRequired,
+     *     otherwise by uri
+     * @return iterator query
+     */
+    public EntityIteratorQuery getArtifactIteratorQuery(String uriBucketPrefix, String storageBucketPrefix,
+            boolean storageLocationRequired, boolean ordered) {
+        return new ArtifactIteratorQuery(uriBucketPrefix, storageBucketPrefix, storageLocationRequired, ordered);
+    }
+    
+    /**
+     * Get a query that streams entities with lastModified greater than or equal to a timestamp in
+     * (lastModified, id) order. Entities are read in pages of fetchSize rows, each page starting after
+     * the (lastModified, id) of the last row of the previous one, so no cursor or connection is held
+     * between pages and entities with the same lastModified are neither skipped nor repeated.
+     * 
+     * @param c entity class
+     * @param minLastModified minimum lastModified (may be null: all entities)
+     * @param afterID if not null, only entities with lastModified equal to minLastModified
+     *     and a greater id, or a greater lastModified
+     * @return iterator query
+     */
+    public EntityIteratorQuery getEntityChangesQuery(Class c, Date minLastModified, UUID afterID) {
+        if (afterID != null && minLastModified == null) {
+            throw new IllegalArgumentException("afterID requires minLastModified");
+        }
+        return new KeysetIteratorQuery(c, getRowMapper(c), minLastModified, afterID);
+    }
+    
     public EntityLock getEntityLock(Class c) {
         if (Artifact.class.equals(c)) {
-            return new EntityLockImpl(c);
+            return new EntityLockImpl(getSQL(c).lock);
         }
         throw new UnsupportedOperationException("entity-list: " + c.getName());
     }
@@ -222,32 +354,67 @@ public class SQLGenerator {
     }
 
     public EntityPut getEntityPut(Class c, boolean update) {
+        EntitySQL s = getSQL(c);
+        return getEntityPut(c, update ? s.update : s.insert);
+    }
+    
+    private AbstractEntityPut getEntityPut(Class c, String sql) {
         if (Artifact.class.equals(c)) {
-            return new ArtifactPut(update);
+            return new ArtifactPut(sql);
         }
         if (StorageSite.class.equals(c)) {
-            return new StorageSitePut(update);
+            return new StorageSitePut(sql);
         }
         if (DeletedArtifactEvent.class.equals(c)) {
-            return new DeletedEventPut(update);
+            return new DeletedEventPut(sql);
         }
         if (DeletedStorageLocationEvent.class.equals(c)) {
-            return new DeletedEventPut(update);
+            return new DeletedEventPut(sql);
         }
         throw new UnsupportedOperationException("entity-put: " + c.getName());
     }
     
+    /**
+     * Single statement insert-or-update using INSERT ... ON CONFLICT (PostgreSQL 9.5+).
+     * Subclasses for databases without this syntax should return false so callers
+     * use getSkeletonEntityGet and getEntityPut instead.
+     * 
+     * @return true if getEntityUpsert is supported
+     */
+    public boolean isUpsertSupported() {
+        return true;
+    }
+    
+    public EntityUpsert getEntityUpsert(Class c) {
+        return new EntityUpsertImpl(c, getEntityPut(c, getSQL(c).upsert));
+    }
+    
+    /**
+     * Get a put for use with EntityPut.executeBatch. The statement inserts new entities and updates
+     * existing entities whose metaChecksum changed; the update count is 0 for unchanged entities.
+     * The lastModified of each value is stored as is (the database keeps the greater of that and the
+     * current value), so callers must assign it first.
+     * 
+     * @param c entity class
+     * @return batch put
+     */
+    public EntityPut getEntityBatchPut(Class c) {
+        if (isUpsertSupported()) {
+            return getEntityPut(c, getSQL(c).batchUpsert);
+        }
+        throw new UnsupportedOperationException("entity-batch-put: " + c.getName());
+    }
+    
     public EntityDelete getEntityDelete(Class c) {
         return new EntityDeleteImpl(c);
     }
     
     private class EntityLockImpl implements EntityLock<Entity> {
-        private final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        private final Class entityClass;
+        private final String sql;
         private UUID id;
         
-        EntityLockImpl(Class entityClass) {
-            this.entityClass = entityClass;
+        EntityLockImpl(String sql) {
+            this.sql = sql;
         }
 
         @Override
@@ -262,7 +429,6 @@ public class SQLGenerator {
         
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            String sql = getLockSQL(entityClass);
             log.debug("EntityLockImpl: " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
             int col = 1;
@@ -274,11 +440,11 @@ public class SQLGenerator {
     }
 
     private class SkeletonGet implements EntityGet<Entity> {
+        private final String sql;
         private UUID id;
-        private final Class entityClass;
         
         SkeletonGet(Class entityClass) {
-            this.entityClass = entityClass;
+            this.sql = getSQL(entityClass).skeletonGet;
         }
         
         @Override
@@ -293,16 +459,11 @@ public class SQLGenerator {
 
         @Override
         public Entity execute(JdbcTemplate jdbc) {
-            return (Entity) jdbc.query(this, new SkeletonEntityExtractor());
+            return (Entity) jdbc.query(this, SKELETON_EXTRACTOR);
         }
 
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            StringBuilder sb = getSelectFromSQL(entityClass, true);
-            sb.append(" WHERE ");
-            String col = getKeyColumn(entityClass, true);
-            sb.append(col).append(" = ?");
-            String sql = sb.toString();
             log.debug("SkeletonGet: " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
             prep.setObject(1, id);
@@ -317,7 +478,7 @@ public class SQLGenerator {
 
         @Override
         public Entity execute(JdbcTemplate jdbc) {
-            return (Entity) jdbc.query(this, new DeletedArtifactEventExtractor());
+            return (Entity) jdbc.query(this, DAE_EXTRACTOR);
         }
     }
     
@@ -328,11 +489,12 @@ public class SQLGenerator {
 
         @Override
         public Entity execute(JdbcTemplate jdbc) {
-            return (Entity) jdbc.query(this, new DeletedStorageLocationEventExtractor());
+            return (Entity) jdbc.query(this, DSLE_EXTRACTOR);
         }
     }
     
     private class ArtifactGet implements EntityGet<Artifact> {
+        private final EntitySQL sql = getSQL(Artifact.class);
         private UUID id;
         private URI uri;
 
@@ -348,21 +510,12 @@ public class SQLGenerator {
 
         @Override
         public Artifact execute(JdbcTemplate jdbc) {
-            return (Artifact) jdbc.query(this, new ArtifactExtractor());
+            return (Artifact) jdbc.query(this, ARTIFACT_EXTRACTOR);
         }
 
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            StringBuilder sb = getSelectFromSQL(Artifact.class, false);
-            sb.append(" WHERE ");
-            if (id != null) {
-                String col = getKeyColumn(Artifact.class, true);
-                sb.append(col).append(" = ?");
-            } else {
-                String col = getKeyColumn(Artifact.class, false);
-                sb.append(col).append(" = ?");
-            }
-            String sql = sb.toString();
+            String sql = (id != null ? this.sql.getByID : this.sql.getByKey);
             log.debug("ArtifactGet: " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
             if (id != null) {
@@ -375,6 +528,7 @@ public class SQLGenerator {
     }
     
     private class StorageSiteGet implements EntityGet<StorageSite> {
+        private final EntitySQL sql = getSQL(StorageSite.class);
         private UUID id;
         private URI uri;
 
@@ -390,21 +544,12 @@ public class SQLGenerator {
 
         @Override
         public StorageSite execute(JdbcTemplate jdbc) {
-            return (StorageSite) jdbc.query(this, new StorageSiteExtractor());
+            return (StorageSite) jdbc.query(this, STORAGE_SITE_EXTRACTOR);
         }
 
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            StringBuilder sb = getSelectFromSQL(StorageSite.class, false);
-            sb.append(" WHERE ");
-            if (id != null) {
-                String col = getKeyColumn(StorageSite.class, true);
-                sb.append(col).append(" = ?");
-            } else {
-                String col = getKeyColumn(StorageSite.class, false);
-                sb.append(col).append(" = ?");
-            }
-            String sql = sb.toString();
+            String sql = (id != null ? this.sql.getByID : this.sql.getByKey);
             log.debug("StorageSiteGet: " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
             if (id != null) {
@@ -416,23 +561,290 @@ public class SQLGenerator {
         }
     }
 
+    private class SkeletonList implements EntityList<Entity> {
+        private final String sql;
+        private final List<UUID> ids;
+        
+        SkeletonList(Class entityClass, List<UUID> ids) {
+            this.sql = getSQL(entityClass).skeletonList;
+            this.ids = ids;
+        }
+
+        @Override
+        public List<Entity> query(JdbcTemplate jdbc) {
+            return (List<Entity>) jdbc.query(this, SKELETON_MAPPER);
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
+            log.debug("SkeletonList: " + sql);
+            PreparedStatement prep = conn.prepareStatement(sql);
+            prep.setArray(1, conn.createArrayOf("uuid", ids.toArray()));
+            return prep;
+        }
+    }
+    
     private class StorageSiteList implements EntityList<StorageSite> {
 
         @Override
         public List<StorageSite> query(JdbcTemplate jdbc) {
-            return (List<StorageSite>) jdbc.query(this, new StorageSiteRowMapper());
+            return (List<StorageSite>) jdbc.query(this, STORAGE_SITE_MAPPER);
         }
 
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            StringBuilder sb = getSelectFromSQL(StorageSite.class, false);
-            String sql = sb.toString();
+            String sql = getSQL(StorageSite.class).select;
             log.debug("StorageSiteList: " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
             return prep;
         }
     }
     
+    private class ArtifactIteratorQuery implements EntityIteratorQuery<Artifact> {
+        private final String uriBucketPrefix;
+        private final String storageBucketPrefix;
+        private final boolean storageLocationRequired;
+        private final boolean ordered;
+        private int fetchSize = 1000;
+
+        ArtifactIteratorQuery(String uriBucketPrefix, String storageBucketPrefix,
+                boolean storageLocationRequired, boolean ordered) {
+            this.uriBucketPrefix = uriBucketPrefix;
+            this.storageBucketPrefix = storageBucketPrefix;
+            this.storageLocationRequired = storageLocationRequired || storageBucketPrefix != null;
+            this.ordered = ordered;
+        }
+
+        @Override
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public ResourceIterator<Artifact> query(DataSource ds) {
+            StringBuilder sb = new StringBuilder(getSQL(Artifact.class).select);
+            String op = " WHERE ";
+            if (storageLocationRequired) {
+                sb.append(op).append("storageLocation_storageID IS NOT NULL");
+                op = " AND ";
+            }
+            if (uriBucketPrefix != null) {
+                sb.append(op).append("uriBucket LIKE ? ESCAPE '\\'");
+                op = " AND ";
+            }
+            if (storageBucketPrefix != null) {
+                sb.append(op).append("storageLocation_storageBucket LIKE ? ESCAPE '\\'");
+            }
+            if (ordered) {
+                if (storageLocationRequired) {
+                    // same order as StorageLocation.compareTo: code point comparison, null storageBucket last
+                    sb.append(" ORDER BY storageLocation_storageBucket COLLATE \"C\" NULLS LAST,");
+                    sb.append(" storageLocation_storageID COLLATE \"C\"");
+                } else {
+                    sb.append(" ORDER BY uri");
+                }
+            }
+            final String sql = sb.toString();
+            log.debug("ArtifactIteratorQuery: " + sql);
+            
+            ResultSetIterator<Artifact> ret = new ResultSetIterator<Artifact>(ds, sql, ARTIFACT_MAPPER) {
+                @Override
+                void setValues(PreparedStatement prep) throws SQLException {
+                    int col = 1;
+                    if (uriBucketPrefix != null) {
+                        prep.setString(col++, toLikePrefix(uriBucketPrefix));
+                    }
+                    if (storageBucketPrefix != null) {
+                        prep.setString(col++, toLikePrefix(storageBucketPrefix));
+                    }
+                }
+            };
+            ret.open(fetchSize);
+            return ret;
+        }
+    }
+    
+    // streams rows through a server-side cursor: the PostgreSQL driver only uses a cursor (and honours
+    // the fetch size) when autocommit is off, so a non-transactional connection is switched for the
+    // duration of the iteration; a connection bound to the current transaction is used as is
+    // LIKE pattern matching values that start with prefix: wildcards in the prefix match literally
+    static String toLikePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+    
+    private abstract static class ResultSetIterator<E> implements ResourceIterator<E> {
+        private final DataSource ds;
+        private final String sql;
+        private final RowMapper mapper;
+        private Connection conn;
+        private PreparedStatement prep;
+        private ResultSet rs;
+        private boolean restoreAutoCommit = false;
+        private boolean closed = false;
+        private E next;
+        private int row = 0;
+        
+        ResultSetIterator(DataSource ds, String sql, RowMapper mapper) {
+            this.ds = ds;
+            this.sql = sql;
+            this.mapper = mapper;
+        }
+        
+        // set query parameters
+        abstract void setValues(PreparedStatement prep) throws SQLException;
+        
+        void open(int fetchSize) {
+            this.conn = DataSourceUtils.getConnection(ds);
+            try {
+                if (conn.getAutoCommit()) {
+                    conn.setAutoCommit(false);
+                    this.restoreAutoCommit = true;
+                }
+                this.prep = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                prep.setFetchSize(fetchSize);
+                setValues(prep);
+                this.rs = prep.executeQuery();
+            } catch (SQLException ex) {
+                close();
+                throw new SQLErrorCodeSQLExceptionTranslator(ds).translate("open", sql, ex);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                if (rs.next()) {
+                    this.next = (E) mapper.mapRow(rs, row++);
+                    return true;
+                }
+            } catch (SQLException ex) {
+                close();
+                throw new SQLErrorCodeSQLExceptionTranslator(ds).translate("next", sql, ex);
+            }
+            log.debug("ResultSetIterator: " + row + " rows");
+            close();
+            return false;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E ret = next;
+            this.next = null;
+            return ret;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (prep != null) {
+                    prep.close();
+                }
+                if (restoreAutoCommit) {
+                    conn.commit(); // read-only: ends the transaction holding the cursor
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                log.error("failed to close iterator: " + sql, ex);
+            } finally {
+                DataSourceUtils.releaseConnection(conn, ds);
+            }
+        }
+    }
+    
+    private class KeysetIteratorQuery implements EntityIteratorQuery<Entity> {
+        private final Class entityClass;
+        private final RowMapper mapper;
+        private final Date minLastModified;
+        private final UUID afterID;
+        private int fetchSize = 1000;
+        
+        KeysetIteratorQuery(Class entityClass, RowMapper mapper, Date minLastModified, UUID afterID) {
+            this.entityClass = entityClass;
+            this.mapper = mapper;
+            this.minLastModified = minLastModified;
+            this.afterID = afterID;
+        }
+
+        @Override
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public ResourceIterator<Entity> query(DataSource ds) {
+            final JdbcTemplate jdbc = new JdbcTemplate(ds);
+            final String firstSQL = getKeysetSQL(entityClass, minLastModified != null, afterID != null);
+            final String nextSQL = getKeysetSQL(entityClass, minLastModified != null, true);
+            log.debug("KeysetIteratorQuery: " + nextSQL);
+            
+            return new ResourceIterator<Entity>() {
+                private final Deque<Entity> page = new ArrayDeque<>();
+                private Entity last;
+                private boolean done = false;
+                
+                @Override
+                public boolean hasNext() {
+                    if (page.isEmpty() && !done) {
+                        final Date lastModified = (last != null ? last.getLastModified() : minLastModified);
+                        final UUID id = (last != null ? last.getID() : afterID);
+                        String sql = (last != null ? nextSQL : firstSQL);
+                        List<Entity> rows = jdbc.query(sql, new PreparedStatementSetter() {
+                            @Override
+                            public void setValues(PreparedStatement prep) throws SQLException {
+                                int col = 1;
+                                if (id != null) {
+                                    Timestamp ts = new Timestamp(lastModified.getTime());
+                                    prep.setTimestamp(col++, ts, utc());
+                                    prep.setTimestamp(col++, ts, utc());
+                                    prep.setObject(col++, id);
+                                } else if (lastModified != null) {
+                                    prep.setTimestamp(col++, new Timestamp(lastModified.getTime()), utc());
+                                }
+                                prep.setInt(col++, fetchSize);
+                            }
+                        }, mapper);
+                        page.addAll(rows);
+                        done = rows.size() < fetchSize; // short page: no more rows
+                        if (!rows.isEmpty()) {
+                            last = rows.get(rows.size() - 1);
+                        }
+                    }
+                    return !page.isEmpty();
+                }
+
+                @Override
+                public Entity next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return page.poll();
+                }
+
+                @Override
+                public void close() {
+                    page.clear();
+                    done = true;
+                }
+            };
+        }
+    }
+    
     private void safeSetString(PreparedStatement prep, int col, String value) throws SQLException {
         log.debug("safeSetString: " + col + " " + value);
         if (value != null) {
@@ -442,17 +854,25 @@ public class SQLGenerator {
         }
     }
     
-    private class ArtifactPut implements EntityPut<Artifact> {
-        private final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        private final boolean update;
-        private Artifact value;
+    private void safeSetTimestamp(PreparedStatement prep, int col, Date value, Calendar cal) throws SQLException {
+        log.debug("safeSetTimestamp: " + col + " " + value);
+        if (value != null) {
+            prep.setTimestamp(col, new Timestamp(value.getTime()), cal);
+        } else {
+            prep.setNull(col, Types.TIMESTAMP);
+        }
+    }
+    
+    private abstract class AbstractEntityPut<T extends Entity> implements EntityPut<T> {
+        private final String sql;
+        protected T value;
         
-        ArtifactPut(boolean update) {
-            this.update = update;
+        AbstractEntityPut(String sql) {
+            this.sql = sql;
         }
 
         @Override
-        public void setValue(Artifact value) {
+        public void setValue(T value) {
             this.value = value;
         }
         
@@ -461,22 +881,48 @@ public class SQLGenerator {
             jdbc.update(this);
         }
         
+        @Override
+        public int[] executeBatch(JdbcTemplate jdbc, final List<T> values) {
+            log.debug(getClass().getSimpleName() + " batch of " + values.size() + ": " + sql);
+            return jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement prep, int i) throws SQLException {
+                    setValue(values.get(i));
+                    AbstractEntityPut.this.setValues(prep);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return values.size();
+                }
+            });
+        }
+        
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            String sql = null;
-            if (update) {
-                sql = getUpdateSQL(Artifact.class);
-                       
-            } else {
-                sql = getInsertSQL(Artifact.class);
-            }
-            log.debug("ArtifactPut: " + sql);
+            log.debug(getClass().getSimpleName() + ": " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
+            setValues(prep);
+            return prep;
+        }
+        
+        // set all parameters from the current value
+        abstract void setValues(PreparedStatement prep) throws SQLException;
+    }
+    
+    private class ArtifactPut extends AbstractEntityPut<Artifact> {
+        
+        ArtifactPut(String sql) {
+            super(sql);
+        }
+        
+        @Override
+        void setValues(PreparedStatement prep) throws SQLException {
             int col = 1;
             prep.setString(col++, value.getURI().toASCIIString());
             prep.setString(col++, value.getBucket());
             prep.setString(col++, value.getContentChecksum().toASCIIString());
-            prep.setTimestamp(col++, new Timestamp(value.getContentLastModified().getTime()), utc);
+            prep.setTimestamp(col++, new Timestamp(value.getContentLastModified().getTime()), utc());
             prep.setLong(col++, value.getContentLength());
             safeSetString(prep, col++, value.contentType);
             safeSetString(prep, col++, value.contentEncoding);
@@ -499,104 +945,110 @@ public class SQLGenerator {
                 prep.setNull(col++, Types.VARCHAR); // storageLocation.storageBucket
             }
             
-            prep.setTimestamp(col++, new Timestamp(value.getLastModified().getTime()), utc);
+            safeSetTimestamp(prep, col++, value.getLastModified(), utc());
             prep.setString(col++, value.getMetaChecksum().toASCIIString());
             prep.setObject(col++, value.getID());
-            
-            return prep;
         }
-        
     }
 
-    private class StorageSitePut implements EntityPut<StorageSite> {
-        private final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        private final boolean update;
-        private StorageSite value;
-        
-        StorageSitePut(boolean update) {
-            this.update = update;
-        }
-
-        @Override
-        public void setValue(StorageSite value) {
-            this.value = value;
-        }
+    private class StorageSitePut extends AbstractEntityPut<StorageSite> {
         
-        @Override
-        public void execute(JdbcTemplate jdbc) {
-            jdbc.update(this);
+        StorageSitePut(String sql) {
+            super(sql);
         }
         
         @Override
-        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            String sql = null;
-            if (update) {
-                sql = getUpdateSQL(StorageSite.class);
-                       
-            } else {
-                sql = getInsertSQL(StorageSite.class);
-            }
-            log.debug("StorageSitePut: " + sql);
-            PreparedStatement prep = conn.prepareStatement(sql);
+        void setValues(PreparedStatement prep) throws SQLException {
             int col = 1;
             prep.setString(col++, value.getResourceID().toASCIIString());
             prep.setString(col++, value.getName());
             
-            prep.setTimestamp(col++, new Timestamp(value.getLastModified().getTime()), utc);
+            safeSetTimestamp(prep, col++, value.getLastModified(), utc());
             prep.setString(col++, value.getMetaChecksum().toASCIIString());
             prep.setObject(col++, value.getID());
-            
-            return prep;
         }
-        
     }
     
-    private class DeletedEventPut implements EntityPut<Entity> {
-        private final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        private final boolean update;
+    private class DeletedEventPut extends AbstractEntityPut<Entity> {
+        
+        DeletedEventPut(String sql) {
+            super(sql);
+        }
+        
+        @Override
+        void setValues(PreparedStatement prep) throws SQLException {
+            int col = 1;
+            safeSetTimestamp(prep, col++, value.getLastModified(), utc());
+            prep.setString(col++, value.getMetaChecksum().toASCIIString());
+            prep.setObject(col++, value.getID());
+        }
+    }
+
+    private class EntityUpsertImpl implements EntityUpsert<Entity>, ResultSetExtractor {
+        private final Class entityClass;
+        private final AbstractEntityPut put;
         private Entity value;
         
-        DeletedEventPut(boolean update) {
-            this.update = update;
+        EntityUpsertImpl(Class entityClass, AbstractEntityPut put) {
+            this.entityClass = entityClass;
+            this.put = put;
         }
 
         @Override
         public void setValue(Entity value) {
             this.value = value;
+            put.setValue(value);
         }
         
         @Override
-        public void execute(JdbcTemplate jdbc) {
-            jdbc.update(this);
+        public boolean execute(JdbcTemplate jdbc) {
+            Object[] result = (Object[]) jdbc.query(this, this);
+            Date lastModified;
+            boolean changed;
+            if (result != null) {
+                lastModified = (Date) result[0];
+                changed = (Boolean) result[1];
+            } else {
+                // inserted by another transaction after this statement started: nothing written
+                SkeletonGet get = new SkeletonGet(entityClass);
+                get.setID(value.getID());
+                Entity cur = get.execute(jdbc);
+                if (cur == null) {
+                    throw new IllegalStateException("BUG: upsert found neither new nor current " + value);
+                }
+                lastModified = cur.getLastModified();
+                changed = false;
+            }
+            if (!changed && value.getLastModified() != null && value.getLastModified().after(lastModified)) {
+                lastModified = value.getLastModified(); // don't go backwards
+            }
+            InventoryUtil.assignLastModified(value, lastModified);
+            return changed;
         }
         
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            String sql = null;
-            if (update) {
-                sql = getUpdateSQL(value.getClass());
-                       
-            } else {
-                sql = getInsertSQL(value.getClass());
-            }
-            log.debug("DeletedEventPut: " + sql);
-            PreparedStatement prep = conn.prepareStatement(sql);
-            int col = 1;
-            prep.setTimestamp(col++, new Timestamp(value.getLastModified().getTime()), utc);
-            prep.setString(col++, value.getMetaChecksum().toASCIIString());
-            prep.setObject(col++, value.getID());
-            
+            PreparedStatement prep = put.createPreparedStatement(conn);
+            // current row lookup when unchanged
+            prep.setObject(columnMap.get(entityClass).length + 1, value.getID());
             return prep;
         }
-        
-    }
 
-    private class EntityDeleteImpl implements EntityDelete {
-        private final Class entityClass;
+        @Override
+        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+            if (!rs.next()) {
+                return null;
+            }
+            return new Object[] { Util.getDate(rs, 1, utc()), rs.getBoolean(2) };
+        }
+    }
+    
+    private class EntityDeleteImpl implements EntityDelete<Entity> {
+        private final String sql;
         private UUID id;
 
         public EntityDeleteImpl(Class entityClass) {
-            this.entityClass = entityClass;
+            this.sql = getSQL(entityClass).delete;
         }
 
         @Override
@@ -608,10 +1060,25 @@ public class SQLGenerator {
         public void execute(JdbcTemplate jdbc) {
             jdbc.update(this);
         }
+        
+        @Override
+        public int[] executeBatch(JdbcTemplate jdbc, final List<UUID> ids) {
+            log.debug("EntityDeleteImpl batch of " + ids.size() + ": " + sql);
+            return jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement prep, int i) throws SQLException {
+                    prep.setObject(1, ids.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return ids.size();
+                }
+            });
+        }
 
         @Override
         public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
-            String sql = getDeleteSQL(entityClass);
             log.debug("EntityDeleteImpl: " + sql);
             PreparedStatement prep = conn.prepareStatement(sql);
             prep.setObject(1, id);
@@ -696,6 +1163,73 @@ public class SQLGenerator {
         return sb.toString();
     }
     
+    // An existing row is only updated if the metaChecksum changed. Single: same parameters as getInsertSQL
+    // plus the PK again; the result row is the resulting lastModified and whether the row was written, where
+    // lastModified is the greatest of the supplied, current, and (when written) database time. Batch: same
+    // parameters as getInsertSQL, no result, and lastModified is the greater of the supplied and current time.
+    private String getUpsertSQL(Class c, boolean batch) {
+        String tab = tableMap.get(c);
+        String[] cols = columnMap.get(c);
+        String pk = getKeyColumn(c, true);
+        StringBuilder sb = new StringBuilder();
+        sb.append("INSERT INTO ");
+        sb.append(tab);
+        sb.append(" AS cur (");
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(cols[i]);
+        }
+        sb.append(") VALUES (");
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            if (!batch && "lastModified".equals(cols[i])) {
+                sb.append("GREATEST(?, ").append(CURRENT_TIME_EXPR).append(")");
+            } else {
+                sb.append("?");
+            }
+        }
+        sb.append(") ON CONFLICT (").append(pk).append(") DO UPDATE SET ");
+        for (int i = 0; i < cols.length - 1; i++) { // PK is last
+            if (i > 0) {
+                sb.append(",");
+            }
+            if ("lastModified".equals(cols[i])) {
+                sb.append("lastModified = GREATEST(excluded.lastModified, cur.lastModified)");
+            } else {
+                sb.append(cols[i]).append(" = excluded.").append(cols[i]);
+            }
+        }
+        sb.append(" WHERE cur.metaChecksum IS DISTINCT FROM excluded.metaChecksum");
+        if (batch) {
+            return sb.toString();
+        }
+        sb.insert(0, "WITH ups AS (");
+        sb.append(" RETURNING lastModified)");
+        sb.append(" SELECT lastModified, true FROM ups");
+        sb.append(" UNION ALL SELECT lastModified, false FROM ").append(tab);
+        sb.append(" WHERE ").append(pk).append(" = ? AND NOT EXISTS (SELECT 1 FROM ups)");
+        return sb.toString();
+    }
+    
+    // rows in (lastModified, id) order, optionally after a (lastModified, id) position; the redundant
+    // lastModified condition lets the database use the lastModified index for the range
+    private String getKeysetSQL(Class c, boolean minLastModified, boolean afterID) {
+        StringBuilder sb = new StringBuilder(getSQL(c).select);
+        String pk = getKeyColumn(c, true);
+        if (afterID) {
+            sb.append(" WHERE lastModified >= ? AND (lastModified, ").append(pk).append(") > (?, ?)");
+        } else if (minLastModified) {
+            sb.append(" WHERE lastModified >= ?");
+        }
+        sb.append(" ORDER BY lastModified, ").append(pk);
+        sb.append(" LIMIT ?");
+        return sb.toString();
+    }
+    
     private String getDeleteSQL(Class c) {
         StringBuilder sb = new StringBuilder();
         sb.append("DELETE FROM ");
@@ -718,21 +1252,32 @@ public class SQLGenerator {
         return cols[0]; // first column is logical key
     }
     
+    private RowMapper getRowMapper(Class c) {
+        if (Artifact.class.equals(c)) {
+            return ARTIFACT_MAPPER;
+        }
+        if (StorageSite.class.equals(c)) {
+            return STORAGE_SITE_MAPPER;
+        }
+        if (DeletedArtifactEvent.class.equals(c)) {
+            return DAE_MAPPER;
+        }
+        if (DeletedStorageLocationEvent.class.equals(c)) {
+            return DSLE_MAPPER;
+        }
+        throw new UnsupportedOperationException("entity-iterator: " + c.getName());
+    }
+    
     public ResultSetExtractor getArtifactExtractor() {
-        return new ArtifactExtractor();
+        return ARTIFACT_EXTRACTOR;
     }
     
-    private class SkeletonEntityExtractor implements ResultSetExtractor {
+    private static class SkeletonEntityRowMapper implements RowMapper {
 
-        final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        
         @Override
-        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
-            if (!rs.next()) {
-                return null;
-            }
+        public Object mapRow(ResultSet rs, int i) throws SQLException {
             int col = 1;
-            final Date lastModified = Util.getDate(rs, col++, utc);
+            final Date lastModified = Util.getDate(rs, col++, utc());
             final URI metaChecksum = Util.getURI(rs, col++);
             final UUID id = Util.getUUID(rs, col++);
             
@@ -743,28 +1288,22 @@ public class SQLGenerator {
         }
     }
     
-    private class ArtifactExtractor implements ResultSetExtractor {
+    private static class ArtifactRowMapper implements RowMapper {
 
-        final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        
         @Override
-        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
-            if (!rs.next()) {
-                return null;
-            }
-            
+        public Object mapRow(ResultSet rs, int i) throws SQLException {
             int col = 1;
             final URI uri = Util.getURI(rs, col++);
             col++; // uriBucket
             final URI contentChecksum = Util.getURI(rs, col++);
-            final Date contentLastModified = Util.getDate(rs, col++, utc);
+            final Date contentLastModified = Util.getDate(rs, col++, utc());
             final Long contentLength = Util.getLong(rs, col++);
             final String contentType = rs.getString(col++);
             final String contentEncoding = rs.getString(col++);
             final UUID[] siteLocs = Util.getUUIDArray(rs, col++);
             final URI storLoc = Util.getURI(rs, col++);
             final String storBucket = rs.getString(col++);
-            final Date lastModified = Util.getDate(rs, col++, utc);
+            final Date lastModified = Util.getDate(rs, col++, utc());
             final URI metaChecksum = Util.getURI(rs, col++);
             final UUID id = Util.getUUID(rs, col++);
             
@@ -776,7 +1315,7 @@ public class SQLGenerator {
                     a.siteLocations.add(new SiteLocation(s));
                 }
             }
-            log.debug("ArtifactExtractor: " + storLoc + " " + storBucket);
+            log.debug("ArtifactRowMapper: " + storLoc + " " + storBucket);
             if (storLoc != null) {
                 a.storageLocation = new StorageLocation(storLoc);
                 a.storageLocation.storageBucket = storBucket;
@@ -787,15 +1326,13 @@ public class SQLGenerator {
         }
     }
     
-    private class StorageSiteRowMapper implements RowMapper {
-        Calendar utc = Calendar.getInstance(DateUtil.UTC);
-
+    private static class StorageSiteRowMapper implements RowMapper {
         @Override
         public Object mapRow(ResultSet rs, int i) throws SQLException {
             int col = 1;
             final URI resourceID = Util.getURI(rs, col++);
             final String name = rs.getString(col++);
-            final Date lastModified = Util.getDate(rs, col++, utc);
+            final Date lastModified = Util.getDate(rs, col++, utc());
             final URI metaChecksum = Util.getURI(rs, col++);
             final UUID id = Util.getUUID(rs, col++);
             
@@ -807,30 +1344,12 @@ public class SQLGenerator {
         
     }
     
-    private class StorageSiteExtractor implements ResultSetExtractor {
-        final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        
-        @Override
-        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
-            if (!rs.next()) {
-                return null;
-            }
-            StorageSiteRowMapper m = new StorageSiteRowMapper();
-            return m.mapRow(rs, 1);
-        }
-    }
-    
-    private class DeletedArtifactEventExtractor implements ResultSetExtractor {
+    private static class DeletedArtifactEventRowMapper implements RowMapper {
 
-        final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        
         @Override
-        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
-            if (!rs.next()) {
-                return null;
-            }
+        public Object mapRow(ResultSet rs, int i) throws SQLException {
             int col = 1;
-            final Date lastModified = Util.getDate(rs, col++, utc);
+            final Date lastModified = Util.getDate(rs, col++, utc());
             final URI metaChecksum = Util.getURI(rs, col++);
             final UUID id = Util.getUUID(rs, col++);
             
@@ -841,17 +1360,12 @@ public class SQLGenerator {
         }
     }
     
-    private class DeletedStorageLocationEventExtractor implements ResultSetExtractor {
+    private static class DeletedStorageLocationEventRowMapper implements RowMapper {
 
-        final Calendar utc = Calendar.getInstance(DateUtil.UTC);
-        
         @Override
-        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
-            if (!rs.next()) {
-                return null;
-            }
+        public Object mapRow(ResultSet rs, int i) throws SQLException {
             int col = 1;
-            final Date lastModified = Util.getDate(rs, col++, utc);
+            final Date lastModified = Util.getDate(rs, col++, utc());
             final URI metaChecksum = Util.getURI(rs, col++);
             final UUID id = Util.getUUID(rs, col++);
             
@@ -861,4 +1375,20 @@ public class SQLGenerator {
             return ret;
         }
     }
+    
+    private static class SingleRowExtractor implements ResultSetExtractor {
+        private final RowMapper mapper;
+        
+        SingleRowExtractor(RowMapper mapper) {
+            this.mapper = mapper;
+        }
+        
+        @Override
+        public Object extractData(ResultSet rs) throws SQLException, DataAccessException {
+            if (!rs.next()) {
+                return null;
+            }
+            return mapper.mapRow(rs, 1);
+        }
+    }
 }
@@ -98,7 +98,7 @@ public class StorageSiteDAO extends AbstractDAO {
         long t = System.currentTimeMillis();
 
         try {
-            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            JdbcTemplate jdbc = getJdbcTemplate();
             EntityList get = gen.getEntityList(StorageSite.class);
             List<StorageSite> result = get.query(jdbc);
             return result;
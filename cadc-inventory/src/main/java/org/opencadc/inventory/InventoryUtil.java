@@ -85,6 +85,15 @@ import org.apache.log4j.Logger;
 public abstract class InventoryUtil {
     private static final Logger log = Logger.getLogger(InventoryUtil.class);
 
+    // computeBucket is called for every artifact so reuse one digest per thread
+    private static final ThreadLocal<MessageDigest> BUCKET_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("BUG: failed to get instance of SHA-1", ex);
+        }
+    });
+
     private InventoryUtil() { 
     }
     
@@ -97,16 +106,12 @@ public abstract class InventoryUtil {
      * @return short code
      */
     public static String computeBucket(URI uri, int length) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] bytes = Entity.primitiveValueToBytes(uri, "File.uri", md.getAlgorithm());
-            md.update(bytes);
-            byte[] sha = md.digest();
-            String hex = HexUtil.toHex(sha);
-            return hex.substring(0, length);
-        } catch (NoSuchAlgorithmException ex) {
-            throw new RuntimeException("BUG: failed to get instance of SHA-1", ex);
-        }
+        MessageDigest md = BUCKET_DIGEST.get();
+        byte[] bytes = Entity.primitiveValueToBytes(uri, "File.uri", md.getAlgorithm());
+        md.update(bytes);
+        byte[] sha = md.digest(); // also resets md for the next call on this thread
+        String hex = HexUtil.toHex(sha);
+        return hex.substring(0, length);
     }
     
     /**
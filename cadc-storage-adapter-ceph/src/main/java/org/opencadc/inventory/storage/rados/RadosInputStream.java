@@ -73,6 +73,16 @@ import com.ceph.rados.IoCTX;
 import com.ceph.rados.Rados;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.log4j.Logger;
 
 
@@ -82,6 +92,11 @@ import org.apache.log4j.Logger;
  * we need to use that as a data source to this Input Stream.
  * Note that the main read() method is not implemented here as it relies on the RADOS API to provide the next buffer of
  * bytes.
+ *
+ * <p>One IO Context is used for the life of the stream.  Data is read ahead in chunks of readAheadSize bytes, with up
+ * to readAheadDepth chunks being read in the background, so small reads are served from memory.  Read-ahead starts
+ * once the first chunk has been consumed, so a read that ends within one chunk holds a single buffer.  Skipping only
+ * moves the position; chunks that are skipped over are never read.
  * jenkinsd 2019.12.11
  */
 public class RadosInputStream extends InputStream {
@@ -89,6 +104,21 @@ public class RadosInputStream extends InputStream {
     private static final Logger LOGGER = Logger.getLogger(RadosInputStream.class);
     private static final String DATA_POOL_NAME = "default.rgw.buckets.non-ec";
 
+    static final int DEFAULT_READ_AHEAD_SIZE = 4 * 1024 * 1024;
+    static final int DEFAULT_READ_AHEAD_DEPTH = 2;
+    private static final int READ_AHEAD_THREAD_COUNT = 16;
+
+    /**
+     * Runs read-ahead for all streams, which queue for its threads.  Threads are daemons so an abandoned stream cannot
+     * hold up shutdown.
+     */
+    private static final ExecutorService READ_AHEAD_EXECUTOR = Executors.newFixedThreadPool(
+            READ_AHEAD_THREAD_COUNT, runnable -> {
+        final Thread thread = new Thread(runnable, "rados-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
 
     /**
      * The Object ID to lookup in RADOS.
@@ -96,10 +126,58 @@ public class RadosInputStream extends InputStream {
     final String objectID;
 
     /**
-     * The Context lookup object to communicate with the RADOS cluster with.  Will be closed with this stream.
+     * The Context lookup object to communicate with the RADOS cluster with.
      */
     final Rados rados;
 
+    /**
+     * The IO Context to read with.  Either shared, and owned by the caller, or created from rados on first read and
+     * closed with this stream.
+     */
+    private IoCTX ioCTX;
+    private final boolean ownsContext;
+
+    private final int readAheadSize;
+    private final int readAheadDepth;
+
+    /**
+     * Chunks being read, in order of position.
+     */
+    private final Deque<PendingChunk> readAhead = new ArrayDeque<>();
+
+    /**
+     * Chunks that were skipped over while still being read.  They are awaited on close, before the IO Context is
+     * released.
+     */
+    private final List<PendingChunk> skippedReadAhead = new ArrayList<>();
+
+    /**
+     * Buffers of chunks that have been consumed, for reuse.
+     */
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    /**
+     * The chunk that reads are currently served from.
+     */
+    private Chunk current;
+
+    /**
+     * Position of the next chunk to schedule.
+     */
+    private long fetchPosition;
+
+    /**
+     * Position of the end of the object, once a short chunk has been seen.
+     */
+    private long endPosition = Long.MAX_VALUE;
+
+    /**
+     * Whether a chunk has been consumed, after which chunks are read ahead.
+     */
+    private boolean sequential = false;
+
+    private boolean closed = false;
+
     /**
      * The entire offset for the RADOS IO Context.  When reading from RADOS, we need to provide the offset (current)
      * position in the stream.
@@ -108,14 +186,46 @@ public class RadosInputStream extends InputStream {
 
 
     /**
-     * Creates a {@code RadosInputStream} so that it uses the {@code ByteArrayInputStream} as its buffer stream.
+     * Creates a {@code RadosInputStream} that creates its own IO Context.
      *
      * @param rados    The RADOS object.  It should already be connected.
      * @param objectID The Object ID to lookup.
      */
     RadosInputStream(final Rados rados, final String objectID) {
+        this(rados, null, objectID, DEFAULT_READ_AHEAD_SIZE, DEFAULT_READ_AHEAD_DEPTH);
+    }
+
+    /**
+     * Creates a {@code RadosInputStream} that reads with an existing IO Context.
+     *
+     * @param ioCTX    The IO Context to read with.  It is not closed by this stream.
+     * @param objectID The Object ID to lookup.
+     */
+    RadosInputStream(final IoCTX ioCTX, final String objectID) {
+        this(null, ioCTX, objectID, DEFAULT_READ_AHEAD_SIZE, DEFAULT_READ_AHEAD_DEPTH);
+    }
+
+    /**
+     * Creates a {@code RadosInputStream}.
+     *
+     * @param rados          The RADOS object, used to create an IO Context if none is given.
+     * @param ioCTX          The IO Context to read with, or null to create one.  A given context is not closed.
+     * @param objectID       The Object ID to lookup.
+     * @param readAheadSize  The size of each read from RADOS.
+     * @param readAheadDepth The number of chunks to read in the background, or zero to read on demand only.
+     */
+    RadosInputStream(final Rados rados, final IoCTX ioCTX, final String objectID, final int readAheadSize,
+                     final int readAheadDepth) {
+        if (readAheadSize <= 0 || readAheadDepth < 0) {
+            throw new IllegalArgumentException(String.format("Invalid read-ahead size %d or depth %d.",
+                                                             readAheadSize, readAheadDepth));
+        }
         this.rados = rados;
+        this.ioCTX = ioCTX;
+        this.ownsContext = (ioCTX == null);
         this.objectID = objectID;
+        this.readAheadSize = readAheadSize;
+        this.readAheadDepth = readAheadDepth;
     }
 
 
@@ -136,8 +246,9 @@ public class RadosInputStream extends InputStream {
      * @return the next byte of data, or <code>-1</code> if the end of the stream is reached.
      */
     @Override
-    public int read() {
-        throw new UnsupportedOperationException("Cannot read single byte.  Use read(byte[], int, int).");
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
     }
 
     /**
@@ -182,7 +293,7 @@ public class RadosInputStream extends InputStream {
      * encouraged to provide a more efficient implementation of this method.
      *
      * @param b   the buffer into which the data is read.
-     * @param off Ignored.
+     * @param off the start offset in array <code>b</code> at which the data is written.
      * @param len the maximum number of bytes to read.
      * @return the total number of bytes read into the buffer, or
      * <code>-1</code> if there is no more data because the end of the stream has been reached.
@@ -198,22 +309,229 @@ public class RadosInputStream extends InputStream {
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        /*
-         * This read() method will return <code>0</code> when there are no more bytes to be found.  This needs to be
-         * taken into account as the <code>InputStream</code> API requires a <code>-1</code> to be returned when the
-         * Stream is exhausted.
-         */
-        try (final IoCTX ioCTX = rados.ioCtxCreate(DATA_POOL_NAME)) {
-            final int bytesRead = readRadosBytes(ioCTX, b, len);
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (current == null || !current.contains(position)) {
+            if (position >= endPosition) {
+                return -1;
+            }
+            nextChunk();
+        }
+
+        final int chunkIndex = (int) (position - current.position);
+        final int bytesRead = Math.min(len, current.length - chunkIndex);
+        System.arraycopy(current.buffer, chunkIndex, b, off, bytesRead);
+        position += bytesRead;
+
+        return bytesRead;
+    }
+
+    /**
+     * Skip over bytes without reading them.  May skip past the end of the object, after which reads return -1.
+     *
+     * @param n The number of bytes to skip.
+     * @return The number of bytes skipped.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (n <= 0) {
+            return 0;
+        }
+        position += n;
+        return n;
+    }
+
+    /**
+     * Make the chunk containing the current position the current chunk, starting and topping up the read-ahead.
+     */
+    private void nextChunk() throws IOException {
+        if (current != null) {
+            freeBuffers.add(current.buffer);
+            current = null;
+            sequential = true;
+        }
+
+        // Reclaim buffers of skipped chunks that have since finished.
+        for (final Iterator<PendingChunk> iter = skippedReadAhead.iterator(); iter.hasNext(); ) {
+            final PendingChunk skipped = iter.next();
+            if (skipped.future.isDone()) {
+                freeBuffers.add(skipped.buffer);
+                iter.remove();
+            }
+        }
+
+        // Drop chunks that were skipped over.  Chunks still being read are kept until they finish.
+        while (!readAhead.isEmpty() && readAhead.peekFirst().position + readAheadSize <= position) {
+            final PendingChunk skipped = readAhead.removeFirst();
+            if (skipped.future.isDone()) {
+                freeBuffers.add(skipped.buffer);
+            } else {
+                skippedReadAhead.add(skipped);
+            }
+        }
+        if (readAhead.isEmpty()) {
+            fetchPosition = position;
+        }
+
+        if (ioCTX == null) {
+            ioCTX = rados.ioCtxCreate(DATA_POOL_NAME);
+            LOGGER.debug(String.format("Created IO Context to read %s.", objectID));
+        }
+        open(ioCTX);
+
+        final int depth = sequential ? readAheadDepth : 0;
+        while (readAhead.size() <= depth && fetchPosition < endPosition) {
+            final byte[] buffer = freeBuffers.isEmpty() ? new byte[readAheadSize] : freeBuffers.removeFirst();
+            final long chunkPosition = fetchPosition;
+            final Future<Chunk> future;
+            if (depth == 0) {
+                future = CompletableFuture.completedFuture(readChunk(buffer, chunkPosition));
+            } else {
+                future = READ_AHEAD_EXECUTOR.submit(() -> readChunk(buffer, chunkPosition));
+            }
+            readAhead.addLast(new PendingChunk(chunkPosition, buffer, future));
+            fetchPosition += readAheadSize;
+        }
+
+        final Chunk chunk = await(readAhead.removeFirst().future);
+        if (chunk.length < readAheadSize) {
+            endPosition = Math.min(endPosition, chunk.position + chunk.length);
+        }
+        current = chunk;
+    }
+
+    private Chunk readChunk(final byte[] buffer, final long chunkPosition) throws IOException {
+        final int bytesRead = readRadosBytes(ioCTX, buffer, buffer.length, chunkPosition);
+        return new Chunk(chunkPosition, buffer, Math.max(bytesRead, 0));
+    }
+
+    private Chunk await(final Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + objectID, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Called before each chunk is scheduled, with the IO Context that will be used to read.  Subclasses can set up
+     * any additional context here.
+     *
+     * @param ioCTX The IO Context.
+     * @throws IOException If the set up failed.
+     */
+    void open(final IoCTX ioCTX) throws IOException {
+    }
+
+    /**
+     * Read bytes from the RADOS back end.  May be called from several threads at once.
+     *
+     * @param ioCTX  The IO Context connection.
+     * @param b      The byte array to read into, from the start.
+     * @param len    The amount of bytes to read.
+     * @param offset The position in the object to read from.
+     * @return Count of bytes read.
+     *
+     * @throws IOException For any backend reading.
+     */
+    int readRadosBytes(final IoCTX ioCTX, final byte[] b, final int len, final long offset) throws IOException {
+        return ioCTX.read(objectID, len, offset, b);
+    }
+
+    /**
+     * Called on close, once no more reads are in flight and before the IO Context is closed.
+     */
+    void release() {
+    }
+
+    /**
+     * Wait for the read-ahead, including chunks that were skipped over, to finish, then close the IO Context if it
+     * was created by this stream.  Waiting is not cut short by an interrupt, as no read may outlive the context.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final List<PendingChunk> pendingChunks = new ArrayList<>(skippedReadAhead);
+        pendingChunks.addAll(readAhead);
+        boolean interrupted = false;
+        for (final PendingChunk pendingChunk : pendingChunks) {
+            while (true) {
+                try {
+                    pendingChunk.future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    LOGGER.debug(String.format("Ignoring failed read-ahead of %s: %s", objectID, e.getMessage()));
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        skippedReadAhead.clear();
+        readAhead.clear();
+        release();
+        if (ownsContext && ioCTX != null) {
+            ioCTX.close();
+        }
+    }
 
-            // Update the current position in the stream.
-            position += bytesRead;
+    /**
+     * A chunk of the object being read.
+     */
+    private static final class PendingChunk {
+        final long position;
+        final byte[] buffer;
+        final Future<Chunk> future;
 
-            return (bytesRead == 0) ? -1 : bytesRead;
+        PendingChunk(final long position, final byte[] buffer, final Future<Chunk> future) {
+            this.position = position;
+            this.buffer = buffer;
+            this.future = future;
         }
     }
 
-    int readRadosBytes(final IoCTX ioCTX, byte[] b, int len) throws IOException {
-        return ioCTX.read(objectID, len, position, b);
+    /**
+     * A chunk of the object.
+     */
+    private static final class Chunk {
+        final long position;
+        final byte[] buffer;
+        final int length;
+
+        Chunk(final long position, final byte[] buffer, final int length) {
+            this.position = position;
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        boolean contains(final long pos) {
+            return pos >= position && pos < position + length;
+        }
     }
 }
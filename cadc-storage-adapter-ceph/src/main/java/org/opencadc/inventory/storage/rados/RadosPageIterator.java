@@ -0,0 +1,186 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.rados;
+
+import ca.nrc.cadc.util.StringUtil;
+import com.ceph.rados.ListCtx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.storage.StorageMetadata;
+
+
+/**
+ * Iterator over pages of objects listed from RADOS.  The stat and extended attributes of all the objects in a page
+ * are fetched concurrently, and the next page is listed while the current one is consumed.  Objects can be limited
+ * to those whose ID starts with a bucket prefix; the filter is applied to each listed page before any metadata is
+ * fetched.
+ */
+class RadosPageIterator implements Iterator<StorageMetadata> {
+
+    private static final Logger LOGGER = Logger.getLogger(RadosPageIterator.class);
+
+    static final int THREAD_COUNT = 16;
+
+    /**
+     * Shared by all iterators for listing and metadata calls.  Threads are daemons as iterators are not closed.
+     */
+    private static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(THREAD_COUNT, runnable -> {
+        final Thread thread = new Thread(runnable, "rados-iterator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RadosStorageAdapter storageAdapter;
+    private final ListCtx listCtx;
+    private final String storageBucket;
+
+    /**
+     * Current page of metadata, some of which may still be being fetched.
+     */
+    private Iterator<Future<StorageMetadata>> currIterator = Collections.emptyIterator();
+
+    /**
+     * The next page of object IDs being listed, or null when there are no more pages.
+     */
+    private Future<String[]> nextPage;
+
+    /**
+     * Constructor.
+     *
+     * @param storageAdapter The adapter to fetch metadata with.
+     * @param listCtx        The listing, with its first page already loaded.
+     * @param storageBucket  Only include objects whose ID starts with this prefix.  Optional.
+     */
+    RadosPageIterator(final RadosStorageAdapter storageAdapter, final ListCtx listCtx, final String storageBucket) {
+        this.storageAdapter = storageAdapter;
+        this.listCtx = listCtx;
+        this.storageBucket = storageBucket;
+        loadPage(listCtx.getObjects());
+    }
+
+    private void loadPage(final String[] objectIDs) {
+        // Start listing the next page before working through this one.
+        nextPage = EXECUTOR_SERVICE.submit(() -> (listCtx.nextObjects() > 0) ? listCtx.getObjects() : null);
+
+        final List<Future<StorageMetadata>> page = new ArrayList<>(objectIDs.length);
+        for (final String objectID : objectIDs) {
+            if (!StringUtil.hasLength(storageBucket) || objectID.startsWith(storageBucket)) {
+                page.add(EXECUTOR_SERVICE.submit(() -> storageAdapter.head(storageBucket, objectID)));
+            }
+        }
+        LOGGER.debug(String.format("Read in %d objects, %d matching.", objectIDs.length, page.size()));
+        currIterator = page.iterator();
+    }
+
+    private static <T> T await(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while listing objects.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currIterator.hasNext() && (nextPage != null)) {
+            final String[] objectIDs = await(nextPage);
+            if (objectIDs == null) {
+                LOGGER.debug("No more objects to read.");
+                nextPage = null;
+            } else {
+                loadPage(objectIDs);
+            }
+        }
+        return currIterator.hasNext();
+    }
+
+    @Override
+    public StorageMetadata next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return await(currIterator.next());
+    }
+}
@@ -76,7 +76,9 @@ import ca.nrc.cadc.net.IncorrectContentChecksumException;
 import ca.nrc.cadc.net.IncorrectContentLengthException;
 import ca.nrc.cadc.net.ResourceNotFoundException;
 import ca.nrc.cadc.net.TransientException;
+import ca.nrc.cadc.util.PropertiesReader;
 import ca.nrc.cadc.util.StringUtil;
+import com.ceph.rados.Completion;
 import com.ceph.rados.IoCTX;
 import com.ceph.rados.ListCtx;
 import com.ceph.rados.Rados;
@@ -90,33 +92,42 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.math.BigInteger;
 import java.net.URI;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import nom.tam.fits.BasicHDU;
-import nom.tam.fits.Fits;
-import nom.tam.fits.FitsException;
-import nom.tam.fits.Header;
-import nom.tam.fits.HeaderCard;
-import nom.tam.util.ArrayDataOutput;
-import nom.tam.util.BufferedDataOutputStream;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
 import org.opencadc.inventory.storage.NewArtifact;
+import org.opencadc.inventory.storage.SortedStorageMetadataIterator;
 import org.opencadc.inventory.storage.StorageAdapter;
 import org.opencadc.inventory.storage.StorageEngageException;
 import org.opencadc.inventory.storage.StorageMetadata;
+import org.opencadc.inventory.storage.checksum.ChecksumAlgorithm;
+import org.opencadc.inventory.storage.checksum.DigestPool;
+import org.opencadc.inventory.storage.fits.FitsCutoutWriter;
 
 
 /**
@@ -126,6 +137,10 @@ public class RadosStorageAdapter implements StorageAdapter {
 
     private static final Logger LOGGER = Logger.getLogger(RadosStorageAdapter.class);
 
+    public static final String CONFIG_FILE = "cadc-storage-adapter-ceph.properties";
+    public static final String CONFIG_PROPERTY_READ_AHEAD_SIZE = "readAheadSize";
+    public static final String CONFIG_PROPERTY_READ_AHEAD_DEPTH = "readAheadDepth";
+
     private static final String META_POOL_NAME = "default.rgw.meta";
     private static final String META_NAMESPACE = "root";
     static final String STORAGE_ID_URI_TEMPLATE = "rados:%s";
@@ -135,10 +150,23 @@ public class RadosStorageAdapter implements StorageAdapter {
     private static final String BUCKET_NAME_LOOKUP = ".bucket.meta.%s";
     private static final String OBJECT_ID_LOOKUP = "%s_%s";
 
-    private static final String DIGEST_ALGORITHM = "MD5";
     private static final int DEFAULT_BUCKET_HASH_LENGTH = 5;
     private static final int BUFFER_SIZE_BYTES = 1024 * 1024; // One Megabyte.
     private static final int DEFAULT_LIST_PAGE_SIZE = 1000;
+    private static final int DEFAULT_OUTSTANDING_WRITES = 4;
+    private static final int DEFAULT_DELETE_THREADS = 16;
+    private static final int DEFAULT_HEAD_THREADS = 16;
+    private static final int HEAD_THREAD_COUNT = 32;
+
+    /**
+     * Shared by all bulk heads, each of which uses at most headThreads of its threads.
+     */
+    private static final ExecutorService HEAD_EXECUTOR = Executors.newFixedThreadPool(
+            HEAD_THREAD_COUNT, runnable -> {
+        final Thread thread = new Thread(runnable, "rados-head");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final String cephxID;
     private final String clusterName;
@@ -146,6 +174,28 @@ public class RadosStorageAdapter implements StorageAdapter {
     private final Rados radosClient;
     private final RadosStriper radosStriperClient;
 
+    // Number of asynchronous chunk writes allowed in flight while the next chunk is read from the client.
+    int outstandingWrites = DEFAULT_OUTSTANDING_WRITES;
+
+    // Number of concurrent removes in a batch delete.
+    int deleteThreads = DEFAULT_DELETE_THREADS;
+
+    // Number of concurrent lookups in a bulk head.
+    int headThreads = DEFAULT_HEAD_THREADS;
+
+    // Approximate heap used to sort listed objects before spilling sorted runs to sortDirectory, as RADOS lists in
+    // hash order.  A null directory uses java.io.tmpdir.
+    long sortBufferSize = SortedStorageMetadataIterator.DEFAULT_BUFFER_SIZE;
+    File sortDirectory;
+
+    // Size of each read from RADOS, and number of those read ahead of a sequential reader.
+    int readAheadSize;
+    int readAheadDepth;
+
+    // IO Context for the data pool, shared by all operations as librados contexts are thread safe.  Created on
+    // first use, as creating one is a round trip to the cluster.
+    private IoCTX dataContext;
+
 
     /**
      * New RADOS adapter.
@@ -157,6 +207,20 @@ public class RadosStorageAdapter implements StorageAdapter {
         this.cephxID = String.format("client.%s", userID);
         this.clusterName = clusterName;
 
+        final PropertiesReader pr = new PropertiesReader(CONFIG_FILE);
+        this.readAheadSize = getIntProperty(pr, CONFIG_PROPERTY_READ_AHEAD_SIZE,
+                                            RadosInputStream.DEFAULT_READ_AHEAD_SIZE);
+        this.readAheadDepth = getIntProperty(pr, CONFIG_PROPERTY_READ_AHEAD_DEPTH,
+                                             RadosInputStream.DEFAULT_READ_AHEAD_DEPTH);
+        if (readAheadSize < 1) {
+            throw new IllegalStateException(String.format("failed to load %s from %s: must be at least 1",
+                    CONFIG_PROPERTY_READ_AHEAD_SIZE, CONFIG_FILE));
+        }
+        if (readAheadDepth < 0) {
+            throw new IllegalStateException(String.format("failed to load %s from %s: must not be negative",
+                    CONFIG_PROPERTY_READ_AHEAD_DEPTH, CONFIG_FILE));
+        }
+
         try {
             this.radosClient = connect();
             this.radosStriperClient = connectStriper();
@@ -168,6 +232,19 @@ public class RadosStorageAdapter implements StorageAdapter {
         LOGGER.setLevel(Level.DEBUG);
     }
 
+    private static int getIntProperty(final PropertiesReader pr, final String name, final int defaultValue) {
+        final String value = pr.getFirstPropertyValue(name);
+        if (!StringUtil.hasLength(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(String.format("failed to load %s from %s: %s", name, CONFIG_FILE,
+                    e.getMessage()), e);
+        }
+    }
+
     /**
      * Create a new client. Override this to Mock test, if needed.
      *
@@ -197,17 +274,20 @@ public class RadosStorageAdapter implements StorageAdapter {
         return rados;
     }
 
-    private MessageDigest createDigester() {
-        try {
-            return MessageDigest.getInstance(DIGEST_ALGORITHM);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Unable to proceed with checksum implementation.", e);
-        }
+    private URI createChecksum(final MessageDigest messageDigest) {
+        return ChecksumAlgorithm.MD5.toChecksum(messageDigest.digest());
     }
 
-    private URI createChecksum(final MessageDigest messageDigest) {
-        return URI.create(String.format("%s:%s", messageDigest.getAlgorithm().toLowerCase(),
-                                        new BigInteger(1, messageDigest.digest()).toString(16)));
+    /**
+     * The md5 extended attribute holds the hex value.  Older objects have the whole checksum URI.
+     */
+    private URI toChecksum(final String md5ChecksumValue) {
+        if (!StringUtil.hasLength(md5ChecksumValue)) {
+            return URI.create(String.format(CHECKSUM_URI_TEMPLATE, "UNKNOWN"));
+        }
+        final String hex = md5ChecksumValue.startsWith("md5:") ? md5ChecksumValue.substring("md5:".length())
+                                                                : md5ChecksumValue;
+        return URI.create(String.format(CHECKSUM_URI_TEMPLATE, hex.toLowerCase()));
     }
 
     private IoCTX contextConnect(final Rados client, final String poolName) throws RadosException {
@@ -226,9 +306,23 @@ public class RadosStorageAdapter implements StorageAdapter {
         }
     }
 
-    private IoCTXStriper contextConnectStriper(final String poolName) throws RadosException {
+    /**
+     * Obtain the shared IO Context for the data pool.  Callers must not close it.
+     *
+     * @return IoCTX instance.  Never null.
+     *
+     * @throws RadosException If the context could not be created.
+     */
+    synchronized IoCTX getDataContext() throws RadosException {
+        if (dataContext == null) {
+            dataContext = contextConnect(DATA_POOL_NAME);
+        }
+        return dataContext;
+    }
+
+    private IoCTXStriper contextConnectStriper() throws RadosException {
         try {
-            return radosStriperClient.ioCtxCreateStriper(contextConnect(poolName));
+            return radosStriperClient.ioCtxCreateStriper(getDataContext());
         } catch (IOException e) {
             throw new RadosException(e.getMessage(), e);
         }
@@ -281,6 +375,66 @@ public class RadosStorageAdapter implements StorageAdapter {
         }
     }
 
+    /**
+     * Get from storage the specified byte ranges of the artifact identified by storageLocation.  Ranges are read with
+     * offset reads on a single IO Context.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param outputStream    The destination stream.
+     * @param byteRanges      The byte ranges to get.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException             If the storage system failed to stream.
+     * @throws WriteException            If writing failed.
+     * @throws StorageEngageException    If the adapter failed to interact with storage.
+     */
+    @Override
+    public void get(StorageLocation storageLocation, OutputStream outputStream, List<ByteRange> byteRanges)
+            throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException,
+                   TransientException {
+        final String objectID = getObjectID(storageLocation);
+        try {
+            final IoCTX ioCTX = getDataContext();
+            final byte[] buffer = new byte[BUFFER_SIZE_BYTES];
+            for (final ByteRange byteRange : byteRanges) {
+                long position = byteRange.getOffset();
+                long remaining = byteRange.getLength();
+                while (remaining > 0) {
+                    final int length = (int) Math.min(remaining, buffer.length);
+                    final int bytesRead = ioCTX.read(objectID, length, position, buffer);
+                    if (bytesRead <= 0) {
+                        // Range extends beyond the end of the object.
+                        break;
+                    }
+                    try {
+                        outputStream.write(buffer, 0, bytesRead);
+                    } catch (IOException e) {
+                        throw new WriteException(e.getMessage(), e);
+                    }
+                    position += bytesRead;
+                    remaining -= bytesRead;
+                }
+            }
+        } catch (RadosNotFoundException e) {
+            throw new ResourceNotFoundException(e.getMessage(), e);
+        } catch (RadosException e) {
+            throw new StorageEngageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get from storage the artifact identified by storageLocation with cutout specifications.  Image sections of a FITS
+     * file (e.g. [1][100:200,100:200]) are read with offset reads of the intersecting rows only; other cutouts return
+     * the headers of the file.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param outputStream    The destination stream.
+     * @param cutouts         Cutouts to be applied to the artifact
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException             If the storage system failed to stream.
+     * @throws WriteException            If writing failed.
+     * @throws StorageEngageException    If the adapter failed to interact with storage.
+     * @throws TransientException        If an unexpected, temporary exception occurred.
+     */
     @Override
     public void get(StorageLocation storageLocation, OutputStream outputStream, Set<String> cutouts)
             throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException,
@@ -289,68 +443,138 @@ public class RadosStorageAdapter implements StorageAdapter {
             get(storageLocation, outputStream);
         } else {
             final long start = System.currentTimeMillis();
+            new FitsCutoutWriter(this, storageLocation).write(cutouts, outputStream);
+            LOGGER.debug(String.format("Read and wrote HDUs in %d milliseconds.", System.currentTimeMillis() - start));
+        }
+    }
 
-            try (final InputStream inputStream = createStriperInputStream(getObjectID(storageLocation))) {
-                final Fits fitsFile = new Fits(inputStream);
-                final ArrayDataOutput dataOutput = new BufferedDataOutputStream(outputStream);
-
-                // Just get the first cutout for now.
-                BasicHDU<?> hdu;
-                long beforeHDU = System.currentTimeMillis();
-                int count = 1;
-                while ((hdu = fitsFile.readHDU()) != null) {
-                    final Header header = hdu.getHeader();
-                    final long afterReadHDU = System.currentTimeMillis();
-                    final HeaderCard headerNameCard = header.findCard("EXTNAME");
-                    LOGGER.debug(String.format("%d,\"%s\",%d,\"milliseconds\"", count,
-                                               headerNameCard == null ? "N/A" : headerNameCard.getValue(),
-                                               afterReadHDU - beforeHDU));
-                    beforeHDU = System.currentTimeMillis();
-                    if (hdu.getAxes() != null) {
-                        final int axesCount = hdu.getAxes().length;
-                        for (int i = 0; i < axesCount; i++) {
-                            header.findCard(String.format("NAXIS%d", i + 1)).setValue(0);
-                        }
-                    }
+    /**
+     * Write the stream to the given object in chunks.  Chunks are written asynchronously with up to
+     * outstandingWrites in flight, so reading the next chunk from the client overlaps with writing the previous ones.
+     * Each chunk buffer is only reused once its write has completed.
+     *
+     * @param objectID             The object to write.
+     * @param byteCountInputStream The stream to read.
+     * @throws IOException If reading fails, or a chunk could not be written.
+     */
+    void writeStream(final String objectID, final InputStream byteCountInputStream) throws IOException {
+        final IoCTX ioCTX = getDataContext();
+        final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+        final Deque<byte[]> freeBuffers = new ArrayDeque<>();
 
-                    header.write(dataOutput);
-                    dataOutput.write(new short[0]);
-                    count++;
+        try {
+            int bytesRead;
+            long offset = 0L;
+            do {
+                if (pendingWrites.size() >= outstandingWrites) {
+                    freeBuffers.add(pendingWrites.removeFirst().await());
                 }
-            } catch (RadosNotFoundException e) {
-                throw new ResourceNotFoundException(e.getMessage(), e);
-            } catch (RadosException e) {
-                throw new StorageEngageException(e.getMessage(), e);
-            } catch (FitsException | IOException e) {
-                throw new ReadException("Unable to process FITS file.", e);
+                final byte[] buffer = freeBuffers.isEmpty() ? new byte[BUFFER_SIZE_BYTES] : freeBuffers.removeFirst();
+
+                bytesRead = readFully(byteCountInputStream, buffer);
+                if (bytesRead > 0) {
+                    // Only the bytes read are written; a short buffer can only be the last one.
+                    final byte[] chunk = (bytesRead == buffer.length) ? buffer : Arrays.copyOf(buffer, bytesRead);
+                    final PendingWrite pendingWrite = new PendingWrite(objectID, buffer, offset);
+                    try {
+                        ioCTX.aioWrite(objectID, pendingWrite.completion, chunk, offset);
+                    } catch (RadosException e) {
+                        pendingWrite.completion.close();
+                        throw e;
+                    }
+                    pendingWrites.addLast(pendingWrite);
+                    offset += bytesRead;
+                }
+            } while (bytesRead > 0);
+
+            while (!pendingWrites.isEmpty()) {
+                pendingWrites.removeFirst().await();
+            }
+        } finally {
+            // On failure, wait for writes still in flight as they may reference the buffers.
+            for (final PendingWrite pendingWrite : pendingWrites) {
+                pendingWrite.abandon();
             }
-            LOGGER.debug(String.format("Read and wrote HDUs in %d milliseconds.", System.currentTimeMillis() - start));
         }
     }
 
-    void writeStream(final String objectID, final InputStream byteCountInputStream) throws IOException {
-        final byte[] buffer = new byte[BUFFER_SIZE_BYTES];
+    /**
+     * An asynchronous chunk write in flight.
+     */
+    private static final class PendingWrite {
+        private final String objectID;
+        private final byte[] buffer;
+        private final long offset;
+        private final Completion completion;
+
+        PendingWrite(final String objectID, final byte[] buffer, final long offset) throws RadosException {
+            this.objectID = objectID;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.completion = new Completion(true, false);
+        }
 
-        int bytesRead;
-        long offset = 0L;
-        while ((bytesRead = byteCountInputStream.read(buffer)) >= 0) {
-            try (final IoCTX ioCTX = contextConnect(DATA_POOL_NAME)) {
-                ioCTX.write(objectID, buffer, offset);
+        /**
+         * Wait for the write to complete.
+         *
+         * @return The buffer of the write, free for reuse.
+         * @throws IOException If the write failed.
+         */
+        byte[] await() throws IOException {
+            try {
+                completion.waitForComplete();
+                final int returnValue = completion.getReturnValue();
+                if (returnValue < 0) {
+                    throw new WriteException(String.format("Failed to write %s at offset %d (error %d).", objectID,
+                                                           offset, returnValue));
+                }
+                return buffer;
+            } finally {
+                completion.close();
             }
-            offset += bytesRead;
         }
+
+        void abandon() {
+            try {
+                completion.waitForComplete();
+            } catch (RadosException e) {
+                LOGGER.warn(String.format("Failed waiting for write of %s at offset %d: %s", objectID, offset,
+                                          e.getMessage()));
+            } finally {
+                completion.close();
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer from the stream, so that every write but the last is a whole buffer.
+     *
+     * @param inputStream The stream to read.
+     * @param buffer      The buffer to fill.
+     * @return The number of bytes read, 0 at the end of the stream.
+     *
+     * @throws IOException If reading fails.
+     */
+    private int readFully(final InputStream inputStream, final byte[] buffer) throws IOException {
+        int offset = 0;
+        int read;
+        while (offset < buffer.length && (read = inputStream.read(buffer, offset, buffer.length - offset)) >= 0) {
+            offset += read;
+        }
+        return offset;
     }
 
     @Override
     public StorageMetadata put(NewArtifact newArtifact, InputStream inputStream)
             throws IncorrectContentChecksumException, IncorrectContentLengthException, WriteException,
                    StorageEngageException, TransientException {
+        final MessageDigest messageDigest = DigestPool.acquire(ChecksumAlgorithm.MD5);
         try {
             final URI artifactURI = newArtifact.getArtifactURI();
             final URI storageID = generateStorageID();
             final String objectID = storageID.getSchemeSpecificPart();
 
-            final DigestInputStream digestInputStream = new DigestInputStream(inputStream, createDigester());
+            final DigestInputStream digestInputStream = new DigestInputStream(inputStream, messageDigest);
             final ByteCountInputStream byteCountInputStream = new ByteCountInputStream(digestInputStream);
 
             writeStream(objectID, byteCountInputStream);
@@ -379,11 +603,9 @@ public class RadosStorageAdapter implements StorageAdapter {
                                       calculatedContentLength));
             }
 
-            try (final IoCTX ioCTX = contextConnect(DATA_POOL_NAME)) {
-                ioCTX.setExtendedAttribute(objectID, "uri",
-                                           newArtifact.getArtifactURI().toASCIIString().trim());
-                ioCTX.setExtendedAttribute(objectID, "md5", calculatedChecksum.toString());
-            }
+            final IoCTX ioCTX = getDataContext();
+            ioCTX.setExtendedAttribute(objectID, "uri", newArtifact.getArtifactURI().toASCIIString().trim());
+            ioCTX.setExtendedAttribute(objectID, "md5", calculatedChecksum.getSchemeSpecificPart());
 
             return toStorageMetadata(storageID, artifactURI, calculatedChecksum, calculatedContentLength);
         } catch (RadosException e) {
@@ -392,6 +614,8 @@ public class RadosStorageAdapter implements StorageAdapter {
             throw new WriteException(e.getMessage(), e);
         } catch (Exception e) {
             throw new TransientException(e.getMessage(), e);
+        } finally {
+            DigestPool.release(messageDigest);
         }
     }
 
@@ -406,7 +630,7 @@ public class RadosStorageAdapter implements StorageAdapter {
      */
     public void delete(StorageLocation storageLocation)
             throws ResourceNotFoundException, IOException, StorageEngageException, TransientException {
-        try (final IoCTXStriper ioCTX = contextConnectStriper(DATA_POOL_NAME)) {
+        try (final IoCTXStriper ioCTX = contextConnectStriper()) {
             ioCTX.remove(getObjectID(storageLocation));
         } catch (RadosNotFoundException e) {
             throw new ResourceNotFoundException(e.getMessage(), e);
@@ -415,87 +639,183 @@ public class RadosStorageAdapter implements StorageAdapter {
         }
     }
 
+    /**
+     * Delete from storage the artifacts identified by storageLocations.  Up to deleteThreads removes are in flight at
+     * once on a single striper context.
+     *
+     * @param storageLocations Identifies the artifacts to delete.
+     * @return The artifacts that were not deleted, each with the cause.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException     If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public Map<StorageLocation, Exception> delete(Collection<StorageLocation> storageLocations)
+            throws StorageEngageException, TransientException {
+        final Map<StorageLocation, Exception> failures = new ConcurrentHashMap<>();
+        final ExecutorService executorService =
+                Executors.newFixedThreadPool(Math.max(1, Math.min(deleteThreads, storageLocations.size())));
+        try (final IoCTXStriper ioCTX = contextConnectStriper()) {
+            final List<Future<?>> removes = new ArrayList<>(storageLocations.size());
+            for (final StorageLocation storageLocation : storageLocations) {
+                removes.add(executorService.submit(() -> {
+                    try {
+                        ioCTX.remove(getObjectID(storageLocation));
+                    } catch (RadosNotFoundException e) {
+                        failures.put(storageLocation, new ResourceNotFoundException(e.getMessage(), e));
+                    } catch (Exception e) {
+                        failures.put(storageLocation, e);
+                    }
+                }));
+            }
+            for (final Future<?> remove : removes) {
+                remove.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransientException("Interrupted while deleting objects.", e);
+        } catch (Exception e) {
+            // Failure to create or close the context, or a bug in a remove task.
+            throw new StorageEngageException(e.getMessage(), e);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        LOGGER.debug(String.format("Deleted %d of %d objects.", storageLocations.size() - failures.size(),
+                                   storageLocations.size()));
+        return failures;
+    }
+
+    /**
+     * Get the metadata of the artifact identified by storageLocation from the object size and extended attributes.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @return The storage metadata.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws StorageEngageException    If the adapter failed to interact with storage.
+     * @throws TransientException        If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public StorageMetadata head(StorageLocation storageLocation)
+            throws ResourceNotFoundException, StorageEngageException, TransientException {
+        final String objectID = getObjectID(storageLocation);
+        try {
+            final IoCTX ioCTX = getDataContext();
+            final RadosObjectInfo radosObjectInfo = ioCTX.stat(objectID);
+            final Map<String, String> extendedAttributes = ioCTX.getExtendedAttributes(objectID);
+            final URI md5 = toChecksum(extendedAttributes.get("md5"));
+            final StorageMetadata storageMetadata =
+                    new StorageMetadata(storageLocation, md5, radosObjectInfo.getSize());
+            final String artifactURIMetadataValue = extendedAttributes.get("uri");
+            if (StringUtil.hasLength(artifactURIMetadataValue)) {
+                storageMetadata.artifactURI = URI.create(artifactURIMetadataValue);
+            }
+            return storageMetadata;
+        } catch (RadosNotFoundException e) {
+            throw new ResourceNotFoundException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new StorageEngageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the metadata of the artifacts identified by storageLocations.  Up to headThreads lookups of a shared pool
+     * are in flight at once on the shared data context.  An artifact whose metadata cannot be read is left out and
+     * the failure logged, so one failed lookup does not fail the others.
+     *
+     * @param storageLocations The storage locations.
+     * @return The storage metadata by storage location, without the artifacts that were not found or could not be
+     *     read.
+     * @throws StorageEngageException If the metadata of every artifact could not be read.
+     * @throws TransientException     If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public Map<StorageLocation, StorageMetadata> head(Collection<StorageLocation> storageLocations)
+            throws StorageEngageException, TransientException {
+        final Map<StorageLocation, StorageMetadata> storageMetadataMap = new ConcurrentHashMap<>();
+        final Map<StorageLocation, Exception> failures = new ConcurrentHashMap<>();
+        final Queue<StorageLocation> pending = new ConcurrentLinkedQueue<>(storageLocations);
+        final int threads = Math.max(1, Math.min(headThreads, storageLocations.size()));
+        final List<Future<?>> heads = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                heads.add(HEAD_EXECUTOR.submit(() -> {
+                    StorageLocation storageLocation;
+                    while ((storageLocation = pending.poll()) != null) {
+                        try {
+                            storageMetadataMap.put(storageLocation, head(storageLocation));
+                        } catch (ResourceNotFoundException e) {
+                            LOGGER.debug(String.format("Not found: %s", storageLocation));
+                        } catch (StorageEngageException | TransientException | RuntimeException e) {
+                            LOGGER.warn(String.format("Failed to read metadata of %s: %s", storageLocation,
+                                                      e.getMessage()));
+                            failures.put(storageLocation, e);
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> head : heads) {
+                head.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransientException("Interrupted while reading object metadata.", e);
+        } catch (ExecutionException e) {
+            throw new StorageEngageException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            pending.clear();
+            for (final Future<?> head : heads) {
+                head.cancel(true);
+            }
+        }
+
+        if (storageMetadataMap.isEmpty() && !failures.isEmpty()) {
+            final Exception cause = failures.values().iterator().next();
+            if (cause instanceof TransientException) {
+                throw (TransientException) cause;
+            }
+            throw new StorageEngageException(cause.getMessage(), cause);
+        }
+        LOGGER.debug(String.format("Found %d of %d objects.", storageMetadataMap.size(), storageLocations.size()));
+        return storageMetadataMap;
+    }
+
     StorageMetadata head(final String storageBucket, final String objectID) {
-        try (IoCTX ioCTX = contextConnect(DATA_POOL_NAME)) {
+        try {
+            final IoCTX ioCTX = getDataContext();
             final RadosObjectInfo radosObjectInfo = ioCTX.stat(objectID);
             final Map<String, String> extendedAttributes = ioCTX.getExtendedAttributes(objectID);
+            final StorageLocation storageLocation =
+                    new StorageLocation(URI.create(String.format(STORAGE_ID_URI_TEMPLATE, objectID)));
+            storageLocation.storageBucket = storageBucket;
+            final URI md5 = toChecksum(extendedAttributes.get("md5"));
+            final StorageMetadata storageMetadata =
+                    new StorageMetadata(storageLocation, md5, radosObjectInfo.getSize());
             final String artifactURIMetadataValue = extendedAttributes.get("uri");
-            final URI metadataArtifactURI = StringUtil.hasLength(artifactURIMetadataValue)
-                                            ? URI.create(artifactURIMetadataValue)
-                                            : URI.create(String.format("%s:%s/%s", "UNKNOWN", storageBucket, objectID));
-            final String md5ChecksumValue = extendedAttributes.get("md5");
-            final URI md5 = URI.create(String.format("%s:%s", "md5", StringUtil.hasLength(md5ChecksumValue)
-                                                                     ? md5ChecksumValue
-                                                                     : "UNKNOWN"));
-            return new StorageMetadata(new StorageLocation(metadataArtifactURI), md5, radosObjectInfo.getSize());
+            if (StringUtil.hasLength(artifactURIMetadataValue)) {
+                storageMetadata.artifactURI = URI.create(artifactURIMetadataValue);
+            }
+            return storageMetadata;
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
     /**
-     * Obtain an Iterator that contains a set size of items.  The internal listing mechanism from RADOS will be used to
-     * obtain a page of data when needed via the <code>fillBuffer()</code> method.
+     * Obtain an Iterator that lists a set size of items at a time.  The metadata of each page is fetched
+     * concurrently while the next page is listed.
      *
-     * @param storageBucket The bucket to match against.
+     * @param storageBucket The object ID prefix to match against.  Optional.
      * @param pageSize      The page size of data.
      * @return Iterator of StorageMetadata objects.  Never null.
      *
      * @throws IOException If any Ceph interaction fails.
      */
     Iterator<StorageMetadata> pageIterator(final String storageBucket, final Integer pageSize) throws IOException {
-        //final String bucket = lookupBucketMarker(storageBucket);
-        final Optional<Integer> optionalPageSize = Optional.ofNullable(pageSize);
-
-        try (final IoCTX ioCTX = contextConnect(DATA_POOL_NAME)) {
-            final int configuredPageSize = optionalPageSize.orElse(DEFAULT_LIST_PAGE_SIZE);
-
-            return new Iterator<StorageMetadata>() {
-                private final ListCtx listCtx = ioCTX.listObjectsPartial(configuredPageSize);
-                //private String[] buffer = Arrays.stream(listCtx.getObjects()).filter(
-                //        val -> !StringUtil.hasLength(bucket) || val.startsWith(bucket)).toArray(String[]::new);
-                private String[] buffer = listCtx.getObjects();
-                private int bufferPosition = 0;
-
-                @Override
-                public boolean hasNext() {
-                    return bufferPosition < buffer.length || fillBuffer() > 0;
-                }
-
-                @Override
-                public StorageMetadata next() {
-                    return head(storageBucket, buffer[bufferPosition++]);
-                }
-
-                int fillBuffer() {
-                    try {
-                        final int objectCount = listCtx.nextObjects();
-                        final int bufferCount;
-                        if (objectCount > 0) {
-                            LOGGER.debug(String.format("Read in %d objects.", objectCount));
-                            buffer = listCtx.getObjects();
-                            //buffer = Arrays.stream(listCtx.getObjects()).filter(
-                            //        val -> !StringUtil.hasLength(bucket) || val.startsWith(bucket)).toArray(
-                            //        String[]::new);
-                            if (buffer.length == 0) {
-                                LOGGER.debug("No objects match.  Fetching more results.");
-                                bufferCount = fillBuffer();
-                            } else {
-                                bufferPosition = 0;
-                                bufferCount = buffer.length;
-                            }
-                        } else {
-                            LOGGER.debug("No more objects to read.");
-                            bufferCount = 0;
-                        }
+        final int configuredPageSize = Optional.ofNullable(pageSize).orElse(DEFAULT_LIST_PAGE_SIZE);
 
-                        return bufferCount;
-                    } catch (IOException e) {
-                        throw new RuntimeException(e.getMessage(), e);
-                    }
-                }
-            };
-        }
+        // The shared context stays open for as long as the iterator is used.
+        final ListCtx listCtx = getDataContext().listObjectsPartial(configuredPageSize);
+        return new RadosPageIterator(this, listCtx, storageBucket);
     }
 
     /**
@@ -523,7 +843,9 @@ public class RadosStorageAdapter implements StorageAdapter {
     public Iterator<StorageMetadata> iterator(String storageBucket)
             throws StorageEngageException, TransientException {
         try {
-            return new RadosStorageMetadataIterator(this, storageBucket);
+            // RADOS lists objects in placement order, so sort the full listing.
+            return new SortedStorageMetadataIterator(new RadosStorageMetadataIterator(this, storageBucket),
+                                                     sortBufferSize, sortDirectory);
         } catch (IOException e) {
             throw new StorageEngageException(e.getMessage(), e);
         }
@@ -540,19 +862,20 @@ public class RadosStorageAdapter implements StorageAdapter {
      */
     public SortedSet<StorageMetadata> list(String storageBucket)
             throws StorageEngageException, TransientException {
+        // The set sorts, so the unordered listing is added directly rather than through the external sort.
         SortedSet<StorageMetadata> ret = new TreeSet<StorageMetadata>();
-        Iterator<StorageMetadata> i = iterator(storageBucket);
-        while (i.hasNext()) {
-            ret.add(i.next());
+        try {
+            Iterator<StorageMetadata> i = new RadosStorageMetadataIterator(this, storageBucket);
+            while (i.hasNext()) {
+                ret.add(i.next());
+            }
+        } catch (IOException e) {
+            throw new StorageEngageException(e.getMessage(), e);
         }
         return ret;
     }
 
-    private InputStream createStriperInputStream(final String objectID) throws IOException {
-        return new RadosStriperInputStream(radosStriperClient, objectID);
-    }
-
     private InputStream createInputStream(final String objectID) throws IOException {
-        return new RadosInputStream(radosClient, objectID);
+        return new RadosInputStream(null, getDataContext(), objectID, readAheadSize, readAheadDepth);
     }
 }
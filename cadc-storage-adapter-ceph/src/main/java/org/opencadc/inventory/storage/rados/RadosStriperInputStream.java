@@ -70,8 +70,6 @@
 package org.opencadc.inventory.storage.rados;
 
 import com.ceph.rados.IoCTX;
-import com.ceph.rados.exceptions.RadosException;
-import com.ceph.rados.exceptions.RadosNotFoundException;
 import com.ceph.radosstriper.IoCTXStriper;
 import com.ceph.radosstriper.RadosStriper;
 
@@ -95,34 +93,45 @@ public class RadosStriperInputStream extends RadosInputStream {
 
     private static final Logger LOGGER = Logger.getLogger(RadosStriperInputStream.class);
 
+    /**
+     * The Striper context, created on first use over the IO Context and kept for the life of the stream.
+     */
+    private IoCTXStriper ioCTXStriper;
+
     public RadosStriperInputStream(final RadosStriper rados, final String objectID) {
         super(rados, objectID);
     }
 
+    @Override
+    void open(final IoCTX ioCTX) throws IOException {
+        if (ioCTXStriper == null) {
+            ioCTXStriper = ((RadosStriper) rados).ioCtxCreateStriper(ioCTX);
+        }
+    }
+
     /**
      * Read bytes from the RADOS back end.
      *
-     * @param ioCTX The IO Context connection.
-     * @param b     The byte array to read into.
-     * @param len   The amount of bytes to read.
+     * @param ioCTX  The IO Context connection.
+     * @param b      The byte array to read into.
+     * @param len    The amount of bytes to read.
+     * @param offset The position in the object to read from.
      * @return Count of bytes read.
      *
      * @throws IOException For any backend reading.
      */
     @Override
-    int readRadosBytes(IoCTX ioCTX, byte[] b, int len) throws IOException {
-        try (final IoCTXStriper ioCTXStriper = ((RadosStriper) rados).ioCtxCreateStriper(ioCTX)) {
-            return ioCTXStriper.read(objectID, len, position, b);
-        } catch (Exception e) {
-            if (e instanceof RadosNotFoundException) {
-                throw (RadosNotFoundException) e;
-            } else if (e instanceof RadosException) {
-                throw (RadosException) e;
-            } else if (e instanceof IOException) {
-                throw (IOException) e;
-            } else {
+    int readRadosBytes(final IoCTX ioCTX, final byte[] b, final int len, final long offset) throws IOException {
+        return ioCTXStriper.read(objectID, len, offset, b);
+    }
+
+    @Override
+    void release() {
+        if (ioCTXStriper != null) {
+            try {
+                ioCTXStriper.close();
+            } catch (Exception e) {
                 LOGGER.warn("Unable to close the IO RADOS Context.", e);
-                return -1;
             }
         }
     }
@@ -0,0 +1,252 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.s3;
+
+import ca.nrc.cadc.io.ReadException;
+import ca.nrc.cadc.util.HexUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+/**
+ * Request body that streams an InputStream of known length to the SDK.  The stream is read on the thread calling
+ * {@link #pump(CompletableFuture)}, one chunk per buffer requested by the SDK, so reading the next chunk from the
+ * client overlaps with sending the previous one and the SDK's I/O threads never block on the client.  The MD5 and
+ * length of what was read are recorded as it goes.  The body can only be sent once, so it is not retried.
+ */
+class InputStreamRequestBody implements AsyncRequestBody {
+
+    static final int CHUNK_SIZE_BYTES = 64 * 1024;
+
+    private final InputStream source;
+    private final long contentLength;
+    private final MessageDigest md5;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    // Guarded by this.
+    private Subscriber<? super ByteBuffer> subscriber;
+    private long demand = 0L;
+    private boolean done = false;
+
+    private long bytesRead = 0L;
+    private boolean sourceEnded = false;
+
+    /**
+     * Constructor.
+     *
+     * @param source The stream to send.
+     * @param contentLength The number of bytes to send.
+     */
+    InputStreamRequestBody(final InputStream source, final long contentLength) {
+        this.source = source;
+        this.contentLength = contentLength;
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("BUG: failed to create MD5 digest", e);
+        }
+    }
+
+    @Override
+    public Optional<Long> contentLength() {
+        return Optional.of(contentLength);
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super ByteBuffer> s) {
+        if (!subscribed.compareAndSet(false, true)) {
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("Request body from an InputStream cannot be sent more than once."));
+            return;
+        }
+
+        s.onSubscribe(new Subscription() {
+            @Override
+            public void request(final long n) {
+                synchronized (InputStreamRequestBody.this) {
+                    demand = (Long.MAX_VALUE - demand < n) ? Long.MAX_VALUE : demand + n;
+                    InputStreamRequestBody.this.notifyAll();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                stop();
+            }
+        });
+        synchronized (this) {
+            subscriber = s;
+            notifyAll();
+        }
+    }
+
+    private synchronized void stop() {
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Read the source and send it to the subscriber as fast as it asks for it.  Returns when everything has been
+     * sent, when the source ends early, or when the response completes first, which happens if the request failed.
+     *
+     * @param response The response to the request this is the body of.
+     *
+     * @throws ReadException If the source stream failed.
+     * @throws InterruptedException If interrupted while waiting for the SDK.
+     */
+    void pump(final CompletableFuture<?> response) throws ReadException, InterruptedException {
+        response.whenComplete((result, error) -> stop());
+
+        while (bytesRead < contentLength) {
+            final Subscriber<? super ByteBuffer> current;
+            synchronized (this) {
+                while (!done && (subscriber == null || demand == 0L)) {
+                    wait();
+                }
+                if (done) {
+                    return;
+                }
+                demand--;
+                current = subscriber;
+            }
+
+            final byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE_BYTES, contentLength - bytesRead)];
+            int offset = 0;
+            try {
+                int read;
+                while (offset < chunk.length && (read = source.read(chunk, offset, chunk.length - offset)) >= 0) {
+                    offset += read;
+                }
+            } catch (IOException e) {
+                current.onError(e);
+                throw new ReadException(e.getMessage(), e);
+            }
+            if (offset < chunk.length) {
+                // Fewer bytes than expected: the caller checks isSourceEnded().
+                bytesRead += offset;
+                sourceEnded = true;
+                current.onError(new IOException(String.format("Stream ended after %d of %d bytes.", bytesRead,
+                                                               contentLength)));
+                return;
+            }
+
+            md5.update(chunk);
+            bytesRead += chunk.length;
+            current.onNext(ByteBuffer.wrap(chunk));
+        }
+
+        final Subscriber<? super ByteBuffer> current;
+        synchronized (this) {
+            while (!done && subscriber == null) {
+                wait();
+            }
+            current = subscriber;
+        }
+        if (current != null) {
+            current.onComplete();
+        }
+    }
+
+    /**
+     * @return The number of bytes read from the source.
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return True if the source ended before contentLength bytes were read.
+     */
+    boolean isSourceEnded() {
+        return sourceEnded;
+    }
+
+    /**
+     * @return The MD5 checksum of what was read from the source.
+     */
+    URI getChecksum() {
+        return URI.create(String.format(S3StorageAdapter.CHECKSUM_URI_TEMPLATE, HexUtil.toHex(md5.digest())));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.s3;
+
+import ca.nrc.cadc.io.ReadException;
+import ca.nrc.cadc.io.WriteException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+/**
+ * Response transformer that hands the body of a GetObject response from the SDK's I/O threads to the thread
+ * calling {@link #writeTo(OutputStream)}, which writes it to the destination stream.  Only a fixed number of
+ * buffers are requested ahead of what has been written, so a slow destination slows down the transfer rather
+ * than filling memory, and the I/O threads never block on the destination.
+ */
+class OutputStreamResponseTransformer implements AsyncResponseTransformer<GetObjectResponse, Void>,
+                                                 Subscriber<ByteBuffer> {
+
+    private static final Object COMPLETE = new Object();
+
+    private final int prefetchBuffers;
+
+    // Holds ByteBuffers, then either COMPLETE or the Throwable that ended the transfer.
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private volatile Subscription subscription;
+
+    /**
+     * Constructor.
+     *
+     * @param prefetchBuffers The number of buffers to request ahead of the destination.
+     */
+    OutputStreamResponseTransformer(final int prefetchBuffers) {
+        this.prefetchBuffers = prefetchBuffers;
+    }
+
+    @Override
+    public CompletableFuture<Void> prepare() {
+        return future;
+    }
+
+    @Override
+    public void onResponse(final GetObjectResponse response) {
+        // Nothing needed from the response headers.
+    }
+
+    @Override
+    public void onStream(final SdkPublisher<ByteBuffer> publisher) {
+        publisher.subscribe(this);
+    }
+
+    @Override
+    public void exceptionOccurred(final Throwable error) {
+        fail(error);
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(prefetchBuffers);
+    }
+
+    @Override
+    public void onNext(final ByteBuffer byteBuffer) {
+        queue.add(byteBuffer);
+    }
+
+    @Override
+    public void onError(final Throwable error) {
+        fail(error);
+    }
+
+    @Override
+    public void onComplete() {
+        queue.add(COMPLETE);
+        future.complete(null);
+    }
+
+    /**
+     * End the transfer with an error.  Only the first of COMPLETE or an error is acted upon by writeTo.
+     *
+     * @param error The cause of the failure.
+     */
+    void fail(final Throwable error) {
+        final Throwable cause = ((error instanceof CompletionException || error instanceof ExecutionException)
+                                 && error.getCause() != null) ? error.getCause() : error;
+        queue.add(cause);
+        future.completeExceptionally(cause);
+    }
+
+    /**
+     * Write the response body to the destination stream on the calling thread.  Returns when the whole body has
+     * been written.
+     *
+     * @param dest The destination stream.
+     *
+     * @throws ReadException If the response body could not be read.
+     * @throws WriteException If the destination stream failed.
+     * @throws RuntimeException Any SDK exception that ended the transfer, such as NoSuchKeyException.
+     */
+    void writeTo(final OutputStream dest) throws ReadException, WriteException {
+        byte[] copyBuffer = null;
+        try {
+            while (true) {
+                final Object item = queue.take();
+                if (item == COMPLETE) {
+                    return;
+                } else if (item instanceof Throwable) {
+                    final Throwable error = (Throwable) item;
+                    if (error instanceof RuntimeException) {
+                        throw (RuntimeException) error;
+                    } else if (error instanceof Error) {
+                        throw (Error) error;
+                    }
+                    throw new ReadException(error.getMessage(), error);
+                }
+
+                final ByteBuffer byteBuffer = (ByteBuffer) item;
+                final int length = byteBuffer.remaining();
+                try {
+                    if (byteBuffer.hasArray()) {
+                        dest.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), length);
+                    } else {
+                        if (copyBuffer == null || copyBuffer.length < length) {
+                            copyBuffer = new byte[length];
+                        }
+                        byteBuffer.get(copyBuffer, 0, length);
+                        dest.write(copyBuffer, 0, length);
+                    }
+                } catch (IOException e) {
+                    cancel();
+                    throw new WriteException(e.getMessage(), e);
+                }
+                subscription.request(1);
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new ReadException("Interrupted while reading object.", e);
+        }
+    }
+
+    private void cancel() {
+        final Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.s3;
+
+import ca.nrc.cadc.io.ReadException;
+import ca.nrc.cadc.io.WriteException;
+import ca.nrc.cadc.net.IncorrectContentChecksumException;
+import ca.nrc.cadc.net.IncorrectContentLengthException;
+import ca.nrc.cadc.net.ResourceAlreadyExistsException;
+import ca.nrc.cadc.net.ResourceNotFoundException;
+import ca.nrc.cadc.net.TransientException;
+import ca.nrc.cadc.util.HexUtil;
+import ca.nrc.cadc.util.StringUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.InventoryUtil;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
+import org.opencadc.inventory.storage.NewArtifact;
+import org.opencadc.inventory.storage.StorageAdapter;
+import org.opencadc.inventory.storage.StorageEngageException;
+import org.opencadc.inventory.storage.StorageMetadata;
+import org.opencadc.inventory.storage.fits.FitsCutoutWriter;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Implementation of a Storage Adapter using the non-blocking Amazon S3 API.  Object bytes are moved with the
+ * S3AsyncClient, whose small pool of NIO threads is shared by all transfers: the calling thread only reads from the
+ * client or writes to it, with backpressure in both directions, while the SDK threads do the network I/O.
+ * Bucket management, listing, deletes and multipart uploads are delegated to a S3StorageAdapter.
+ */
+public class S3AsyncStorageAdapter implements StorageAdapter {
+
+    private static final Logger LOGGER = Logger.getLogger(S3AsyncStorageAdapter.class);
+
+    // Number of response buffers requested ahead of the destination stream.
+    static final int PREFETCH_BUFFERS = 16;
+
+    // S3AsyncClient is thread safe, and re-usability is encouraged.
+    private final S3AsyncClient s3AsyncClient;
+    private final S3StorageAdapter s3StorageAdapter;
+
+    public S3AsyncStorageAdapter(final URI endpoint, final String regionName) {
+        this(S3AsyncClient.builder()
+                     .endpointOverride(endpoint)
+                     .region(Region.of(regionName))
+                     .build(),
+             new S3StorageAdapter(endpoint, regionName));
+    }
+
+    S3AsyncStorageAdapter(final S3AsyncClient s3AsyncClient, final S3StorageAdapter s3StorageAdapter) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.s3StorageAdapter = s3StorageAdapter;
+    }
+
+    private GetObjectRequest.Builder toGetObjectRequest(final StorageLocation storageLocation) {
+        return GetObjectRequest.builder()
+                .bucket(storageLocation.storageBucket)
+                .key(storageLocation.getStorageID().getSchemeSpecificPart());
+    }
+
+    /**
+     * Stream the response to the given request into the destination.
+     *
+     * @param getObjectRequest The request.
+     * @param dest The destination stream.
+     *
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If writing failed.
+     */
+    private void transfer(final GetObjectRequest getObjectRequest, final OutputStream dest)
+            throws ReadException, WriteException {
+        final OutputStreamResponseTransformer transformer = new OutputStreamResponseTransformer(PREFETCH_BUFFERS);
+        final CompletableFuture<Void> response = s3AsyncClient.getObject(getObjectRequest, transformer);
+        response.whenComplete((result, error) -> {
+            if (error != null) {
+                transformer.fail(error);
+            }
+        });
+        transformer.writeTo(dest);
+    }
+
+    /**
+     * Get from storage the artifact identified by storageLocation.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param dest The destination stream.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If writing failed.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     */
+    @Override
+    public void get(StorageLocation storageLocation, OutputStream dest)
+            throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException {
+        try {
+            transfer(toGetObjectRequest(storageLocation).build(), dest);
+        } catch (NoSuchKeyException e) {
+            throw new ResourceNotFoundException(e.getMessage(), e);
+        } catch (S3Exception | SdkClientException e) {
+            throw new StorageEngageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get from storage the specified byte ranges of the artifact identified by storageLocation.  Each range is
+     * obtained with a separate ranged GetObject request.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param dest The destination stream.
+     * @param byteRanges The byte ranges to get.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If writing failed.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     */
+    @Override
+    public void get(StorageLocation storageLocation, OutputStream dest, List<ByteRange> byteRanges)
+            throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException {
+        InventoryUtil.assertNotNull(S3AsyncStorageAdapter.class, "byteRanges", byteRanges);
+        for (final ByteRange byteRange : byteRanges) {
+            try {
+                transfer(toGetObjectRequest(storageLocation)
+                                 .range(String.format(S3StorageAdapter.RANGE_HEADER_TEMPLATE, byteRange.getOffset(),
+                                                      byteRange.getLastOffset()))
+                                 .build(), dest);
+            } catch (NoSuchKeyException e) {
+                throw new ResourceNotFoundException(e.getMessage(), e);
+            } catch (S3Exception e) {
+                if (e.statusCode() == S3StorageAdapter.RANGE_NOT_SATISFIABLE_STATUS_CODE) {
+                    // Range starts beyond the end of the object, so there is nothing to write.
+                    LOGGER.debug(String.format("Skipping unsatisfiable range %s of %s", byteRange,
+                                               storageLocation));
+                } else {
+                    throw new StorageEngageException(e.getMessage(), e);
+                }
+            } catch (SdkClientException e) {
+                throw new StorageEngageException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Get from storage the artifact identified by storageLocation with cutout specifications.  Image sections of a FITS
+     * file (e.g. [1][100:200,100:200]) are read with asynchronous ranged requests of the intersecting rows only; other
+     * cutouts return the headers of the file.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param dest The destination stream.
+     * @param cutouts Cutouts to be applied to the artifact
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If writing failed.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public void get(StorageLocation storageLocation, OutputStream dest, Set<String> cutouts)
+            throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException,
+                   TransientException {
+        if ((cutouts == null) || cutouts.isEmpty()) {
+            get(storageLocation, dest);
+        } else {
+            new FitsCutoutWriter(this, storageLocation).write(cutouts, dest);
+        }
+    }
+
+    /**
+     * Write an artifact to storage.  Artifacts of unknown length, or large enough to be uploaded in parts, are
+     * written by the S3StorageAdapter.
+     *
+     * @param newArtifact known information about the incoming artifact
+     * @param source stream from which to read
+     * @return storage metadata after write
+     *
+     * @throws IncorrectContentChecksumException checksum of the data stream did not match the value in newArtifact
+     * @throws IncorrectContentLengthException number bytes read did not match the value in newArtifact
+     * @throws ReadException If the client failed to read the stream.
+     * @throws WriteException If the storage system failed to stream.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     */
+    @Override
+    public StorageMetadata put(NewArtifact newArtifact, InputStream source)
+            throws IncorrectContentChecksumException, IncorrectContentLengthException, ReadException, WriteException,
+            StorageEngageException {
+        if ((newArtifact.contentLength == null) || (newArtifact.contentLength > s3StorageAdapter.multipartThreshold)) {
+            return s3StorageAdapter.put(newArtifact, source);
+        }
+
+        final URI storageID = s3StorageAdapter.generateStorageID();
+        final String key = storageID.getSchemeSpecificPart();
+        final String bucket;
+        try {
+            bucket = s3StorageAdapter.ensureBucket(storageID);
+        } catch (ResourceAlreadyExistsException e) {
+            throw new WriteException(e.getMessage(), e);
+        } catch (S3Exception | SdkClientException e) {
+            throw new StorageEngageException(e.getMessage(), e);
+        }
+
+        final PutObjectRequest.Builder putObjectRequestBuilder = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentLength(newArtifact.contentLength);
+
+        final Map<String, String> metadata = new HashMap<>();
+        metadata.put(S3StorageAdapter.ARTIFACT_URI_KEY, newArtifact.getArtifactURI().toASCIIString().trim());
+
+        final URI newArtifactChecksum = newArtifact.contentChecksum;
+        if (newArtifactChecksum != null) {
+            s3StorageAdapter.ensureChecksum(newArtifactChecksum);
+            final String md5SumValue = newArtifactChecksum.getSchemeSpecificPart();
+            putObjectRequestBuilder.contentMD5(new String(Base64.getEncoder().encode(HexUtil.toBytes(md5SumValue))));
+            metadata.put(S3StorageAdapter.DEFAULT_CHECKSUM_ALGORITHM, md5SumValue);
+        }
+        putObjectRequestBuilder.metadata(metadata);
+
+        final InputStreamRequestBody requestBody = new InputStreamRequestBody(source, newArtifact.contentLength);
+        final CompletableFuture<PutObjectResponse> response = s3AsyncClient.putObject(putObjectRequestBuilder.build(),
+                                                                                       requestBody);
+        PutObjectResponse putObjectResponse = null;
+        try {
+            requestBody.pump(response);
+            // A failed request also stops the pump early, and is reported from the response below.
+            if (requestBody.isSourceEnded()) {
+                response.cancel(true);
+                throw new IncorrectContentLengthException(
+                        String.format("Content length does not match bytes written.  Expected %d bytes but read %d.",
+                                      newArtifact.contentLength, requestBody.getBytesRead()));
+            }
+            putObjectResponse = response.get();
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new WriteException("Interrupted while writing object.", e);
+        } catch (ReadException e) {
+            response.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            // Always throws.
+            handlePutFailure(e.getCause(), bucket, newArtifact);
+        }
+
+        final URI checksum = requestBody.getChecksum();
+        if ((newArtifactChecksum != null) && !newArtifactChecksum.equals(checksum)) {
+            // Should have been rejected by S3 already.
+            throw new IncorrectContentChecksumException(
+                    String.format("Checksums do not match what was received.  Expected %s but computed %s.",
+                                  newArtifactChecksum, checksum));
+        }
+        if (newArtifactChecksum == null) {
+            // The ETag of a single part upload is its MD5, which head() falls back to, so there is no need to
+            // record the checksum unless the ETag is not an MD5 (e.g. with server side encryption).
+            final URI eTagChecksum = S3StorageMetadataIterator.toChecksum(putObjectResponse.eTag());
+            if (eTagChecksum == null) {
+                try {
+                    s3StorageAdapter.recordChecksum(bucket, key, checksum);
+                } catch (S3Exception | SdkClientException e) {
+                    throw new WriteException(String.format("Unable to record checksum of %s: %s", storageID,
+                                                           e.getMessage()), e);
+                }
+            } else if (!eTagChecksum.equals(checksum)) {
+                s3StorageAdapter.deleteQuietly(bucket, key);
+                throw new WriteException(
+                        String.format("Stored checksum of %s does not match what was sent.  Expected %s but got %s.",
+                                      storageID, checksum, eTagChecksum));
+            }
+        }
+
+        return s3StorageAdapter.toStorageMetadata(storageID, bucket, newArtifact.getArtifactURI(), checksum,
+                                                  newArtifact.contentLength);
+    }
+
+    /**
+     * Translate the failure of a putObject into the exception to throw from put, and throw it.
+     *
+     * @param error The failure.
+     * @param bucket The bucket written to.
+     * @param newArtifact known information about the incoming artifact
+     *
+     * @throws IncorrectContentChecksumException If S3 rejected the checksum.
+     * @throws IncorrectContentLengthException If S3 received fewer bytes than expected.
+     * @throws WriteException If the storage system failed to stream.
+     * @throws StorageEngageException If S3 is unavailable.
+     */
+    private void handlePutFailure(final Throwable error, final String bucket, final NewArtifact newArtifact) throws
+            IncorrectContentChecksumException, IncorrectContentLengthException, WriteException,
+            StorageEngageException {
+        if (error instanceof S3Exception) {
+            final AwsErrorDetails awsErrorDetails = ((S3Exception) error).awsErrorDetails();
+            final String errorCode = (awsErrorDetails == null) ? null : awsErrorDetails.errorCode();
+            if (StringUtil.hasLength(errorCode)) {
+                switch (errorCode) {
+                    case "NoSuchBucket": {
+                        // Removed behind our back, so check it again next time.
+                        s3StorageAdapter.knownBuckets.remove(bucket);
+                        throw new WriteException(String.format("Bucket %s no longer exists.", bucket), error);
+                    }
+                    case "BadDigest":
+                    case "InvalidDigest": {
+                        throw new IncorrectContentChecksumException(
+                                String.format("Checksums do not match what was received.  Expected %s.",
+                                              newArtifact.contentChecksum));
+                    }
+                    case "IncompleteBody": {
+                        throw new IncorrectContentLengthException(
+                                String.format("Content length does not match bytes written.  Expected %d bytes.",
+                                              newArtifact.contentLength));
+                    }
+                    case "InternalError":
+                    case "SlowDown":
+                    case "ServiceUnavailable": {
+                        throw new StorageEngageException(
+                                String.format("Unable to write object (%s): %s", errorCode, error.getMessage()));
+                    }
+                    default: {
+                        break;
+                    }
+                }
+            }
+        }
+        throw new WriteException(String.format("Unable to write object: %s", error.getMessage()), error);
+    }
+
+    /**
+     * Get the metadata of the artifact identified by storageLocation.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @return The storage metadata.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public StorageMetadata head(StorageLocation storageLocation)
+            throws ResourceNotFoundException, StorageEngageException, TransientException {
+        return s3StorageAdapter.head(storageLocation);
+    }
+
+    /**
+     * Get the metadata of the artifacts identified by storageLocations, with concurrent HeadObject requests.
+     *
+     * @param storageLocations The storage locations.
+     * @return The storage metadata by storage location, without the artifacts that were not found or could not be
+     *     read.
+     * @throws StorageEngageException If the metadata of every artifact could not be read.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public Map<StorageLocation, StorageMetadata> head(Collection<StorageLocation> storageLocations)
+            throws StorageEngageException, TransientException {
+        return s3StorageAdapter.head(storageLocations);
+    }
+
+    /**
+     * Delete from storage the artifact identified by storageLocation.
+     *
+     * @param storageLocation Identifies the artifact to delete.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws IOException If an unrecoverable error occurred.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public void delete(StorageLocation storageLocation)
+            throws ResourceNotFoundException, IOException, StorageEngageException, TransientException {
+        s3StorageAdapter.delete(storageLocation);
+    }
+
+    /**
+     * Delete from storage the artifacts identified by storageLocations, in DeleteObjects batches.  Keys that do not
+     * exist are not reported.
+     *
+     * @param storageLocations Identifies the artifacts to delete.
+     * @return The artifacts that were not deleted, each with the cause.
+     */
+    @Override
+    public Map<StorageLocation, Exception> delete(Collection<StorageLocation> storageLocations) {
+        return s3StorageAdapter.delete(storageLocations);
+    }
+
+    /**
+     * Iterator of items ordered by their storageIDs.
+     *
+     * @return An iterator over an ordered list of items in storage.
+     */
+    @Override
+    public Iterator<StorageMetadata> iterator() {
+        return s3StorageAdapter.iterator();
+    }
+
+    /**
+     * Iterator of items ordered by their storageIDs in the given bucket.
+     *
+     * @param storageBucket Only iterate over items in this bucket.
+     * @return An iterator over an ordered list of items in this storage bucket.
+     */
+    @Override
+    public Iterator<StorageMetadata> iterator(final String storageBucket) {
+        return s3StorageAdapter.iterator(storageBucket);
+    }
+
+    /**
+     * Get set of items in the given bucket.
+     *
+     * @param storageBucket Only iterate over items in this bucket.
+     * @return An iterator over an ordered list of items in this storage bucket.
+     *
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public SortedSet<StorageMetadata> list(String storageBucket)
+            throws StorageEngageException, TransientException {
+        return s3StorageAdapter.list(storageBucket);
+    }
+}
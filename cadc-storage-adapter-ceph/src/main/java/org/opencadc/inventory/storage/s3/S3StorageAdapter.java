@@ -82,41 +82,63 @@ import ca.nrc.cadc.util.StringUtil;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.ByteArrayInputStream;
 import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
-import nom.tam.fits.BasicHDU;
-import nom.tam.fits.Fits;
-import nom.tam.fits.FitsException;
-import nom.tam.fits.Header;
-import nom.tam.fits.HeaderCard;
-import nom.tam.util.ArrayDataOutput;
-import nom.tam.util.BufferedDataOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.InventoryUtil;
 import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
 import org.opencadc.inventory.storage.NewArtifact;
 import org.opencadc.inventory.storage.StorageAdapter;
 import org.opencadc.inventory.storage.StorageEngageException;
 import org.opencadc.inventory.storage.StorageMetadata;
+import org.opencadc.inventory.storage.fits.FitsCutoutWriter;
 import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.BucketAlreadyExistsException;
 import software.amazon.awssdk.services.s3.model.BucketAlreadyOwnedByYouException;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
 import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
@@ -124,8 +146,14 @@ import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
 import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
 import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.Tagging;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 
 /**
  * Implementation of a Storage Adapter using the Amazon S3 API.
@@ -136,26 +164,112 @@ public class S3StorageAdapter implements StorageAdapter {
 
     public static final String CONFIG_FILE = "cadc-storage-adapter-ceph.properties";
     public static final String CONFIG_PROPERTY_BUCKETDEPTH = "bucketLength";
+    public static final String CONFIG_PROPERTY_MULTIPART_THRESHOLD = "multipartThreshold";
+    public static final String CONFIG_PROPERTY_MULTIPART_PARTSIZE = "multipartPartSize";
+    public static final String CONFIG_PROPERTY_MULTIPART_THREADS = "multipartThreads";
 
     private static final int BUFFER_SIZE_BYTES = 8192;
-    private static final String DEFAULT_CHECKSUM_ALGORITHM = "md5";
-    private static final String ARTIFACT_URI_KEY = "uri";
-    private static final String DEFAULT_BUCKET_HASH_LENGTH = "5";
+    static final String DEFAULT_CHECKSUM_ALGORITHM = "md5";
+    static final String ARTIFACT_URI_KEY = "uri";
+    private static final int DEFAULT_BUCKET_HASH_LENGTH = 5;
     static final String STORAGE_ID_URI_TEMPLATE = "s3:%s";
     static final String CHECKSUM_URI_TEMPLATE = "md5:%s";
+    static final String RANGE_HEADER_TEMPLATE = "bytes=%d-%d";
+    static final int RANGE_NOT_SATISFIABLE_STATUS_CODE = 416;
+    static final int NOT_FOUND_STATUS_CODE = 404;
+
+    // Maximum number of keys in a DeleteObjects request.
+    static final int MAX_DELETE_KEYS = 1000;
+
+    // Multipart upload limits imposed by S3.
+    static final long MIN_PART_SIZE_BYTES = 5L * 1024L * 1024L;
+    static final long MAX_PART_SIZE_BYTES = Integer.MAX_VALUE - 8L;
+    static final int MAX_PART_COUNT = 10000;
+
+    private static final long DEFAULT_MULTIPART_THRESHOLD = 100L * 1024L * 1024L;
+    private static final long DEFAULT_MULTIPART_PART_SIZE = 16L * 1024L * 1024L;
+    private static final int DEFAULT_MULTIPART_THREADS = 4;
+    static final int DEFAULT_HEAD_THREADS = 16;
+    private static final int MULTIPART_THREAD_COUNT = 16;
+    private static final int HEAD_THREAD_COUNT = 32;
+
+    /**
+     * Shared by all multipart uploads.  Each upload has at most multipartThreads parts in flight, limited by its
+     * part buffers.
+     */
+    private static final ExecutorService MULTIPART_EXECUTOR = Executors.newFixedThreadPool(
+            MULTIPART_THREAD_COUNT, runnable -> {
+        final Thread thread = new Thread(runnable, "s3-multipart");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Shared by all bulk heads, each of which uses at most headThreads of its threads.
+     */
+    private static final ExecutorService HEAD_EXECUTOR = Executors.newFixedThreadPool(
+            HEAD_THREAD_COUNT, runnable -> {
+        final Thread thread = new Thread(runnable, "s3-head");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     // S3Client is thread safe, and re-usability is encouraged.
     private final S3Client s3Client;
 
+    private final int bucketNameLength;
+
+    // Buckets known to exist, so ensureBucket() can skip the headBucket round trip.
+    final Set<String> knownBuckets = ConcurrentHashMap.newKeySet();
+
+    // Artifacts larger than this, or of unknown length, are uploaded in parts.
+    long multipartThreshold;
+    long multipartPartSize;
+    int multipartThreads;
+
+    // Maximum number of concurrent HeadObject requests in a bulk head.
+    int headThreads = DEFAULT_HEAD_THREADS;
+
     public S3StorageAdapter(final URI endpoint, final String regionName) {
         this(S3Client.builder()
                 .endpointOverride(endpoint)
                 .region(Region.of(regionName))
                 .build());
+        prewarmBuckets();
     }
 
     S3StorageAdapter(final S3Client s3Client) {
         this.s3Client = s3Client;
+
+        final PropertiesReader pr = new PropertiesReader(CONFIG_FILE);
+        this.bucketNameLength = (int) getLongProperty(pr, CONFIG_PROPERTY_BUCKETDEPTH,
+                                                      DEFAULT_BUCKET_HASH_LENGTH);
+        this.multipartThreshold = getLongProperty(pr, CONFIG_PROPERTY_MULTIPART_THRESHOLD,
+                                                  DEFAULT_MULTIPART_THRESHOLD);
+        this.multipartPartSize = getLongProperty(pr, CONFIG_PROPERTY_MULTIPART_PARTSIZE, DEFAULT_MULTIPART_PART_SIZE);
+        this.multipartThreads = (int) getLongProperty(pr, CONFIG_PROPERTY_MULTIPART_THREADS,
+                                                      DEFAULT_MULTIPART_THREADS);
+        if (multipartPartSize < MIN_PART_SIZE_BYTES || multipartPartSize > MAX_PART_SIZE_BYTES) {
+            throw new IllegalStateException(String.format("failed to load %s from %s: must be between %d and %d",
+                    CONFIG_PROPERTY_MULTIPART_PARTSIZE, CONFIG_FILE, MIN_PART_SIZE_BYTES, MAX_PART_SIZE_BYTES));
+        }
+        if (multipartThreads < 1) {
+            throw new IllegalStateException(String.format("failed to load %s from %s: must be at least 1",
+                    CONFIG_PROPERTY_MULTIPART_THREADS, CONFIG_FILE));
+        }
+    }
+
+    private static long getLongProperty(final PropertiesReader pr, final String name, final long defaultValue) {
+        final String value = pr.getFirstPropertyValue(name);
+        if (!StringUtil.hasLength(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(String.format("failed to load %s from %s: %s", name, CONFIG_FILE,
+                    e.getMessage()), e);
+        }
     }
 
     URI generateStorageID() {
@@ -163,15 +277,18 @@ public class S3StorageAdapter implements StorageAdapter {
     }
 
     /**
-     * Obtain the configured bucket name length.
-     *
-     * @return Integer bucket length. Never null.
+     * Populate the set of known buckets from the buckets that already exist.  Failure is not fatal: buckets
+     * will then be checked and added as they are used.
      */
-    private int getBucketNameLength() {
-        final PropertiesReader pr = new PropertiesReader(CONFIG_FILE);
-        final Optional<String> optionalBucketLength
-                = Optional.ofNullable(pr.getFirstPropertyValue(CONFIG_PROPERTY_BUCKETDEPTH));
-        return Integer.parseInt(optionalBucketLength.orElse(DEFAULT_BUCKET_HASH_LENGTH));
+    void prewarmBuckets() {
+        try {
+            for (final Bucket bucket : s3Client.listBuckets().buckets()) {
+                knownBuckets.add(bucket.name());
+            }
+            LOGGER.debug(String.format("Found %d existing buckets.", knownBuckets.size()));
+        } catch (S3Exception | SdkClientException e) {
+            LOGGER.warn(String.format("Unable to list existing buckets: %s", e.getMessage()));
+        }
     }
 
     /**
@@ -230,6 +347,22 @@ public class S3StorageAdapter implements StorageAdapter {
                 .build());
     }
 
+    /**
+     * Obtain the InputStream for the given byte range of an object.  Uses an HTTP Range request so only the
+     * requested bytes are transferred.  Tests can override this method.
+     *
+     * @param storageLocation The Storage Location of the desired object.
+     * @param byteRange The byte range to read.
+     * @return InputStream to the object bytes in the range.
+     */
+    InputStream toObjectInputStream(final StorageLocation storageLocation, final ByteRange byteRange) {
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(storageLocation.storageBucket)
+                .key(storageLocation.getStorageID().getSchemeSpecificPart())
+                .range(String.format(RANGE_HEADER_TEMPLATE, byteRange.getOffset(), byteRange.getLastOffset()))
+                .build());
+    }
+
     /**
      * Reusable way to create a StorageMetadata object.
      *
@@ -279,67 +412,68 @@ public class S3StorageAdapter implements StorageAdapter {
     }
 
     /**
-     * Get from storage the artifact identified by storageLocation with cutout specifications. Currently needs full
-     * implementation.
-     * TODO
-     * TODO Complete the implementation to check for an astronomy file (i.e. FITS, HDF5), and determine what cutout
-     * TODO system to use.
-     * TODO
-     * TODO jenkinsd 2020.01.09
-     * TODO
+     * Get from storage the specified byte ranges of the artifact identified by storageLocation.  Each range is
+     * obtained with a separate ranged GetObject request.
      *
      * @param storageLocation The storage location containing storageID and storageBucket.
      * @param dest The destination stream.
-     * @param cutouts Cutouts to be applied to the artifact
+     * @param byteRanges The byte ranges to get.
      * @throws ResourceNotFoundException If the artifact could not be found.
      * @throws ReadException If the storage system failed to stream.
      * @throws WriteException If writing failed.
      * @throws StorageEngageException If the adapter failed to interact with storage.
      */
     @Override
-    public void get(StorageLocation storageLocation, OutputStream dest, Set<String> cutouts)
+    public void get(StorageLocation storageLocation, OutputStream dest, List<ByteRange> byteRanges)
             throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException {
-        if ((cutouts == null) || cutouts.isEmpty()) {
-            get(storageLocation, dest);
-        } else {
-            final long start = System.currentTimeMillis();
-            try (final InputStream inputStream = toObjectInputStream(storageLocation)) {
-                final Fits fitsFile = new Fits(inputStream);
-                final ArrayDataOutput dataOutput = new BufferedDataOutputStream(dest);
-
-                // Just get the first cutout for now.
-                BasicHDU<?> hdu;
-                long beforeHDU = System.currentTimeMillis();
-                int count = 1;
-                while ((hdu = fitsFile.readHDU()) != null) {
-                    final Header header = hdu.getHeader();
-                    final long afterReadHDU = System.currentTimeMillis();
-                    final HeaderCard headerNameCard = header.findCard("EXTNAME");
-                    LOGGER.debug(String.format("%d,\"%s\",%d,\"milliseconds\"",
-                            count,
-                            headerNameCard == null ? "N/A" : headerNameCard.getValue(),
-                            afterReadHDU - beforeHDU));
-                    beforeHDU = System.currentTimeMillis();
-                    if (hdu.getAxes() != null) {
-                        final int axesCount = hdu.getAxes().length;
-                        for (int i = 0; i < axesCount; i++) {
-                            header.findCard(String.format("NAXIS%d", i + 1)).setValue(0);
-                        }
-                    }
-
-                    header.write(dataOutput);
-                    dataOutput.write(new short[0]);
-                    count++;
-                }
-            } catch (FitsException e) {
-                throw new ReadException("Unable to process FITS file.", e);
+        InventoryUtil.assertNotNull(S3StorageAdapter.class, "byteRanges", byteRanges);
+        for (final ByteRange byteRange : byteRanges) {
+            try (final InputStream inputStream = toObjectInputStream(storageLocation, byteRange)) {
+                transferInputStreamTo(inputStream, dest);
             } catch (NoSuchKeyException e) {
                 throw new ResourceNotFoundException(e.getMessage(), e);
-            } catch (S3Exception | SdkClientException e) {
+            } catch (S3Exception e) {
+                if (e.statusCode() == RANGE_NOT_SATISFIABLE_STATUS_CODE) {
+                    // Range starts beyond the end of the object, so there is nothing to write.
+                    LOGGER.debug(String.format("Skipping unsatisfiable range %s of %s", byteRange,
+                                               storageLocation));
+                } else {
+                    throw new StorageEngageException(e.getMessage(), e);
+                }
+            } catch (SdkClientException e) {
                 throw new StorageEngageException(e.getMessage(), e);
+            } catch (ReadException | WriteException e) {
+                // Handle before the IOException below so it's not wrapped into that catch.
+                throw e;
             } catch (IOException e) {
                 throw new ReadException(e.getMessage(), e);
             }
+        }
+    }
+
+    /**
+     * Get from storage the artifact identified by storageLocation with cutout specifications.  Image sections of a FITS
+     * file (e.g. [1][100:200,100:200]) are read with ranged requests of the intersecting rows only; other cutouts
+     * return the headers of the file.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param dest The destination stream.
+     * @param cutouts Cutouts to be applied to the artifact
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If writing failed.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public void get(StorageLocation storageLocation, OutputStream dest, Set<String> cutouts)
+            throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException,
+                   TransientException {
+        if ((cutouts == null) || cutouts.isEmpty()) {
+            get(storageLocation, dest);
+        } else {
+            final long start = System.currentTimeMillis();
+            new FitsCutoutWriter(this, storageLocation).write(cutouts, dest);
             LOGGER.debug(String.format("Read and wrote HDUs in %d milliseconds.", System.currentTimeMillis() - start));
         }
     }
@@ -374,7 +508,11 @@ public class S3StorageAdapter implements StorageAdapter {
      * @throws S3Exception Base class for all service exceptions. Unknown exceptions will be thrown as an instance of this type.
      */
     String ensureBucket(final URI storageID) throws ResourceAlreadyExistsException, SdkClientException, S3Exception {
-        final String bucket = InventoryUtil.computeBucket(storageID, getBucketNameLength());
+        final String bucket = InventoryUtil.computeBucket(storageID, bucketNameLength);
+        if (knownBuckets.contains(bucket)) {
+            return bucket;
+        }
+
         final HeadBucketRequest headBucketRequest = HeadBucketRequest.builder().bucket(bucket).build();
 
         try {
@@ -383,6 +521,7 @@ public class S3StorageAdapter implements StorageAdapter {
             // Bucket does not exist, so create it.
             createBucket(bucket);
         }
+        knownBuckets.add(bucket);
 
         return bucket;
     }
@@ -420,9 +559,10 @@ public class S3StorageAdapter implements StorageAdapter {
         final URI storageID = generateStorageID();
 
         String checksum = "N/A";
+        String bucket = null;
 
         try {
-            final String bucket = ensureBucket(storageID);
+            bucket = ensureBucket(storageID);
 
             final PutObjectRequest.Builder putObjectRequestBuilder
                     = PutObjectRequest.builder()
@@ -445,6 +585,10 @@ public class S3StorageAdapter implements StorageAdapter {
                 metadata.put(DEFAULT_CHECKSUM_ALGORITHM, md5SumValue);
             }
 
+            if ((newArtifact.contentLength == null) || (newArtifact.contentLength > multipartThreshold)) {
+                return putMultipart(bucket, storageID, newArtifact, metadata, source);
+            }
+
             /*
             TODO: Is this necessary?  It's being sent with the RequestBody.fromInputStream() below already.  S3 will
             TODO: throw an exception if it's missing.
@@ -465,6 +609,13 @@ public class S3StorageAdapter implements StorageAdapter {
             if ((awsErrorDetails != null) && StringUtil.hasLength(awsErrorDetails.errorCode())) {
                 final String errorCode = awsErrorDetails.errorCode();
                 switch (errorCode) {
+                    case "NoSuchBucket": {
+                        // Removed behind our back, so check it again next time.
+                        if (bucket != null) {
+                            knownBuckets.remove(bucket);
+                        }
+                        throw new WriteException(String.format("Bucket %s no longer exists.", bucket), e);
+                    }
                     case "BadDigest": {
                         throw new IncorrectContentChecksumException(
                                 String.format("Checksums do not match what was received.  Expected %s.", checksum));
@@ -522,13 +673,277 @@ public class S3StorageAdapter implements StorageAdapter {
         }
     }
 
+    /**
+     * Write an artifact to storage as a multipart upload.  The source stream is read into a small pool of part
+     * buffers that are uploaded concurrently, so at most (multipartThreads + 1) parts are held in memory at once.
+     * The MD5 of the whole object and its length are computed while reading and compared with the values in
+     * newArtifact, if any, before the upload is completed.  A failed upload is aborted so no parts are left behind.
+     * An artifact of unknown length that turns out to fit in a single part is written with a plain putObject.
+     *
+     * @param bucket The bucket to write to.
+     * @param storageID The storage ID of the new object.
+     * @param newArtifact known information about the incoming artifact
+     * @param metadata The object metadata to store.
+     * @param source stream from which to read
+     * @return storage metadata after write
+     *
+     * @throws IncorrectContentChecksumException checksum of the data stream did not match the value in newArtifact
+     * @throws IncorrectContentLengthException number bytes read did not match the value in newArtifact
+     * @throws ReadException If the client failed to read the stream.
+     * @throws WriteException If the storage system failed to stream.
+     */
+    StorageMetadata putMultipart(final String bucket, final URI storageID, final NewArtifact newArtifact,
+                                 final Map<String, String> metadata, final InputStream source)
+            throws IncorrectContentChecksumException, IncorrectContentLengthException, ReadException,
+                   WriteException {
+        final String key = storageID.getSchemeSpecificPart();
+        long partSize = multipartPartSize;
+        if (newArtifact.contentLength != null) {
+            // Grow the parts if needed to stay within the part count limit.
+            final long minPartSize = (newArtifact.contentLength + MAX_PART_COUNT - 1) / MAX_PART_COUNT;
+            if (minPartSize > MAX_PART_SIZE_BYTES) {
+                throw new WriteException(String.format("Content length %d is too large for a multipart upload.",
+                                                       newArtifact.contentLength));
+            }
+            partSize = Math.max(partSize, minPartSize);
+        }
+
+        final MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("BUG: failed to create MD5 digest", e);
+        }
+        final DigestInputStream digestInputStream = new DigestInputStream(source, md5);
+
+        // Buffers are created on demand and returned to the pool as each part completes.
+        final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(multipartThreads + 1);
+        int bufferCount = 1;
+        byte[] buffer = new byte[(int) partSize];
+        int length = readPart(digestInputStream, buffer);
+        long totalLength = length;
+
+        if (length < buffer.length) {
+            // Everything fits in one part, so no need for a multipart upload.
+            final URI checksum = verifyUpload(newArtifact, md5, totalLength);
+            putSinglePart(bucket, key, metadata, checksum, buffer, length);
+            return toStorageMetadata(storageID, bucket, newArtifact.getArtifactURI(), checksum, totalLength);
+        }
+
+        final String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .metadata(metadata)
+                .build()).uploadId();
+        LOGGER.debug(String.format("Started multipart upload %s of %s/%s", uploadId, bucket, key));
+
+        boolean completed = false;
+        final List<Future<CompletedPart>> parts = new ArrayList<>();
+        try {
+            int checkedParts = 0;
+            while (length > 0) {
+                if (parts.size() == MAX_PART_COUNT) {
+                    throw new WriteException(String.format("Artifact exceeds the maximum of %d parts of %d bytes.",
+                                                           MAX_PART_COUNT, partSize));
+                }
+                final byte[] partBuffer = buffer;
+                final int partLength = length;
+                final int partNumber = parts.size() + 1;
+                parts.add(MULTIPART_EXECUTOR.submit(() -> {
+                    try {
+                        final String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) partLength)
+                                .build(),
+                                RequestBody.fromInputStream(new ByteArrayInputStream(partBuffer, 0, partLength),
+                                                            partLength)).eTag();
+                        return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+                    } finally {
+                        bufferPool.offer(partBuffer);
+                    }
+                }));
+
+                // Fail early if a part upload has already failed.
+                while (checkedParts < parts.size() && parts.get(checkedParts).isDone()) {
+                    awaitPart(parts.get(checkedParts++));
+                }
+
+                buffer = bufferPool.poll();
+                if (buffer == null) {
+                    if (bufferCount <= multipartThreads) {
+                        bufferCount++;
+                        buffer = new byte[(int) partSize];
+                    } else {
+                        buffer = bufferPool.take();
+                    }
+                }
+                length = readPart(digestInputStream, buffer);
+                totalLength += length;
+            }
+
+            final URI checksum = verifyUpload(newArtifact, md5, totalLength);
+
+            final List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            for (final Future<CompletedPart> part : parts) {
+                completedParts.add(awaitPart(part));
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+            completed = true;
+            LOGGER.debug(String.format("Completed multipart upload %s of %s/%s in %d parts", uploadId, bucket, key,
+                                       completedParts.size()));
+
+            if (!metadata.containsKey(DEFAULT_CHECKSUM_ALGORITHM)) {
+                recordChecksum(bucket, key, checksum);
+            }
+
+            return toStorageMetadata(storageID, bucket, newArtifact.getArtifactURI(), checksum, totalLength);
+        } catch (InterruptedException e) {
+            throw new WriteException("Interrupted while uploading parts.", e);
+        } finally {
+            if (!completed) {
+                for (final Future<CompletedPart> part : parts) {
+                    part.cancel(true);
+                }
+                abortMultipart(bucket, key, uploadId);
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer from the stream.  Only the last part of an upload may be shorter than the buffer.
+     *
+     * @param inputStream Stream to read from.
+     * @param buffer Buffer to fill.
+     * @return int number of bytes read, 0 at the end of the stream.
+     *
+     * @throws ReadException For any reading I/O errors.
+     */
+    private int readPart(final InputStream inputStream, final byte[] buffer) throws ReadException {
+        int offset = 0;
+        try {
+            int read;
+            while (offset < buffer.length && (read = inputStream.read(buffer, offset, buffer.length - offset)) >= 0) {
+                offset += read;
+            }
+        } catch (IOException e) {
+            throw new ReadException(e.getMessage(), e);
+        }
+        return offset;
+    }
+
+    private CompletedPart awaitPart(final Future<CompletedPart> part) throws InterruptedException {
+        try {
+            return part.get();
+        } catch (ExecutionException e) {
+            // Rethrow as-is so the S3 exception handling in put() applies.
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    private URI verifyUpload(final NewArtifact newArtifact, final MessageDigest md5, final long totalLength)
+            throws IncorrectContentChecksumException, IncorrectContentLengthException {
+        if ((newArtifact.contentLength != null) && (newArtifact.contentLength != totalLength)) {
+            throw new IncorrectContentLengthException(
+                    String.format("Content length does not match bytes written.  Expected %d bytes but read %d.",
+                                  newArtifact.contentLength, totalLength));
+        }
+        final URI checksum = URI.create(String.format(CHECKSUM_URI_TEMPLATE, HexUtil.toHex(md5.digest())));
+        if ((newArtifact.contentChecksum != null) && !newArtifact.contentChecksum.equals(checksum)) {
+            throw new IncorrectContentChecksumException(
+                    String.format("Checksums do not match what was received.  Expected %s but computed %s.",
+                                  newArtifact.contentChecksum, checksum));
+        }
+        return checksum;
+    }
+
+    private void putSinglePart(final String bucket, final String key, final Map<String, String> metadata,
+                               final URI checksum, final byte[] buffer, final int length) {
+        final Map<String, String> objectMetadata = new HashMap<>(metadata);
+        objectMetadata.put(DEFAULT_CHECKSUM_ALGORITHM, checksum.getSchemeSpecificPart());
+        s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .contentLength((long) length)
+                        .contentMD5(new String(Base64.getEncoder().encode(
+                                HexUtil.toBytes(checksum.getSchemeSpecificPart()))))
+                        .metadata(objectMetadata)
+                        .build(),
+                RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, length), length));
+    }
+
+    /**
+     * Object metadata is fixed when a multipart upload is created, so the checksum of an upload that was not
+     * known in advance is recorded afterwards as an object tag.  Tags can be set without rewriting the object,
+     * unlike metadata.  If the checksum cannot be recorded the object is deleted, since it could never be verified.
+     */
+    void recordChecksum(final String bucket, final String key, final URI checksum) {
+        try {
+            s3Client.putObjectTagging(PutObjectTaggingRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .tagging(Tagging.builder()
+                                    .tagSet(Tag.builder()
+                                                   .key(DEFAULT_CHECKSUM_ALGORITHM)
+                                                   .value(checksum.getSchemeSpecificPart())
+                                                   .build())
+                                    .build())
+                    .build());
+        } catch (S3Exception | SdkClientException e) {
+            LOGGER.error(String.format("Failed to record checksum %s of %s/%s, deleting it: %s", checksum, bucket,
+                                       key, e.getMessage()));
+            deleteQuietly(bucket, key);
+            throw e;
+        }
+    }
+
+    /**
+     * Delete an object that was written but cannot be kept, logging rather than throwing on failure.
+     */
+    void deleteQuietly(final String bucket, final String key) {
+        try {
+            s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+        } catch (S3Exception | SdkClientException e) {
+            LOGGER.warn(String.format("Failed to delete %s/%s: %s", bucket, key, e.getMessage()));
+        }
+    }
+
+    private void abortMultipart(final String bucket, final String key, final String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (S3Exception | SdkClientException e) {
+            LOGGER.warn(String.format("Failed to abort multipart upload %s of %s/%s: %s", uploadId, bucket, key,
+                                      e.getMessage()));
+        }
+    }
+
     /**
      * Perform a head (headObject) request for the given key in the given bucket. This is used to translate into a
-     * StorageMetadata object to verify after a PUT and to translate S3Objects for a LIST function.
+     * StorageMetadata object to verify after a PUT, and by the iterator when the listing does not carry enough
+     * metadata.  The checksum is the recorded md5 metadata or, if there is none, the ETag or the md5 tag recorded
+     * after a multipart upload.
      *
      * @param bucket The bucket to look.
      * @param key The key to look for.
-     * @return StorageMetadata instance. Never null
+     * @return StorageMetadata instance, or null if the object has no checksum yet because it is still being written.
      */
     StorageMetadata head(final String bucket, final String key) {
         final HeadObjectRequest.Builder headBuilder = HeadObjectRequest.builder().key(key);
@@ -541,13 +956,131 @@ public class S3StorageAdapter implements StorageAdapter {
 
         final URI storageID = URI.create(String.format(S3StorageAdapter.STORAGE_ID_URI_TEMPLATE, key));
 
-        // TODO: The MD5 value should always be present.  Do we need a null check here?
-        final URI md5 = URI.create(String.format(CHECKSUM_URI_TEMPLATE,
-                objectMetadata.get(DEFAULT_CHECKSUM_ALGORITHM)));
+        // Objects uploaded in one part without a known checksum only have it as their ETag.
+        URI md5 = objectMetadata.containsKey(DEFAULT_CHECKSUM_ALGORITHM)
+                ? URI.create(String.format(CHECKSUM_URI_TEMPLATE, objectMetadata.get(DEFAULT_CHECKSUM_ALGORITHM)))
+                : S3StorageMetadataIterator.toChecksum(headResponse.eTag());
+        if (md5 == null) {
+            md5 = getTaggedChecksum(bucket, key);
+            if (md5 == null) {
+                LOGGER.debug(String.format("No checksum recorded yet for %s/%s.", bucket, key));
+                return null;
+            }
+        }
 
         return toStorageMetadata(storageID, bucket, artifactURI, md5, headResponse.contentLength());
     }
 
+    private URI getTaggedChecksum(final String bucket, final String key) {
+        for (final Tag tag : s3Client.getObjectTagging(GetObjectTaggingRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build()).tagSet()) {
+            if (DEFAULT_CHECKSUM_ALGORITHM.equals(tag.key())) {
+                return URI.create(String.format(CHECKSUM_URI_TEMPLATE, tag.value()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the metadata of the artifact identified by storageLocation with a single HeadObject request, and a
+     * GetObjectTagging request for the checksum of an artifact uploaded in parts.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @return The storage metadata.
+     * @throws ResourceNotFoundException If the artifact could not be found, or is still being written.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public StorageMetadata head(StorageLocation storageLocation)
+            throws ResourceNotFoundException, StorageEngageException, TransientException {
+        InventoryUtil.assertNotNull(S3StorageAdapter.class, "storageLocation", storageLocation);
+        final StorageMetadata storageMetadata;
+        try {
+            storageMetadata = head(storageLocation.storageBucket,
+                                   storageLocation.getStorageID().getSchemeSpecificPart());
+        } catch (NoSuchKeyException e) {
+            throw new ResourceNotFoundException(e.getMessage(), e);
+        } catch (S3Exception e) {
+            if (e.statusCode() == NOT_FOUND_STATUS_CODE) {
+                // HEAD responses have no body, so a missing key is not always reported as a NoSuchKeyException.
+                throw new ResourceNotFoundException(e.getMessage(), e);
+            }
+            throw new StorageEngageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            throw new TransientException(e.getMessage(), e);
+        }
+        if (storageMetadata == null) {
+            throw new ResourceNotFoundException(String.format("%s is still being written.", storageLocation));
+        }
+        return storageMetadata;
+    }
+
+    /**
+     * Get the metadata of the artifacts identified by storageLocations.  The HeadObject requests are made
+     * concurrently by up to headThreads threads of a shared pool.  An artifact whose metadata cannot be read is left
+     * out and the failure logged, so one failed request does not fail the others.
+     *
+     * @param storageLocations The storage locations.
+     * @return The storage metadata by storage location, without the artifacts that were not found or could not be
+     *     read.
+     * @throws StorageEngageException If the metadata of every artifact could not be read.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public Map<StorageLocation, StorageMetadata> head(Collection<StorageLocation> storageLocations)
+            throws StorageEngageException, TransientException {
+        InventoryUtil.assertNotNull(S3StorageAdapter.class, "storageLocations", storageLocations);
+        final Map<StorageLocation, StorageMetadata> ret = new ConcurrentHashMap<>();
+        final Map<StorageLocation, Exception> failures = new ConcurrentHashMap<>();
+        final Queue<StorageLocation> pending = new ConcurrentLinkedQueue<>(storageLocations);
+        final int threads = Math.max(1, Math.min(headThreads, storageLocations.size()));
+        final List<Future<?>> tasks = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                tasks.add(HEAD_EXECUTOR.submit(() -> {
+                    StorageLocation storageLocation;
+                    while ((storageLocation = pending.poll()) != null) {
+                        try {
+                            ret.put(storageLocation, head(storageLocation));
+                        } catch (ResourceNotFoundException e) {
+                            LOGGER.debug(String.format("Not found: %s", storageLocation));
+                        } catch (StorageEngageException | TransientException | RuntimeException e) {
+                            LOGGER.warn(String.format("Failed to read metadata of %s: %s", storageLocation,
+                                                      e.getMessage()));
+                            failures.put(storageLocation, e);
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransientException("Interrupted while reading object metadata.", e);
+        } catch (ExecutionException e) {
+            throw new StorageEngageException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            pending.clear();
+            for (final Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+
+        if (ret.isEmpty() && !failures.isEmpty()) {
+            final Exception cause = failures.values().iterator().next();
+            if (cause instanceof TransientException) {
+                throw (TransientException) cause;
+            }
+            throw new StorageEngageException(cause.getMessage(), cause);
+        }
+        LOGGER.debug(String.format("Found %d of %d objects.", ret.size(), storageLocations.size()));
+        return ret;
+    }
+
     /**
      * Delete from storage the artifact identified by storageLocation.
      *
@@ -578,6 +1111,79 @@ public class S3StorageAdapter implements StorageAdapter {
         }
     }
 
+    /**
+     * Delete from storage the artifacts identified by storageLocations.  Keys are grouped by bucket and removed with
+     * DeleteObjects requests of up to MAX_DELETE_KEYS keys each.  A request that fails as a whole is recorded as the
+     * failure of each of its keys, and the remaining requests are still made.
+     *
+     * <p>S3 deletes of missing keys succeed, so a key that does not exist is normally counted as deleted.  Only a
+     * missing bucket, or a server that reports NoSuchKey per key, gives a ResourceNotFoundException.
+     *
+     * @param storageLocations Identifies the artifacts to delete.
+     * @return The artifacts that were not deleted, each with the cause.
+     */
+    @Override
+    public Map<StorageLocation, Exception> delete(Collection<StorageLocation> storageLocations) {
+        final Map<StorageLocation, Exception> failures = new HashMap<>();
+        final Map<String, Map<String, StorageLocation>> keysByBucket = new HashMap<>();
+        for (final StorageLocation storageLocation : storageLocations) {
+            keysByBucket.computeIfAbsent(storageLocation.storageBucket, k -> new LinkedHashMap<>())
+                        .put(storageLocation.getStorageID().getSchemeSpecificPart(), storageLocation);
+        }
+
+        for (final Map.Entry<String, Map<String, StorageLocation>> entry : keysByBucket.entrySet()) {
+            final Map<String, StorageLocation> keys = entry.getValue();
+            final List<ObjectIdentifier> objects = new ArrayList<>(MAX_DELETE_KEYS);
+            for (final String key : keys.keySet()) {
+                objects.add(ObjectIdentifier.builder().key(key).build());
+                if (objects.size() == MAX_DELETE_KEYS) {
+                    deleteObjects(entry.getKey(), objects, keys, failures);
+                    objects.clear();
+                }
+            }
+            if (!objects.isEmpty()) {
+                deleteObjects(entry.getKey(), objects, keys, failures);
+            }
+        }
+
+        LOGGER.debug(String.format("Deleted %d of %d objects in %d bucket(s).",
+                                   storageLocations.size() - failures.size(), storageLocations.size(),
+                                   keysByBucket.size()));
+        return failures;
+    }
+
+    private void deleteObjects(final String bucket, final List<ObjectIdentifier> objects,
+                               final Map<String, StorageLocation> keys, final Map<StorageLocation, Exception> failures) {
+        final DeleteObjectsRequest deleteObjectsRequest =
+                DeleteObjectsRequest.builder()
+                                    .bucket(bucket)
+                                    .delete(Delete.builder().objects(objects).quiet(Boolean.TRUE).build())
+                                    .build();
+        try {
+            // Quiet mode only reports the keys that failed.
+            final DeleteObjectsResponse response = s3Client.deleteObjects(deleteObjectsRequest);
+            for (final S3Error error : response.errors()) {
+                final String message = String.format("%s: %s (%s)", error.key(), error.message(), error.code());
+                final Exception failure = "NoSuchKey".equals(error.code())
+                                          ? new ResourceNotFoundException(message)
+                                          : new StorageEngageException(message);
+                failures.put(keys.get(error.key()), failure);
+            }
+        } catch (NoSuchBucketException e) {
+            for (final ObjectIdentifier object : objects) {
+                failures.put(keys.get(object.key()), new ResourceNotFoundException(e.getMessage(), e));
+            }
+        } catch (S3Exception e) {
+            for (final ObjectIdentifier object : objects) {
+                failures.put(keys.get(object.key()), new StorageEngageException(e.getMessage(), e));
+            }
+        } catch (SdkClientException e) {
+            for (final ObjectIdentifier object : objects) {
+                failures.put(keys.get(object.key()), new TransientException(e.getMessage(), e));
+            }
+        }
+    }
+
     /**
      * Obtain a list of objects from the S3 server. This will use the nextMarkerKey value to start listing the next
      * page of data from. This is hard-coded to 1000 objects by default, but is modifiable to something smaller
@@ -609,7 +1215,8 @@ public class S3StorageAdapter implements StorageAdapter {
     }
 
     /**
-     * Iterator of items ordered by their storageIDs in the given bucket.
+     * Iterator of items ordered by their storageIDs in the given bucket.  The metadata comes from the listing, so
+     * the artifactURI of the items is null.
      *
      * @param storageBucket Only iterate over items in this bucket.
      * @return An iterator over an ordered list of items in this storage bucket.
@@ -69,11 +69,20 @@
 
 package org.opencadc.inventory.storage.s3;
 
-import ca.nrc.cadc.util.StringUtil;
-
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
+import org.apache.log4j.Logger;
 import org.opencadc.inventory.storage.StorageMetadata;
 
 import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
@@ -81,11 +90,30 @@ import software.amazon.awssdk.services.s3.model.S3Object;
 
 
 /**
- * Main Iterator over StorageMetadata objects.  This will use the S3 Storage Adapter to obtain the metadata via a head
- * call, and to obtain the next page of data via a listObjects call.
+ * Main Iterator over StorageMetadata objects.  The metadata is built from the listObjects response, using the size
+ * and the ETag, which is the MD5 of objects that were not uploaded in parts.  A head call is only made for objects
+ * whose MD5 is not known from the listing, or for all objects when the Artifact URI is requested; those calls are
+ * issued concurrently for a whole page.  The next page is requested while the current one is consumed.
+ * Unless includeArtifactURI is set, the artifactURI of every item is null.  Objects still being written, whose
+ * checksum is not recorded yet, are left out.
  */
 public class S3StorageMetadataIterator implements Iterator<StorageMetadata> {
 
+    private static final Logger LOGGER = Logger.getLogger(S3StorageMetadataIterator.class);
+
+    static final int THREAD_COUNT = 16;
+
+    private static final Pattern MD5_ETAG_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
+
+    /**
+     * Shared by all iterators for listing and head calls.  Threads are daemons as iterators are not closed.
+     */
+    private static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(THREAD_COUNT, runnable -> {
+        final Thread thread = new Thread(runnable, "s3-iterator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * The Storage Adapter to interact with the S3 server.
      */
@@ -97,14 +125,24 @@ public class S3StorageMetadataIterator implements Iterator<StorageMetadata> {
     private final String bucket;
 
     /**
-     * Current page of S3Objects.
+     * Whether to obtain the Artifact URI of every object, which requires a head call for each.
+     */
+    private final boolean includeArtifactURI;
+
+    /**
+     * Current page of StorageMetadata, some of which may still be waiting on a head call.
      */
-    private Iterator<S3Object> currIterator;
+    private Iterator<Future<StorageMetadata>> currIterator;
 
     /**
-     * S3 Key of where to start listing the next page of objects.  Will be null for the first call.
+     * The next page of objects being listed, or null when there are no more pages.
      */
-    private String nextMarkerKey;
+    private Future<ListObjectsResponse> nextPage;
+
+    /**
+     * The element next() will return, once hasNext() has found it.
+     */
+    private StorageMetadata nextItem;
 
     /**
      * Keep a count.  Not currently used, but could be useful.
@@ -113,10 +151,90 @@ public class S3StorageMetadataIterator implements Iterator<StorageMetadata> {
 
 
     public S3StorageMetadataIterator(final S3StorageAdapter storageAdapter, final String bucket) {
+        this(storageAdapter, bucket, false);
+    }
+
+    public S3StorageMetadataIterator(final S3StorageAdapter storageAdapter, final String bucket,
+                                     final boolean includeArtifactURI) {
         this.storageAdapter = storageAdapter;
         this.bucket = bucket;
+        this.includeArtifactURI = includeArtifactURI;
+        this.nextPage = fetchPage(null);
     }
 
+    private Future<ListObjectsResponse> fetchPage(final String nextMarkerKey) {
+        return EXECUTOR_SERVICE.submit(() -> storageAdapter.listObjects(bucket, nextMarkerKey));
+    }
+
+    private void loadPage(final ListObjectsResponse listObjectsResponse) {
+        final List<S3Object> objects = listObjectsResponse.hasContents()
+                                       ? listObjectsResponse.contents() : Collections.emptyList();
+
+        // Start on the next page before working through this one.
+        if (Boolean.TRUE.equals(listObjectsResponse.isTruncated()) && !objects.isEmpty()) {
+            // Without a delimiter the server does not send the next marker, so continue from the last key.
+            final String nextMarkerKey = (listObjectsResponse.nextMarker() == null)
+                                         ? objects.get(objects.size() - 1).key()
+                                         : listObjectsResponse.nextMarker();
+            nextPage = fetchPage(nextMarkerKey);
+        } else {
+            nextPage = null;
+        }
+
+        final List<Future<StorageMetadata>> page = new ArrayList<>(objects.size());
+        for (final S3Object s3Object : objects) {
+            final URI md5 = toChecksum(s3Object.eTag());
+            if (includeArtifactURI) {
+                page.add(EXECUTOR_SERVICE.submit(() -> storageAdapter.head(bucket, s3Object.key())));
+            } else if (md5 == null) {
+                // Only for the checksum: drop the Artifact URI so every item of the listing looks the same.
+                page.add(EXECUTOR_SERVICE.submit(() -> {
+                    final StorageMetadata storageMetadata = storageAdapter.head(bucket, s3Object.key());
+                    if (storageMetadata != null) {
+                        storageMetadata.artifactURI = null;
+                    }
+                    return storageMetadata;
+                }));
+            } else {
+                final URI storageID = URI.create(String.format(S3StorageAdapter.STORAGE_ID_URI_TEMPLATE,
+                                                               s3Object.key()));
+                page.add(CompletableFuture.completedFuture(
+                        storageAdapter.toStorageMetadata(storageID, bucket, null, md5, s3Object.size())));
+            }
+        }
+        LOGGER.debug(String.format("Loaded page of %d objects from bucket %s.", page.size(), bucket));
+        currIterator = page.iterator();
+    }
+
+    /**
+     * Obtain the MD5 checksum from an ETag.  The ETag of an object uploaded in parts is not its MD5.
+     *
+     * @param eTag The ETag from the listing.
+     * @return URI of the MD5 checksum, or null if the ETag is not an MD5.
+     */
+    static URI toChecksum(final String eTag) {
+        if (eTag == null) {
+            return null;
+        }
+        final String value = eTag.replace("\"", "");
+        return MD5_ETAG_PATTERN.matcher(value).matches()
+               ? URI.create(String.format(S3StorageAdapter.CHECKSUM_URI_TEMPLATE, value.toLowerCase())) : null;
+    }
+
+    private static <T> T await(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while listing objects.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
 
     /**
      * Returns {@code true} if the iteration has more elements.
@@ -127,17 +245,18 @@ public class S3StorageMetadataIterator implements Iterator<StorageMetadata> {
      */
     @Override
     public boolean hasNext() {
-        if (currIterator == null || (!currIterator.hasNext() && StringUtil.hasLength(nextMarkerKey))) {
-            final ListObjectsResponse listObjectsResponse = storageAdapter.listObjects(bucket, nextMarkerKey);
-            if (listObjectsResponse.hasContents()) {
-                currIterator = listObjectsResponse.contents().iterator();
-                nextMarkerKey = listObjectsResponse.nextMarker();
-            } else {
-                currIterator = Collections.emptyIterator();
+        while (nextItem == null) {
+            while ((currIterator == null || !currIterator.hasNext()) && (nextPage != null)) {
+                loadPage(await(nextPage));
             }
+            if ((currIterator == null) || !currIterator.hasNext()) {
+                return false;
+            }
+            // Null for an object that is still being written.
+            nextItem = await(currIterator.next());
         }
 
-        return currIterator.hasNext();
+        return true;
     }
 
     /**
@@ -149,7 +268,11 @@ public class S3StorageMetadataIterator implements Iterator<StorageMetadata> {
      */
     @Override
     public StorageMetadata next() {
-        final StorageMetadata storageMetadata = storageAdapter.head(bucket, currIterator.next().key());
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final StorageMetadata storageMetadata = nextItem;
+        nextItem = null;
         count++;
 
         return storageMetadata;
@@ -0,0 +1,276 @@
+
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.s3;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
+import org.opencadc.inventory.storage.NewArtifact;
+import org.opencadc.inventory.storage.StorageMetadata;
+
+import ca.nrc.cadc.io.WriteException;
+import ca.nrc.cadc.net.IncorrectContentChecksumException;
+import ca.nrc.cadc.net.IncorrectContentLengthException;
+import ca.nrc.cadc.net.ResourceNotFoundException;
+import ca.nrc.cadc.util.HexUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class S3AsyncStorageAdapterTest {
+
+    @Test
+    public void getObject() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(new TestS3Client()));
+        testS3AsyncClient.payload = new byte[1000];
+        new Random(42L).nextBytes(testS3AsyncClient.payload);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        testSubject.get(new StorageLocation(URI.create("s3:mykey")), outputStream);
+
+        Assert.assertArrayEquals("Wrong bytes.", testS3AsyncClient.payload, outputStream.toByteArray());
+    }
+
+    @Test
+    public void getObjectRanges() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(new TestS3Client()));
+
+        final List<ByteRange> byteRanges = new ArrayList<>();
+        byteRanges.add(new ByteRange(4L, 4L));
+        byteRanges.add(new ByteRange(0L, 4L));
+        byteRanges.add(new ByteRange(8L, 100L));
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        testSubject.get(new StorageLocation(URI.create("s3:mykey")), outputStream, byteRanges);
+
+        Assert.assertEquals("Wrong bytes.", "TESTSOMEDATA", outputStream.toString());
+    }
+
+    @Test
+    public void getObjectNotExists() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(new TestS3Client()));
+        testS3AsyncClient.getObjectShouldFailNotFound = true;
+
+        try {
+            testSubject.get(new StorageLocation(URI.create("s3:mykey")), new ByteArrayOutputStream());
+            Assert.fail("Should throw ResourceNotFoundException.");
+        } catch (ResourceNotFoundException e) {
+            // Good.
+        }
+    }
+
+    @Test
+    public void putObject() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(testS3Client));
+
+        final byte[] data = new byte[3 * InputStreamRequestBody.CHUNK_SIZE_BYTES + 5];
+        new Random(42L).nextBytes(data);
+        final URI checksum = URI.create("md5:" + HexUtil.toHex(MessageDigest.getInstance("MD5").digest(data)));
+
+        final NewArtifact newArtifact = new NewArtifact(URI.create("cadctest:TEST/asyncobjectkey"));
+        newArtifact.contentChecksum = checksum;
+        newArtifact.contentLength = (long) data.length;
+
+        final StorageMetadata storageMetadata = testSubject.put(newArtifact, new ByteArrayInputStream(data));
+
+        Assert.assertArrayEquals("Wrong bytes.", data, testS3AsyncClient.putObjectBytes);
+        Assert.assertEquals("Wrong checksum.", checksum, storageMetadata.getContentChecksum());
+        Assert.assertEquals("Wrong length.", (long) data.length, storageMetadata.getContentLength().longValue());
+        Assert.assertEquals("Wrong recorded checksum.", checksum.getSchemeSpecificPart(),
+                            testS3AsyncClient.putObjectRequest.metadata().get("md5"));
+        Assert.assertNotNull("Should have a bucket.", storageMetadata.getStorageLocation().storageBucket);
+        Assert.assertFalse("Sync put should not have been called.", testS3Client.putObjectCalled);
+        Assert.assertTrue("Checksum was known so no tag needed.", testS3Client.objectTags.isEmpty());
+    }
+
+    @Test
+    public void putObjectChecksumFromETag() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(testS3Client));
+
+        final byte[] data = new byte[2 * InputStreamRequestBody.CHUNK_SIZE_BYTES + 7];
+        new Random(42L).nextBytes(data);
+        final URI checksum = URI.create("md5:" + HexUtil.toHex(MessageDigest.getInstance("MD5").digest(data)));
+
+        final NewArtifact newArtifact = new NewArtifact(URI.create("cadctest:TEST/asyncobjectkey"));
+        newArtifact.contentLength = (long) data.length;
+
+        final StorageMetadata storageMetadata = testSubject.put(newArtifact, new ByteArrayInputStream(data));
+
+        Assert.assertEquals("Wrong checksum.", checksum, storageMetadata.getContentChecksum());
+        Assert.assertNull("No checksum to record.", testS3AsyncClient.putObjectRequest.metadata().get("md5"));
+        Assert.assertTrue("ETag is the checksum so no tag needed.", testS3Client.objectTags.isEmpty());
+
+        // An ETag that is not an MD5 means the checksum has to be recorded.
+        testS3AsyncClient.putObjectETag = "\"" + checksum.getSchemeSpecificPart() + "-1\"";
+        testSubject.put(newArtifact, new ByteArrayInputStream(data));
+        final String key = testS3AsyncClient.putObjectRequest.key();
+        Assert.assertTrue("Checksum should have been recorded.", testS3Client.objectTags.containsKey(key));
+        Assert.assertEquals("Wrong recorded checksum.", checksum.getSchemeSpecificPart(),
+                            testS3Client.objectTags.get(key).get(0).value());
+    }
+
+    @Test
+    public void putObjectETagMismatch() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(testS3Client));
+        testS3AsyncClient.putObjectETag = "\"0123456789abcdef0123456789abcdef\"";
+
+        final NewArtifact newArtifact = new NewArtifact(URI.create("cadctest:TEST/asyncobjectkey"));
+        newArtifact.contentLength = 8L;
+
+        try {
+            testSubject.put(newArtifact, new ByteArrayInputStream("somedata".getBytes()));
+            Assert.fail("Should throw WriteException.");
+        } catch (WriteException e) {
+            Assert.assertTrue("Object should have been deleted.", testS3Client.deleteObjectCalled);
+        }
+    }
+
+    @Test
+    public void putObjectServerFailure() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final S3StorageAdapter s3StorageAdapter = new S3StorageAdapter(new TestS3Client());
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient, s3StorageAdapter);
+
+        final NewArtifact newArtifact = new NewArtifact(URI.create("cadctest:TEST/asyncobjectkey"));
+        newArtifact.contentLength = 8L;
+
+        testS3AsyncClient.putObjectErrorCode = "NoSuchBucket";
+        try {
+            testSubject.put(newArtifact, new ByteArrayInputStream("somedata".getBytes()));
+            Assert.fail("Should throw WriteException.");
+        } catch (WriteException e) {
+            Assert.assertTrue("Bucket should be forgotten.", s3StorageAdapter.knownBuckets.isEmpty());
+        }
+
+        // Not reported as a short stream although the body was never read.
+        testS3AsyncClient.putObjectErrorCode = "BadDigest";
+        try {
+            testSubject.put(newArtifact, new ByteArrayInputStream("somedata".getBytes()));
+            Assert.fail("Should throw IncorrectContentChecksumException.");
+        } catch (IncorrectContentChecksumException e) {
+            // Good.
+        }
+    }
+
+    @Test
+    public void putObjectShortStream() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(new TestS3Client()));
+
+        final NewArtifact newArtifact = new NewArtifact(URI.create("cadctest:TEST/asyncobjectkey"));
+        newArtifact.contentLength = 100L;
+
+        try {
+            testSubject.put(newArtifact, new ByteArrayInputStream(new byte[10]));
+            Assert.fail("Should throw IncorrectContentLengthException.");
+        } catch (IncorrectContentLengthException e) {
+            // Good.
+        }
+    }
+
+    @Test
+    public void putObjectUnknownLength() throws Exception {
+        final TestS3AsyncClient testS3AsyncClient = new TestS3AsyncClient();
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3AsyncStorageAdapter testSubject = new S3AsyncStorageAdapter(testS3AsyncClient,
+                                                                            new S3StorageAdapter(testS3Client));
+
+        final NewArtifact newArtifact = new NewArtifact(URI.create("cadctest:TEST/asyncobjectkey"));
+        final StorageMetadata storageMetadata = testSubject.put(newArtifact,
+                                                                new ByteArrayInputStream("somedata".getBytes()));
+
+        Assert.assertTrue("Sync put should have been called.", testS3Client.putObjectCalled);
+        Assert.assertNull("Async put should not have been called.", testS3AsyncClient.putObjectBytes);
+        Assert.assertEquals("Wrong length.", 8L, storageMetadata.getContentLength().longValue());
+    }
+}
@@ -73,16 +73,34 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.opencadc.inventory.InventoryUtil;
 import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
 import org.opencadc.inventory.storage.NewArtifact;
+import org.opencadc.inventory.storage.StorageEngageException;
 import org.opencadc.inventory.storage.StorageMetadata;
 
+import ca.nrc.cadc.io.WriteException;
+import ca.nrc.cadc.net.IncorrectContentChecksumException;
 import ca.nrc.cadc.net.ResourceNotFoundException;
+import ca.nrc.cadc.util.HexUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
 
 import static org.opencadc.inventory.storage.s3.S3StorageAdapter.*;
 
@@ -121,6 +139,40 @@ public class S3StorageAdapterTest {
         Assert.assertFalse("Create bucket should not have been called.", testS3Client.createBucketCalled);
     }
 
+    @Test
+    public void ensureBucketKnown() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        final URI storageID = URI.create("test:myobjectkey");
+        final String expectedBucket = InventoryUtil.computeBucket(storageID, 5);
+
+        testS3Client.headBucketShouldFail = true;
+        Assert.assertEquals("Wrong bucket name.", expectedBucket, testSubject.ensureBucket(storageID));
+        Assert.assertTrue("Create bucket should have been called.", testS3Client.createBucketCalled);
+
+        // Second time around the bucket is known.
+        testS3Client.headBucketCalled = false;
+        testS3Client.createBucketCalled = false;
+        Assert.assertEquals("Wrong bucket name.", expectedBucket, testSubject.ensureBucket(storageID));
+        Assert.assertFalse("Head bucket should not have been called.", testS3Client.headBucketCalled);
+        Assert.assertFalse("Create bucket should not have been called.", testS3Client.createBucketCalled);
+    }
+
+    @Test
+    public void ensureBucketPrewarmed() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final URI storageID = URI.create("test:myobjectkey");
+        final String expectedBucket = InventoryUtil.computeBucket(storageID, 5);
+        testS3Client.existingBuckets.add(expectedBucket);
+
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        testSubject.prewarmBuckets();
+
+        Assert.assertEquals("Wrong bucket name.", expectedBucket, testSubject.ensureBucket(storageID));
+        Assert.assertFalse("Head bucket should not have been called.", testS3Client.headBucketCalled);
+        Assert.assertFalse("Create bucket should not have been called.", testS3Client.createBucketCalled);
+    }
+
     @Test
     public void putObjectBucketCreate() throws Exception {
         final TestS3Client testS3Client = new TestS3Client();
@@ -195,6 +247,103 @@ public class S3StorageAdapterTest {
                             resultStorageMetadata.getStorageLocation().getStorageID().toASCIIString());
     }
 
+    @Test
+    public void putObjectMultipart() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final URI storageID = URI.create("test:mynewgeneratedkey");
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client) {
+            @Override
+            URI generateStorageID() {
+                return storageID;
+            }
+        };
+        testSubject.multipartThreshold = 0L;
+        testSubject.multipartPartSize = 1024L;
+        testSubject.multipartThreads = 3;
+
+        final byte[] data = new byte[10 * 1024 + 17];
+        new Random(42L).nextBytes(data);
+        final URI expectedChecksum = URI.create(
+                "md5:" + HexUtil.toHex(MessageDigest.getInstance("MD5").digest(data)));
+
+        // Unknown length and checksum, as for a chunked upload.
+        final NewArtifact newArtifact = new NewArtifact(
+                URI.create(String.format(ARTIFACT_URI_TEMPLATE, "TEST", "multipartobjectkey")));
+
+        final StorageMetadata resultStorageMetadata = testSubject.put(newArtifact, new ByteArrayInputStream(data));
+
+        Assert.assertTrue("Create multipart upload should have been called.",
+                          testS3Client.createMultipartUploadCalled);
+        Assert.assertTrue("Complete multipart upload should have been called.",
+                          testS3Client.completeMultipartUploadCalled);
+        Assert.assertFalse("Abort multipart upload should not have been called.",
+                           testS3Client.abortMultipartUploadCalled);
+        Assert.assertFalse("Put Object should not have been called.", testS3Client.putObjectCalled);
+        Assert.assertEquals("Wrong part count.", 11, testS3Client.uploadedParts.size());
+        Assert.assertArrayEquals("Wrong object content.", data, testS3Client.completedObject);
+        Assert.assertEquals("Wrong content length.", (long) data.length,
+                            resultStorageMetadata.getContentLength().longValue());
+        Assert.assertEquals("Wrong checksum.", expectedChecksum, resultStorageMetadata.getContentChecksum());
+        final String key = resultStorageMetadata.getStorageLocation().getStorageID().getSchemeSpecificPart();
+        Assert.assertEquals("Wrong recorded checksum.", "md5",
+                            testS3Client.objectTags.get(key).get(0).key());
+        Assert.assertEquals("Wrong recorded checksum.", expectedChecksum.getSchemeSpecificPart(),
+                            testS3Client.objectTags.get(key).get(0).value());
+    }
+
+    @Test
+    public void putObjectMultipartTagFailure() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        testSubject.multipartThreshold = 0L;
+        testSubject.multipartPartSize = 1024L;
+        testS3Client.putObjectTaggingShouldFail = true;
+
+        final byte[] data = new byte[10 * 1024 + 17];
+        new Random(42L).nextBytes(data);
+
+        final NewArtifact newArtifact = new NewArtifact(
+                URI.create(String.format(ARTIFACT_URI_TEMPLATE, "TEST", "multipartobjectkey")));
+
+        try {
+            testSubject.put(newArtifact, new ByteArrayInputStream(data));
+            Assert.fail("Should fail to record the checksum.");
+        } catch (WriteException e) {
+            // Good.
+        }
+        Assert.assertTrue("Complete multipart upload should have been called.",
+                          testS3Client.completeMultipartUploadCalled);
+        Assert.assertTrue("Unverifiable object should have been deleted.", testS3Client.deleteObjectCalled);
+    }
+
+    @Test
+    public void putObjectMultipartBadChecksum() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        testSubject.multipartThreshold = 0L;
+        testSubject.multipartPartSize = 1024L;
+
+        final byte[] data = new byte[4 * 1024 + 1];
+        new Random(42L).nextBytes(data);
+
+        final NewArtifact newArtifact = new NewArtifact(
+                URI.create(String.format(ARTIFACT_URI_TEMPLATE, "TEST", "multipartobjectkey")));
+        newArtifact.contentChecksum = URI.create("md5:d41d8cd98f00b204e9800998ecf8427e");
+        newArtifact.contentLength = (long) data.length;
+
+        try {
+            testSubject.put(newArtifact, new ByteArrayInputStream(data));
+            Assert.fail("Should throw IncorrectContentChecksumException.");
+        } catch (IncorrectContentChecksumException e) {
+            // Good.
+        }
+
+        Assert.assertTrue("Abort multipart upload should have been called.",
+                          testS3Client.abortMultipartUploadCalled);
+        Assert.assertFalse("Complete multipart upload should not have been called.",
+                           testS3Client.completeMultipartUploadCalled);
+    }
+
     @Test
     public void getObjectExists() throws Exception {
         final TestS3Client testS3Client = new TestS3Client();
@@ -210,6 +359,27 @@ public class S3StorageAdapterTest {
         Assert.assertEquals("Wrong payload.", TestS3Client.DEFAULT_GET_PAYLOAD, outputStream.toString());
     }
 
+    @Test
+    public void getObjectRanges() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final String objectID = "getthiskey";
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        final StorageLocation storageLocation = new StorageLocation(URI.create(
+                String.format(STORAGE_ID_URI_TEMPLATE, objectID)));
+
+        // SOMETESTDATA
+        final List<ByteRange> byteRanges = new ArrayList<>();
+        byteRanges.add(new ByteRange(4L, 4L));
+        byteRanges.add(new ByteRange(0L, 4L));
+        byteRanges.add(new ByteRange(8L, 10L));
+
+        final OutputStream outputStream = new ByteArrayOutputStream();
+        testSubject.get(storageLocation, outputStream, byteRanges);
+
+        Assert.assertTrue("Get Object should have been called.", testS3Client.getObjectCalled);
+        Assert.assertEquals("Wrong payload.", "TESTSOMEDATA", outputStream.toString());
+    }
+
     @Test
     public void getObjectNotExists() throws Exception {
         final TestS3Client testS3Client = new TestS3Client();
@@ -230,6 +400,68 @@ public class S3StorageAdapterTest {
         }
     }
 
+    @Test
+    public void iteratorFromListing() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final List<String> markers = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger headCount = new AtomicInteger(0);
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client) {
+            @Override
+            ListObjectsResponse listObjects(final String storageBucket, final String nextMarkerKey) {
+                markers.add(nextMarkerKey);
+                if (nextMarkerKey == null) {
+                    return ListObjectsResponse.builder().isTruncated(true).contents(
+                            S3Object.builder().key("a").size(1L).eTag("\"0123456789ABCDEF0123456789abcdef\"").build(),
+                            S3Object.builder().key("b").size(2L).eTag("\"fedcba9876543210fedcba9876543210\"").build())
+                            .build();
+                } else {
+                    // Uploaded in parts, so the ETag is not the MD5.
+                    return ListObjectsResponse.builder().isTruncated(false).contents(
+                            S3Object.builder().key("c").size(3L).eTag("\"fedcba9876543210fedcba9876543210-2\"").build())
+                            .build();
+                }
+            }
+
+            @Override
+            StorageMetadata head(final String bucket, final String key) {
+                headCount.incrementAndGet();
+                return super.head(bucket, key);
+            }
+        };
+
+        final Iterator<StorageMetadata> iterator = testSubject.iterator("bucket");
+        final List<StorageMetadata> results = new ArrayList<>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        Assert.assertEquals("Wrong markers.", Arrays.asList(null, "b"), markers);
+        Assert.assertEquals("Wrong count.", 3, results.size());
+        Assert.assertEquals("Only the multipart object should need a head call.", 1, headCount.get());
+        Assert.assertEquals("Wrong storage ID.", URI.create("s3:a"), results.get(0).getStorageLocation().getStorageID());
+        Assert.assertEquals("Wrong checksum.", URI.create("md5:0123456789abcdef0123456789abcdef"),
+                            results.get(0).getContentChecksum());
+        Assert.assertEquals("Wrong length.", 2L, results.get(1).getContentLength().longValue());
+        Assert.assertEquals("Wrong bucket.", "bucket", results.get(1).getStorageLocation().storageBucket);
+        Assert.assertEquals("Wrong checksum.", URI.create("md5:MD5CHECKSUM"), results.get(2).getContentChecksum());
+        Assert.assertTrue("Head object should have been called.", testS3Client.headObjectCalled);
+        for (final StorageMetadata storageMetadata : results) {
+            Assert.assertNull("Artifact URI should not be set.", storageMetadata.artifactURI);
+        }
+
+        // Artifact URI requested: every object is headed.
+        headCount.set(0);
+        final Iterator<StorageMetadata> uriIterator = new S3StorageMetadataIterator(testSubject, "bucket", true);
+        final List<StorageMetadata> uriResults = new ArrayList<>();
+        while (uriIterator.hasNext()) {
+            uriResults.add(uriIterator.next());
+        }
+        Assert.assertEquals("Wrong count.", 3, uriResults.size());
+        Assert.assertEquals("Every object should need a head call.", 3, headCount.get());
+        Assert.assertEquals("Wrong artifact URI.", URI.create("cadc:bucket/a"), uriResults.get(0).artifactURI);
+        Assert.assertEquals("Wrong artifact URI.", URI.create("cadc:bucket/c"), uriResults.get(2).artifactURI);
+    }
+
     @Test
     public void deleteObjectExists() throws Exception {
         final TestS3Client testS3Client = new TestS3Client();
@@ -260,4 +492,109 @@ public class S3StorageAdapterTest {
             // Good.
         }
     }
+
+    @Test
+    public void deleteObjectsBatched() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        final List<StorageLocation> storageLocations = new ArrayList<>();
+        for (int i = 0; i < MAX_DELETE_KEYS + 10; i++) {
+            final StorageLocation storageLocation = new StorageLocation(URI.create(
+                    String.format(STORAGE_ID_URI_TEMPLATE, "deletekey" + i)));
+            storageLocation.storageBucket = (i % 2 == 0) ? "abc" : "def";
+            storageLocations.add(storageLocation);
+        }
+        testS3Client.missingKeys.add("deletekey7");
+
+        final Map<StorageLocation, Exception> failures = testSubject.delete(storageLocations);
+
+        Assert.assertEquals("Wrong failure count.", 1, failures.size());
+        Assert.assertTrue("Wrong failure.",
+                          failures.get(storageLocations.get(7)) instanceof ResourceNotFoundException);
+
+        // Two buckets of 505 keys each, so one request per bucket.
+        Assert.assertEquals("Wrong request count.", 2, testS3Client.deleteObjectsRequests.size());
+
+        final List<StorageLocation> oneBucket = new ArrayList<>();
+        for (final StorageLocation storageLocation : storageLocations) {
+            storageLocation.storageBucket = "abc";
+            oneBucket.add(storageLocation);
+        }
+        testS3Client.deleteObjectsRequests.clear();
+        Assert.assertEquals("Wrong failure count.", 1, testSubject.delete(oneBucket).size());
+        Assert.assertEquals("Wrong request count.", 2, testS3Client.deleteObjectsRequests.size());
+        Assert.assertEquals("Wrong batch size.", MAX_DELETE_KEYS,
+                            testS3Client.deleteObjectsRequests.get(0).delete().objects().size());
+    }
+
+    @Test
+    public void headObjectChecksumFromETag() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        final StorageLocation storageLocation = new StorageLocation(URI.create("s3:etagkey"));
+        storageLocation.storageBucket = "abc";
+
+        testS3Client.headObjectETag = "\"0123456789ABCDEF0123456789abcdef\"";
+        Assert.assertEquals("Wrong checksum.", URI.create("md5:0123456789abcdef0123456789abcdef"),
+                            testSubject.head(storageLocation).getContentChecksum());
+
+        // Uploaded in parts, with the checksum recorded as a tag.
+        testS3Client.headObjectETag = "\"0123456789abcdef0123456789abcdef-2\"";
+        testS3Client.objectTags.put("etagkey", Collections.singletonList(
+                Tag.builder().key("md5").value("fedcba9876543210fedcba9876543210").build()));
+        Assert.assertEquals("Wrong checksum.", URI.create("md5:fedcba9876543210fedcba9876543210"),
+                            testSubject.head(storageLocation).getContentChecksum());
+
+        // Still being written.
+        testS3Client.objectTags.clear();
+        try {
+            testSubject.head(storageLocation);
+            Assert.fail("Should throw ResourceNotFoundException.");
+        } catch (ResourceNotFoundException e) {
+            // Good.
+        }
+    }
+
+    @Test
+    public void headObjects() throws Exception {
+        final TestS3Client testS3Client = new TestS3Client();
+        final S3StorageAdapter testSubject = new S3StorageAdapter(testS3Client);
+        testSubject.headThreads = 3;
+        final List<StorageLocation> storageLocations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final StorageLocation storageLocation = new StorageLocation(URI.create(
+                    String.format(STORAGE_ID_URI_TEMPLATE, "headkey" + i)));
+            storageLocation.storageBucket = "abc";
+            storageLocations.add(storageLocation);
+        }
+        testS3Client.missingKeys.add("headkey3");
+        testS3Client.failingKeys.add("headkey5");
+
+        final StorageMetadata storageMetadata = testSubject.head(storageLocations.get(0));
+        Assert.assertTrue("Head Object should have been called.", testS3Client.headObjectCalled);
+        Assert.assertEquals("Wrong checksum.", URI.create("md5:MD5CHECKSUM"), storageMetadata.getContentChecksum());
+        Assert.assertEquals("Wrong length.", Long.valueOf(88L), storageMetadata.getContentLength());
+        Assert.assertEquals("Wrong artifact URI.", URI.create("cadc:abc/headkey0"), storageMetadata.artifactURI);
+
+        try {
+            testSubject.head(storageLocations.get(3));
+            Assert.fail("Should throw ResourceNotFoundException.");
+        } catch (ResourceNotFoundException e) {
+            // Good.
+        }
+
+        final Map<StorageLocation, StorageMetadata> found = testSubject.head(storageLocations);
+        Assert.assertEquals("Wrong found count.", 8, found.size());
+        Assert.assertFalse("Should not be found.", found.containsKey(storageLocations.get(3)));
+        Assert.assertFalse("Failed head should be skipped.", found.containsKey(storageLocations.get(5)));
+        Assert.assertEquals("Wrong artifact URI.", URI.create("cadc:abc/headkey9"),
+                            found.get(storageLocations.get(9)).artifactURI);
+
+        try {
+            testSubject.head(Collections.singletonList(storageLocations.get(5)));
+            Assert.fail("Should throw StorageEngageException.");
+        } catch (StorageEngageException e) {
+            // Good.
+        }
+    }
 }
@@ -0,0 +1,262 @@
+
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.s3;
+
+import ca.nrc.cadc.util.HexUtil;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Stand-in for an S3 endpoint behind the S3AsyncClient.  Bodies are produced and consumed on other threads, in small
+ * chunks and only on demand, as the Netty based client would.
+ */
+public class TestS3AsyncClient implements S3AsyncClient {
+
+    static final int CHUNK_SIZE = 4;
+
+    byte[] payload = TestS3Client.DEFAULT_GET_PAYLOAD.getBytes();
+    boolean getObjectShouldFailNotFound = false;
+
+    PutObjectRequest putObjectRequest;
+    byte[] putObjectBytes;
+
+    // If set, putObject reports this ETag instead of the MD5 of the bytes received.
+    String putObjectETag = null;
+
+    // If set, putObject fails with this error code before reading the body.
+    String putObjectErrorCode = null;
+
+    // One thread per client serializes the signals to each subscriber.
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "test-s3-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public String serviceName() {
+        return "Test S3 Async";
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> getObject(
+            GetObjectRequest getObjectRequest,
+            AsyncResponseTransformer<GetObjectResponse, ReturnT> asyncResponseTransformer)
+            throws NoSuchKeyException, AwsServiceException, SdkClientException, S3Exception {
+        final CompletableFuture<ReturnT> future = asyncResponseTransformer.prepare();
+
+        if (getObjectShouldFailNotFound) {
+            final NoSuchKeyException noSuchKeyException = NoSuchKeyException.builder().build();
+            executorService.submit(() -> asyncResponseTransformer.exceptionOccurred(noSuchKeyException));
+            final CompletableFuture<ReturnT> failed = new CompletableFuture<>();
+            failed.completeExceptionally(noSuchKeyException);
+            return failed;
+        }
+
+        byte[] body = payload;
+        if (getObjectRequest.range() != null) {
+            // bytes=first-last
+            final String[] firstLast = getObjectRequest.range().substring("bytes=".length()).split("-");
+            final int first = Integer.parseInt(firstLast[0]);
+            final int last = Math.min(Integer.parseInt(firstLast[1]), payload.length - 1);
+            body = Arrays.copyOfRange(payload, first, last + 1);
+        }
+
+        final byte[] responseBody = body;
+        executorService.submit(() -> {
+            asyncResponseTransformer.onResponse(
+                    GetObjectResponse.builder().contentLength((long) responseBody.length).build());
+            asyncResponseTransformer.onStream(SdkPublisher.adapt(new ChunkPublisher(responseBody)));
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest putObjectRequest,
+                                                         AsyncRequestBody requestBody)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        final CompletableFuture<PutObjectResponse> future = new CompletableFuture<>();
+        if (putObjectErrorCode != null) {
+            future.completeExceptionally(
+                    S3Exception.builder().awsErrorDetails(AwsErrorDetails.builder().errorCode(putObjectErrorCode)
+                                                                         .build())
+                               .message(putObjectErrorCode).build());
+            return future;
+        }
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        executorService.submit(() -> requestBody.subscribe(new Subscriber<ByteBuffer>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(2);
+            }
+
+            @Override
+            public void onNext(ByteBuffer byteBuffer) {
+                final byte[] bytes = new byte[byteBuffer.remaining()];
+                byteBuffer.get(bytes);
+                received.write(bytes, 0, bytes.length);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                TestS3AsyncClient.this.putObjectRequest = putObjectRequest;
+                putObjectBytes = received.toByteArray();
+                final String eTag = (putObjectETag == null) ? "\"" + md5Hex(putObjectBytes) + "\"" : putObjectETag;
+                future.complete(PutObjectResponse.builder().eTag(eTag).build());
+            }
+        }));
+        return future;
+    }
+
+    private static String md5Hex(final byte[] bytes) {
+        try {
+            return HexUtil.toHex(MessageDigest.getInstance("MD5").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Publishes the bytes in chunks of CHUNK_SIZE as they are requested.
+     */
+    private class ChunkPublisher implements Publisher<ByteBuffer> {
+        private final byte[] bytes;
+        private int offset = 0;
+        private boolean cancelled = false;
+
+        ChunkPublisher(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    executorService.submit(() -> {
+                        for (long i = 0; i < n && !cancelled && offset < bytes.length; i++) {
+                            final int length = Math.min(CHUNK_SIZE, bytes.length - offset);
+                            subscriber.onNext(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+                            offset += length;
+                        }
+                        if (!cancelled && offset == bytes.length) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                        }
+                    });
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
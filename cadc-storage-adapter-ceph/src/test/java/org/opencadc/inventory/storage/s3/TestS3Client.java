@@ -77,28 +77,56 @@ import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.http.Abortable;
 import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.BucketAlreadyExistsException;
 import software.amazon.awssdk.services.s3.model.BucketAlreadyOwnedByYouException;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
 import software.amazon.awssdk.services.s3.model.CreateBucketResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
 import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListBucketsResponse;
 import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
 import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 @NotThreadSafe
@@ -115,6 +143,33 @@ public class TestS3Client implements S3Client {
     boolean getObjectCalled = false;
     boolean getObjectShouldFailNotFound = false;
     boolean headBucketShouldFail = false;
+    boolean createMultipartUploadCalled = false;
+    boolean completeMultipartUploadCalled = false;
+    boolean abortMultipartUploadCalled = false;
+    boolean putObjectTaggingShouldFail = false;
+
+    // If set, headObject reports this ETag and no md5 metadata.
+    String headObjectETag = null;
+
+    // DeleteObjects requests received, and keys to report as missing.
+    final List<DeleteObjectsRequest> deleteObjectsRequests = new ArrayList<>();
+    final List<String> missingKeys = new ArrayList<>();
+
+    // Keys whose headObject fails with a server error.
+    final List<String> failingKeys = new ArrayList<>();
+
+    // Bucket names reported by listBuckets.
+    final List<String> existingBuckets = new ArrayList<>();
+
+    // Uploaded parts by part number, and the object assembled from them on completion.
+    final Map<Integer, byte[]> uploadedParts = new ConcurrentHashMap<>();
+    byte[] completedObject;
+
+    // Metadata of the last multipart upload created.
+    Map<String, String> multipartMetadata;
+
+    // Tags set on each key.
+    final Map<String, List<Tag>> objectTags = new ConcurrentHashMap<>();
 
     @Override
     public String serviceName() {
@@ -144,6 +199,15 @@ public class TestS3Client implements S3Client {
         return null;
     }
 
+    @Override
+    public ListBucketsResponse listBuckets() throws AwsServiceException, SdkClientException, S3Exception {
+        final List<Bucket> buckets = new ArrayList<>();
+        for (final String name : existingBuckets) {
+            buckets.add(Bucket.builder().name(name).build());
+        }
+        return ListBucketsResponse.builder().buckets(buckets).build();
+    }
+
     @Override
     public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody)
             throws AwsServiceException, SdkClientException, S3Exception {
@@ -151,6 +215,75 @@ public class TestS3Client implements S3Client {
         return null;
     }
 
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(
+            CreateMultipartUploadRequest createMultipartUploadRequest)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        createMultipartUploadCalled = true;
+        multipartMetadata = createMultipartUploadRequest.metadata();
+        return CreateMultipartUploadResponse.builder().uploadId("TESTUPLOADID").build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest uploadPartRequest, RequestBody requestBody)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final InputStream inputStream = requestBody.contentStreamProvider().newStream()) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        uploadedParts.put(uploadPartRequest.partNumber(), bytes.toByteArray());
+        return UploadPartResponse.builder().eTag("etag-" + uploadPartRequest.partNumber()).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(
+            CompleteMultipartUploadRequest completeMultipartUploadRequest)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        completeMultipartUploadCalled = true;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int expectedPartNumber = 1;
+        for (final CompletedPart part : completeMultipartUploadRequest.multipartUpload().parts()) {
+            if (part.partNumber() != expectedPartNumber++) {
+                throw S3Exception.builder().message("Parts out of order.").build();
+            }
+            final byte[] partBytes = uploadedParts.get(part.partNumber());
+            bytes.write(partBytes, 0, partBytes.length);
+        }
+        completedObject = bytes.toByteArray();
+        return CompleteMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest abortMultipartUploadRequest)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        abortMultipartUploadCalled = true;
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public PutObjectTaggingResponse putObjectTagging(PutObjectTaggingRequest putObjectTaggingRequest)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        if (putObjectTaggingShouldFail) {
+            throw S3Exception.builder().statusCode(500).message("Tagging failed.").build();
+        }
+        objectTags.put(putObjectTaggingRequest.key(), putObjectTaggingRequest.tagging().tagSet());
+        return PutObjectTaggingResponse.builder().build();
+    }
+
+    @Override
+    public GetObjectTaggingResponse getObjectTagging(GetObjectTaggingRequest getObjectTaggingRequest)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        return GetObjectTaggingResponse.builder()
+                .tagSet(objectTags.getOrDefault(getObjectTaggingRequest.key(), new ArrayList<>()))
+                .build();
+    }
+
     @Override
     public DeleteObjectResponse deleteObject(DeleteObjectRequest deleteObjectRequest)
             throws AwsServiceException, SdkClientException, S3Exception {
@@ -160,6 +293,20 @@ public class TestS3Client implements S3Client {
                                               : DeleteObjectResponse.builder().deleteMarker(Boolean.TRUE).build();
     }
 
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
+            throws AwsServiceException, SdkClientException, S3Exception {
+        deleteObjectsRequests.add(deleteObjectsRequest);
+        final List<S3Error> errors = new ArrayList<>();
+        for (final ObjectIdentifier objectIdentifier : deleteObjectsRequest.delete().objects()) {
+            if (missingKeys.contains(objectIdentifier.key())) {
+                errors.add(S3Error.builder().key(objectIdentifier.key()).code("NoSuchKey").message("Not found.")
+                                  .build());
+            }
+        }
+        return DeleteObjectsResponse.builder().errors(errors).build();
+    }
+
     @Override
     public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest)
             throws NoSuchKeyException, AwsServiceException, SdkClientException, S3Exception {
@@ -169,9 +316,18 @@ public class TestS3Client implements S3Client {
             throw NoSuchKeyException.builder().build();
         }
 
+        byte[] payload = DEFAULT_GET_PAYLOAD.getBytes();
+        if (getObjectRequest.range() != null) {
+            // bytes=first-last
+            final String[] firstLast = getObjectRequest.range().substring("bytes=".length()).split("-");
+            final int first = Integer.parseInt(firstLast[0]);
+            final int last = Math.min(Integer.parseInt(firstLast[1]), payload.length - 1);
+            payload = Arrays.copyOfRange(payload, first, last + 1);
+        }
+
         final GetObjectResponse getObjectResponse = GetObjectResponse.builder().contentLength(88L).build();
         final AbortableInputStream abortableInputStream =
-                AbortableInputStream.create(new ByteArrayInputStream(DEFAULT_GET_PAYLOAD.getBytes()));
+                AbortableInputStream.create(new ByteArrayInputStream(payload));
         return new ResponseInputStream<>(getObjectResponse, abortableInputStream);
     }
 
@@ -180,11 +336,20 @@ public class TestS3Client implements S3Client {
             throws NoSuchKeyException, AwsServiceException, SdkClientException, S3Exception {
         headObjectCalled = true;
 
+        if (missingKeys.contains(headObjectRequest.key())) {
+            throw NoSuchKeyException.builder().statusCode(404).message("Not found.").build();
+        }
+        if (failingKeys.contains(headObjectRequest.key())) {
+            throw S3Exception.builder().statusCode(500).message("Server error.").build();
+        }
+
         final Map<String, String> metadata = new HashMap<>();
 
         metadata.put("uri", String.format("cadc:%s/%s", headObjectRequest.bucket(), headObjectRequest.key()));
-        metadata.put("md5", "MD5CHECKSUM");
+        if (headObjectETag == null) {
+            metadata.put("md5", "MD5CHECKSUM");
+        }
 
-        return HeadObjectResponse.builder().metadata(metadata).contentLength(88L).build();
+        return HeadObjectResponse.builder().metadata(metadata).eTag(headObjectETag).contentLength(88L).build();
     }
 }
@@ -67,29 +67,32 @@
 
 package org.opencadc.inventory.storage.fs;
 
-import ca.nrc.cadc.util.HexUtil;
-
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.DigestInputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.EmptyStackException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.Stack;
-import java.util.stream.Stream;
+import java.util.NoSuchElementException;
 
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.InventoryUtil;
 import org.opencadc.inventory.StorageLocation;
 import org.opencadc.inventory.storage.StorageMetadata;
+import org.opencadc.inventory.storage.checksum.ChecksumAlgorithm;
+import org.opencadc.inventory.storage.checksum.DigestPool;
 
 /**
- * An iterator of files within a file system.
+ * An iterator of files within a file system. Directories are traversed depth-first
+ * with an explicit stack of open directory streams so the depth of the tree does not
+ * affect the call stack, and the attributes of each entry are read once.
  * 
  * @author majorb
  */
@@ -97,9 +100,12 @@ public class FileSystemIterator implements Iterator<StorageMetadata> {
     
     private static final Logger log = Logger.getLogger(FileSystemIterator.class);
     
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+    
     private PathItem next = null;
-    Stack<StackItem> stack;
+    Deque<StackItem> stack;
     private String fixedParentDir;
+    private boolean verifyChecksums;
 
     /**
      * FileSystemIterator constructor.
@@ -111,24 +117,32 @@ public class FileSystemIterator implements Iterator<StorageMetadata> {
      * @throws IOException If there is a problem with file-system interaction.
      */
     public FileSystemIterator(Path dir, int ignoreDepth, String fixedParentDir) throws IOException {
+        this(dir, ignoreDepth, fixedParentDir, false);
+    }
+    
+    /**
+     * FileSystemIterator constructor.
+     * 
+     * @param dir The directory to iterate
+     * @param ignoreDepth The depth of directories to navigate until non-bucket
+     *     directories are seen.
+     * @param fixedParentDir A path to add to the start of all returned files.
+     * @param verifyChecksums If true, always compute checksums from the file content
+     *     instead of using the checksum recorded when the file was written.
+     * @throws IOException If there is a problem with file-system interaction.
+     */
+    public FileSystemIterator(Path dir, int ignoreDepth, String fixedParentDir, boolean verifyChecksums)
+        throws IOException {
         InventoryUtil.assertNotNull(FileSystemIterator.class, "dir", dir);
         if (!Files.isDirectory(dir)) {
             throw new IllegalArgumentException("not a directory: " + dir);
         }
-        stack = new Stack<StackItem>();
+        stack = new ArrayDeque<StackItem>();
         this.fixedParentDir = fixedParentDir;
+        this.verifyChecksums = verifyChecksums;
         
-        StackItem item = new StackItem();
-        item.stream = Files.list(dir);;
-        item.iterator = item.stream.iterator();
-        item.parentDir = "";
-        item.ignoreDepth = ignoreDepth;
-        
-        log.debug("bucket depth: " + item.ignoreDepth);
-        log.debug("parentDir: " + item.parentDir);
         log.debug("entering directory [physical][logical]: [" + dir + "][]");
-        
-        stack.push(item);
+        stack.push(new StackItem(dir, "", ignoreDepth));
     }
     
     /**
@@ -137,27 +151,29 @@ public class FileSystemIterator implements Iterator<StorageMetadata> {
      */
     @Override
     public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
         try {
-            StackItem currentStackItem = stack.peek();
-            Iterator<Path> currentIterator = currentStackItem.iterator;
-            if (currentIterator.hasNext()) {
-                Path nextPath = currentIterator.next();
-                if (Files.isDirectory(nextPath)) {
-                    StackItem item = new StackItem();
-                    log.debug("bucket depth: " + currentStackItem.ignoreDepth);
-                    log.debug("parentDir: " + currentStackItem.parentDir);
+            while (!stack.isEmpty()) {
+                StackItem currentStackItem = stack.peek();
+                if (!currentStackItem.iterator.hasNext()) {
+                    log.debug("completed directory listing");
+                    stack.pop().stream.close();
+                    continue;
+                }
+                Path nextPath = currentStackItem.iterator.next();
+                BasicFileAttributes attrs = Files.readAttributes(nextPath, BasicFileAttributes.class);
+                if (attrs.isDirectory()) {
+                    StackItem item;
                     if (currentStackItem.ignoreDepth > 0) {
-                        item.ignoreDepth = currentStackItem.ignoreDepth - 1;
-                        item.parentDir = currentStackItem.parentDir;
+                        item = new StackItem(nextPath, currentStackItem.parentDir, currentStackItem.ignoreDepth - 1);
                     } else {
                         String parentDir = currentStackItem.parentDir + nextPath.getFileName() + "/";
-                        item.parentDir = parentDir;
+                        item = new StackItem(nextPath, parentDir, 0);
                     }
                     log.debug("entering directory [physical][logical]: [" + nextPath + "][" + item.parentDir + "]");
-                    item.stream = Files.list(nextPath);;
-                    item.iterator = item.stream.iterator();
                     stack.push(item);
-                    return this.hasNext();
                 } else {
                     next = new PathItem();
                     next.pathAndFileName = currentStackItem.parentDir + nextPath.getFileName();
@@ -165,16 +181,11 @@ public class FileSystemIterator implements Iterator<StorageMetadata> {
                         next.pathAndFileName = fixedParentDir + File.separator + next.pathAndFileName;
                     }
                     next.path = nextPath;
+                    next.attrs = attrs;
                     return true;
                 }
-            } else {
-                log.debug("completed directory listing");
-                StackItem item = stack.pop();
-                item.stream.close();
-                return this.hasNext();
             }
-        } catch (EmptyStackException e) {
-            log.debug("no more iterators, done");
+            log.debug("no more directories, done");
             return false;
         } catch (IOException e) {
             throw new IllegalStateException("io exception: " + e.getMessage(), e);
@@ -187,14 +198,16 @@ public class FileSystemIterator implements Iterator<StorageMetadata> {
      */
     @Override
     public StorageMetadata next() {
-        if (next == null) {
-            throw new IllegalStateException("No more elements");
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more elements");
         }
-        URI storageID = URI.create(next.pathAndFileName);
+        PathItem item = next;
+        next = null;
+        URI storageID = URI.create(item.pathAndFileName);
         StorageLocation storageLocation = new StorageLocation(storageID);
         try {
-            URI checksum = createMD5Checksum(next.path);
-            long length = Files.size(next.path);
+            long length = item.attrs.size();
+            URI checksum = getChecksum(item.path, length, item.attrs.lastModifiedTime(), verifyChecksums);
             StorageMetadata meta = new StorageMetadata(storageLocation, checksum, length);
             meta.artifactURI = storageID;
             return meta;
@@ -203,31 +216,63 @@ public class FileSystemIterator implements Iterator<StorageMetadata> {
         }
     }
     
-    private class StackItem {
-        Stream<Path> stream;
+    private static class StackItem {
+        DirectoryStream<Path> stream;
         Iterator<Path> iterator;
         String parentDir;
         int ignoreDepth;
+        
+        StackItem(Path dir, String parentDir, int ignoreDepth) throws IOException {
+            this.stream = Files.newDirectoryStream(dir);
+            this.iterator = stream.iterator();
+            this.parentDir = parentDir;
+            this.ignoreDepth = ignoreDepth;
+        }
     }
     
-    private class PathItem {
+    private static class PathItem {
         Path path;
         String pathAndFileName;
+        BasicFileAttributes attrs;
     }
     
-    private static URI createMD5Checksum(Path path) throws NoSuchAlgorithmException, IOException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        InputStream in = Files.newInputStream(path);
-        DigestInputStream dis = new DigestInputStream(in, md);
-        
-        int bytesRead = dis.read();
-        byte[] buf = new byte[512];
-        while (bytesRead > 0) {
-            bytesRead = dis.read(buf);
+    /**
+     * Get the checksum of a file: the recorded value if it is still current, otherwise
+     * computed from the file content (and recorded).
+     * 
+     * @param path The file.
+     * @param length The current size of the file.
+     * @param lastModified The current modification time of the file.
+     * @param verifyChecksums If true, always compute the checksum from the file content.
+     * @return The md5 checksum URI.
+     * @throws IOException If the file could not be read.
+     */
+    static URI getChecksum(Path path, long length, FileTime lastModified, boolean verifyChecksums)
+        throws IOException {
+        URI checksum = null;
+        if (!verifyChecksums) {
+            checksum = MetadataAttributes.read(path, length, lastModified);
+        }
+        if (checksum == null) {
+            checksum = createMD5Checksum(path);
+            MetadataAttributes.write(path, checksum);
+        }
+        return checksum;
+    }
+    
+    private static URI createMD5Checksum(Path path) throws IOException {
+        MessageDigest md = DigestPool.acquire(ChecksumAlgorithm.MD5);
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buf = new byte[CHECKSUM_BUFFER_SIZE];
+            int bytesRead = in.read(buf);
+            while (bytesRead >= 0) {
+                md.update(buf, 0, bytesRead);
+                bytesRead = in.read(buf);
+            }
+            return ChecksumAlgorithm.MD5.toChecksum(md.digest());
+        } finally {
+            DigestPool.release(md);
         }
-        byte[] digest = md.digest();
-        String md5String = HexUtil.toHex(digest);
-        return URI.create(FileSystemStorageAdapter.MD5_CHECKSUM_SCHEME + ":" + md5String);
     }
 
 }
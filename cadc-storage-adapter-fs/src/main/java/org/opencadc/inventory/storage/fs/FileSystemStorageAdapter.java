@@ -74,37 +74,58 @@ import ca.nrc.cadc.net.IncorrectContentChecksumException;
 import ca.nrc.cadc.net.IncorrectContentLengthException;
 import ca.nrc.cadc.net.ResourceNotFoundException;
 import ca.nrc.cadc.net.TransientException;
-import ca.nrc.cadc.util.HexUtil;
 import ca.nrc.cadc.util.PropertiesReader;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.InventoryUtil;
 import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
 import org.opencadc.inventory.storage.NewArtifact;
 import org.opencadc.inventory.storage.StorageAdapter;
 import org.opencadc.inventory.storage.StorageEngageException;
 import org.opencadc.inventory.storage.StorageMetadata;
+import org.opencadc.inventory.storage.checksum.ChecksumAlgorithm;
+import org.opencadc.inventory.storage.checksum.ChecksumOutputStream;
+import org.opencadc.inventory.storage.fits.FitsCutoutWriter;
 
 /**
  * An implementation of the storage adapter interface on a file system.
@@ -138,15 +159,47 @@ public class FileSystemStorageAdapter implements StorageAdapter {
     public static final String CONFIG_PROPERTY_ROOT = "root";
     public static final String CONFIG_PROPERTY_BUCKETMODE = "bucketMode";
     public static final String CONFIG_PROPERTY_BUCKETDEPTH = "bucketLength";
+    public static final String CONFIG_PROPERTY_TRANSFERMODE = "transferMode";
+    public static final String CONFIG_PROPERTY_VERIFYCHECKSUMS = "verifyChecksums";
+    public static final String CONFIG_PROPERTY_SCANTHREADS = "scanThreads";
     
     static final String MD5_CHECKSUM_SCHEME = "md5";
     static final int MAX_BUCKET_LENGTH = 5;
     static final int DEFAULT_BUCKET_LENGTH = 2;
+    static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    static final long TRANSFER_RETRY_MILLIS = 10L;
+    static final int DEFAULT_DELETE_THREADS = 8;
+    static final int DEFAULT_HEAD_THREADS = 8;
+    static final int HEAD_POOL_SIZE = 32;
+    
+    // shared by all bulk heads, each of which uses at most headThreads of the threads; daemons
+    // as adapters are not closed
+    private static final ExecutorService HEAD_EXECUTOR = Executors.newFixedThreadPool(HEAD_POOL_SIZE, r -> {
+        Thread t = new Thread(r, "fs-head");
+        t.setDaemon(true);
+        return t;
+    });
     
     private FileSystem fs;
     private Path root;
     private BucketMode bucketMode;
     private int bucketLength = DEFAULT_BUCKET_LENGTH;
+    private TransferMode transferMode = TransferMode.THREADED;
+    
+    // always re-compute checksums when listing instead of using the recorded values
+    boolean verifyChecksums = false;
+    
+    // number of threads used to scan bucket directories in URIBUCKET mode
+    int scanThreads = 1;
+    
+    // max number of directories processed in parallel in a batch delete
+    int deleteThreads = DEFAULT_DELETE_THREADS;
+    
+    // number of threads used to read metadata in a bulk head
+    int headThreads = DEFAULT_HEAD_THREADS;
+    
+    // compute checksums in put on a separate thread from the file writes
+    boolean threadedChecksums = true;
     
     public static enum BucketMode {
         URI,       // use the URI of the artifact for bucketing
@@ -157,6 +210,12 @@ public class FileSystemStorageAdapter implements StorageAdapter {
         // This mode has been tested with minoc
     }
     
+    public static enum TransferMode {
+        THREADED, // read and write in separate threads with ThreadedIO
+        CHANNEL;  // copy in the calling thread: FileChannel.transferTo (zero-copy) when the
+        // destination is a FileOutputStream or WritableByteChannel, positioned reads otherwise
+    }
+    
     /**
      * Construct a FileSystemStorageAdapter with the config stored in the
      * well-known properties file with well-known properties.
@@ -201,6 +260,40 @@ public class FileSystemStorageAdapter implements StorageAdapter {
                     + " from " + CONFIG_FILE + ": " + t.getMessage(), t);
             }
         }
+        
+        // get the optional transfer mode
+        try {
+            String mode = pr.getFirstPropertyValue(CONFIG_PROPERTY_TRANSFERMODE);
+            log.debug("transferMode: " + mode);
+            if (mode != null) {
+                transferMode = TransferMode.valueOf(mode);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to load " + CONFIG_PROPERTY_TRANSFERMODE
+                + " from " + CONFIG_FILE + ": " + t.getMessage(), t);
+        }
+        
+        // get the optional checksum verification mode
+        String verify = pr.getFirstPropertyValue(CONFIG_PROPERTY_VERIFYCHECKSUMS);
+        log.debug("verifyChecksums: " + verify);
+        if (verify != null) {
+            verifyChecksums = Boolean.parseBoolean(verify.trim());
+        }
+        
+        // get the optional number of scan threads
+        try {
+            String threads = pr.getFirstPropertyValue(CONFIG_PROPERTY_SCANTHREADS);
+            log.debug("scanThreads: " + threads);
+            if (threads != null) {
+                scanThreads = Integer.parseInt(threads.trim());
+                if (scanThreads < 1) {
+                    throw new IllegalStateException("invalid " + CONFIG_PROPERTY_SCANTHREADS + ": " + scanThreads);
+                }
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to load " + CONFIG_PROPERTY_SCANTHREADS
+                + " from " + CONFIG_FILE + ": " + t.getMessage(), t);
+        }
         init(rootVal, bucketMode);
     }
     
@@ -215,6 +308,20 @@ public class FileSystemStorageAdapter implements StorageAdapter {
         init(rootDirectory, bucketMode);
     }
     
+    /**
+     * Construct a FileSystemStorageAdapter with the config specified
+     * in the arguments.
+     * 
+     * @param rootDirectory The root directory of the local file system.
+     * @param bucketMode The mode in which to organize files
+     * @param transferMode The mode used to stream files in get
+     */
+    public FileSystemStorageAdapter(String rootDirectory, BucketMode bucketMode, TransferMode transferMode) {
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "transferMode", transferMode);
+        this.transferMode = transferMode;
+        init(rootDirectory, bucketMode);
+    }
+    
     private void init(String rootDirectory, BucketMode bucketMode) {
         InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "rootDirectory", rootDirectory);
         InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "bucketMode", bucketMode);
@@ -258,6 +365,15 @@ public class FileSystemStorageAdapter implements StorageAdapter {
         if (!Files.isRegularFile(path)) {
             throw new IllegalArgumentException("not found: " + storageLocation.getStorageID());
         }
+        if (TransferMode.CHANNEL.equals(transferMode)) {
+            FileChannel channel = openChannel(path);
+            try {
+                transfer(channel, new ByteRange(0, Long.MAX_VALUE), dest);
+            } finally {
+                closeChannel(channel, path);
+            }
+            return;
+        }
         InputStream source = null;
         try {
             source = Files.newInputStream(path, StandardOpenOption.READ);
@@ -269,7 +385,9 @@ public class FileSystemStorageAdapter implements StorageAdapter {
     }
     
     /**
-     * Get from storage the artifact identified by storageLocation.
+     * Get from storage the artifact identified by storageLocation with cutouts. Image sections
+     * of a FITS file (e.g. [1][100:200,100:200]) are read with positioned reads of the intersecting
+     * rows only; other cutouts return the headers of the file.
      * 
      * @param storageLocation The storage location containing storageID and storageBucket.
      * @param dest The destination stream.
@@ -284,7 +402,232 @@ public class FileSystemStorageAdapter implements StorageAdapter {
     @Override
     public void get(StorageLocation storageLocation, OutputStream dest, Set<String> cutouts)
         throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException {
-        throw new UnsupportedOperationException("cutouts not supported");
+        if (cutouts == null || cutouts.isEmpty()) {
+            get(storageLocation, dest);
+            return;
+        }
+        new FitsCutoutWriter(this, storageLocation).write(cutouts, dest);
+    }
+
+    /**
+     * Get from storage the specified byte ranges of the artifact identified by storageLocation.
+     * Ranges are copied from a single file channel in the calling thread.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param dest The destination stream.
+     * @param byteRanges The byte ranges to get.
+     *
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If the client failed to stream.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public void get(StorageLocation storageLocation, OutputStream dest, List<ByteRange> byteRanges)
+        throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException {
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "storageLocation", storageLocation);
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "dest", dest);
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "byteRanges", byteRanges);
+        log.debug("get storageID: " + storageLocation.getStorageID() + " ranges: " + byteRanges);
+        Path path = createStorageLocationPath(storageLocation);
+        if (!Files.exists(path)) {
+            throw new ResourceNotFoundException("not found: " + storageLocation.getStorageID());
+        }
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("not found: " + storageLocation.getStorageID());
+        }
+        FileChannel channel = openChannel(path);
+        try {
+            for (ByteRange br : byteRanges) {
+                transfer(channel, br, dest);
+            }
+        } finally {
+            closeChannel(channel, path);
+        }
+    }
+    
+    private FileChannel openChannel(Path path) throws StorageEngageException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new StorageEngageException("failed to open channel to file system", e);
+        }
+    }
+    
+    private void closeChannel(FileChannel channel, Path path) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("failed to close channel: " + path, e);
+        }
+    }
+    
+    /**
+     * Copy a byte range of a file to the destination in the calling thread. When the
+     * destination exposes a channel this uses FileChannel.transferTo so the kernel can
+     * copy without passing the bytes through user space; otherwise the bytes are read
+     * with positioned reads into a single buffer. Bytes beyond the end of the file are
+     * silently not written.
+     */
+    private void transfer(FileChannel channel, ByteRange br, OutputStream dest)
+        throws ReadException, WriteException {
+        WritableByteChannel target = null;
+        if (dest instanceof FileOutputStream) {
+            target = ((FileOutputStream) dest).getChannel();
+        } else if (dest instanceof WritableByteChannel) {
+            target = (WritableByteChannel) dest;
+        }
+        
+        long position = br.getOffset();
+        long remaining = br.getLength();
+        if (target != null) {
+            try {
+                // stored files do not change, so the end of file is known up front
+                remaining = Math.min(remaining, Math.max(0L, channel.size() - position));
+            } catch (IOException e) {
+                throw new ReadException("failed to read file size: " + e.getMessage(), e);
+            }
+            while (remaining > 0) {
+                long num;
+                try {
+                    num = channel.transferTo(position, remaining, target);
+                } catch (IOException e) {
+                    // cannot tell the read and write side apart here
+                    throw new WriteException("failed to transfer " + br + ": " + e.getMessage(), e);
+                }
+                if (num == 0) {
+                    // a non-blocking target that cannot take more yet
+                    try {
+                        Thread.sleep(TRANSFER_RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new WriteException("interrupted while transferring " + br, e);
+                    }
+                }
+                position += num;
+                remaining -= num;
+            }
+            return;
+        }
+        
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, remaining));
+        while (remaining > 0) {
+            buf.clear();
+            if (remaining < buf.capacity()) {
+                buf.limit((int) remaining);
+            }
+            int num;
+            try {
+                num = channel.read(buf, position);
+            } catch (IOException e) {
+                throw new ReadException("failed to read " + br + ": " + e.getMessage(), e);
+            }
+            if (num < 0) {
+                // end of file
+                break;
+            }
+            try {
+                dest.write(buf.array(), 0, num);
+            } catch (IOException e) {
+                throw new WriteException("failed to write " + br + ": " + e.getMessage(), e);
+            }
+            position += num;
+            remaining -= num;
+        }
+    }
+    
+    /**
+     * Get the metadata of the artifact identified by storageLocation. The checksum is the value
+     * recorded in the file attributes if it is still current, otherwise it is computed.
+     * 
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @return The storage metadata.
+     * 
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public StorageMetadata head(StorageLocation storageLocation)
+        throws ResourceNotFoundException, StorageEngageException, TransientException {
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "storageLocation", storageLocation);
+        Path path = createStorageLocationPath(storageLocation);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                throw new ResourceNotFoundException("not found: " + storageLocation);
+            }
+            long length = attrs.size();
+            URI checksum = FileSystemIterator.getChecksum(path, length, attrs.lastModifiedTime(), verifyChecksums);
+            StorageMetadata ret = new StorageMetadata(storageLocation, checksum, length);
+            if (BucketMode.URI.equals(bucketMode)) {
+                ret.artifactURI = storageLocation.getStorageID();
+            }
+            return ret;
+        } catch (NoSuchFileException e) {
+            throw new ResourceNotFoundException("not found: " + storageLocation, e);
+        } catch (IOException e) {
+            throw new StorageEngageException("failed to read metadata: " + storageLocation, e);
+        }
+    }
+    
+    /**
+     * Get the metadata of the artifacts identified by storageLocations, using up to headThreads
+     * threads of a shared pool. An artifact whose metadata cannot be read is left out and the
+     * failure logged, so one bad file does not fail the others.
+     * 
+     * @param storageLocations The storage locations.
+     * @return The storage metadata by storage location, without the artifacts that were not found
+     *     or could not be read.
+     * 
+     * @throws StorageEngageException If the metadata of every artifact could not be read.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    @Override
+    public Map<StorageLocation, StorageMetadata> head(Collection<StorageLocation> storageLocations)
+        throws StorageEngageException, TransientException {
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "storageLocations", storageLocations);
+        final Map<StorageLocation, StorageMetadata> ret = new ConcurrentHashMap<>();
+        final Map<StorageLocation, Exception> failures = new ConcurrentHashMap<>();
+        final Queue<StorageLocation> pending = new ConcurrentLinkedQueue<>(storageLocations);
+        int threads = Math.max(1, Math.min(headThreads, storageLocations.size()));
+        List<Future<?>> tasks = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                tasks.add(HEAD_EXECUTOR.submit(() -> {
+                    StorageLocation sl;
+                    while ((sl = pending.poll()) != null) {
+                        try {
+                            ret.put(sl, head(sl));
+                        } catch (ResourceNotFoundException ex) {
+                            log.debug("not found: " + sl);
+                        } catch (StorageEngageException | TransientException | RuntimeException ex) {
+                            log.warn("failed to read metadata: " + sl + " cause: " + ex);
+                            failures.put(sl, ex);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : tasks) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TransientException("interrupted while reading metadata", ex);
+        } catch (ExecutionException ex) {
+            throw new StorageEngageException("failed to read metadata: " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            pending.clear();
+            for (Future<?> f : tasks) {
+                f.cancel(true);
+            }
+        }
+        if (ret.isEmpty() && !failures.isEmpty()) {
+            Exception cause = failures.values().iterator().next();
+            throw new StorageEngageException("failed to read metadata: " + cause.getMessage(), cause);
+        }
+        return ret;
     }
     
     /**
@@ -348,27 +691,35 @@ public class FileSystemStorageAdapter implements StorageAdapter {
         
         try {
             OutputStream out = Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            DigestOutputStream digestOut = new DigestOutputStream(out, digest);
-            ThreadedIO threadedIO = new ThreadedIO();
-            threadedIO.ioLoop(digestOut, source);
-            digestOut.flush();
-            byte[] md5sum = digest.digest();
-            String md5Val = HexUtil.toHex(md5sum);
-            checksum = URI.create(MD5_CHECKSUM_SCHEME + ":" + md5Val);
+            // md5 is recorded; the checksum provided by the client is computed in the same pass when it differs
+            Set<ChecksumAlgorithm> algorithms =
+                ChecksumAlgorithm.negotiate(ChecksumAlgorithm.MD5, newArtifact.contentChecksum);
+            Map<ChecksumAlgorithm, URI> checksums;
+            ChecksumOutputStream digestOut = new ChecksumOutputStream(out, algorithms, threadedChecksums);
+            try {
+                ThreadedIO threadedIO = new ThreadedIO();
+                threadedIO.ioLoop(digestOut, source);
+                digestOut.flush();
+                checksums = digestOut.getChecksums();
+            } finally {
+                digestOut.close();
+            }
+            checksum = checksums.get(ChecksumAlgorithm.MD5);
             length = Files.size(path);
-            log.debug("calculated md5sum: " + checksum);
+            log.debug("calculated checksums: " + checksums.values());
             log.debug("calculated file size: " + length);
             
-            boolean checksumProvided = newArtifact.contentChecksum != null && newArtifact.contentChecksum.getScheme().equals(MD5_CHECKSUM_SCHEME);
+            ChecksumAlgorithm expectedAlgorithm = newArtifact.contentChecksum == null
+                ? null : ChecksumAlgorithm.forScheme(newArtifact.contentChecksum.getScheme());
+            boolean checksumProvided = expectedAlgorithm != null;
             // checksum comparison
             if (checksumProvided) {
-                String expectedMD5 = newArtifact.contentChecksum.getSchemeSpecificPart();
-                String actualMD5 = checksum.getSchemeSpecificPart();
-                if (!expectedMD5.equals(actualMD5)) {
+                String expected = newArtifact.contentChecksum.getSchemeSpecificPart();
+                String actual = checksums.get(expectedAlgorithm).getSchemeSpecificPart();
+                if (!expected.equals(actual)) {
                     throw new IncorrectContentChecksumException(
-                        "expected md5 checksum [" + expectedMD5 + "] "
-                        + "but calculated [" + actualMD5 + "]");
+                        "expected " + expectedAlgorithm.getScheme() + " checksum [" + expected + "] "
+                        + "but calculated [" + actual + "]");
                 }
             } else {
                 log.debug("Uncomparable or no contentChecksum provided.");
@@ -380,7 +731,7 @@ public class FileSystemStorageAdapter implements StorageAdapter {
                 if (!expectedLength.equals(length)) {
                     if (checksumProvided) {
                         // likely bug in the client, throw a 400 instead
-                        throw new IllegalArgumentException("correct md5 checksum ["
+                        throw new IllegalArgumentException("correct checksum ["
                             + newArtifact.contentChecksum + "] but incorrect length ["
                             + expectedLength + "]");
                     }
@@ -392,6 +743,9 @@ public class FileSystemStorageAdapter implements StorageAdapter {
                 log.debug("No contentLength provided.");
             }
             
+            // record so that list does not have to read the file again
+            MetadataAttributes.write(path, checksum);
+            
             StorageMetadata metadata = new StorageMetadata(storageLocation, checksum, length);
             metadata.artifactURI = artifactURI;
             return metadata;
@@ -445,9 +799,69 @@ public class FileSystemStorageAdapter implements StorageAdapter {
         Path path = createStorageLocationPath(storageLocation);
         Files.delete(path);
     }
+
+    /**
+     * Delete from storage the artifacts identified by storageLocations. Artifacts are grouped
+     * by directory and the directories are processed in parallel by deleteThreads threads, so
+     * each directory is only modified by one thread at a time.
+     * 
+     * @param storageLocations Identifies the artifacts to delete.
+     * @return The artifacts that were not deleted, each with the cause.
+     * 
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred. 
+     */
+    @Override
+    public Map<StorageLocation, Exception> delete(Collection<StorageLocation> storageLocations)
+        throws StorageEngageException, TransientException {
+        InventoryUtil.assertNotNull(FileSystemStorageAdapter.class, "storageLocations", storageLocations);
+        final Map<StorageLocation, Exception> failures = new ConcurrentHashMap<>();
+        Map<Path, Map<StorageLocation, Path>> byDirectory = new HashMap<>();
+        for (StorageLocation sl : storageLocations) {
+            try {
+                Path path = createStorageLocationPath(sl);
+                byDirectory.computeIfAbsent(path.getParent(), k -> new LinkedHashMap<>()).put(sl, path);
+            } catch (RuntimeException ex) {
+                failures.put(sl, ex);
+            }
+        }
+        
+        int threads = Math.max(1, Math.min(deleteThreads, byDirectory.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>(byDirectory.size());
+            for (Map<StorageLocation, Path> paths : byDirectory.values()) {
+                tasks.add(executor.submit(() -> {
+                    for (Map.Entry<StorageLocation, Path> me : paths.entrySet()) {
+                        try {
+                            Files.delete(me.getValue());
+                        } catch (NoSuchFileException ex) {
+                            failures.put(me.getKey(), new ResourceNotFoundException("not found: " + me.getKey()));
+                        } catch (IOException | RuntimeException ex) {
+                            failures.put(me.getKey(), ex);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : tasks) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TransientException("interrupted while deleting", ex);
+        } catch (ExecutionException ex) {
+            throw new StorageEngageException("failed to delete: " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        log.debug("deleted " + (storageLocations.size() - failures.size()) + " of " + storageLocations.size()
+            + " in " + byDirectory.size() + " directories");
+        return failures;
+    }
     
     /**
-     * Iterator of items ordered by their storageIDs.
+     * Iterator of items ordered by their storageIDs. Only supported in URIBUCKET mode, 
+     * where items are ordered by storageBucket and then storageID.
      * @return An iterator over an ordered list of items in storage.
      * 
      * @throws StorageEngageException If the adapter failed to interact with storage.
@@ -456,11 +870,13 @@ public class FileSystemStorageAdapter implements StorageAdapter {
     @Override
     public Iterator<StorageMetadata> iterator()
         throws StorageEngageException, TransientException {
-        throw new UnsupportedOperationException("sorted iteration not supported");
+        return iterator(null);
     }
     
     /**
-     * Iterator of items ordered by their storageIDs in the given bucket.
+     * Iterator of items ordered by their storageIDs in the given bucket. Only supported
+     * in URIBUCKET mode, where items are ordered by storageBucket and then storageID and
+     * storageBucket may be a prefix of the full bucket.
      * @param storageBucket Only iterate over items in this bucket.
      * @return An iterator over an ordered list of items in this storage bucket.
      * 
@@ -470,7 +886,38 @@ public class FileSystemStorageAdapter implements StorageAdapter {
     @Override
     public Iterator<StorageMetadata> iterator(String storageBucket)
         throws StorageEngageException, TransientException {
-        throw new UnsupportedOperationException("sorted iteration not supported");
+        if (!BucketMode.URIBUCKET.equals(bucketMode)) {
+            throw new UnsupportedOperationException("sorted iteration not supported in bucket mode " + bucketMode);
+        }
+        String bucketPrefix = "";
+        StringBuilder path = new StringBuilder();
+        if (storageBucket != null) {
+            if (storageBucket.length() > bucketLength) {
+                throw new IllegalArgumentException("bucket must be a maximum of " + bucketLength + " characters");
+            }
+            for (char c : storageBucket.toCharArray()) {
+                path.append(c).append(File.separator);
+            }
+            bucketPrefix = storageBucket;
+        }
+        try {
+            Path bucketPath = root.resolve(path.toString());
+            log.debug("bucketPath: " + bucketPath);
+            if (!Files.isDirectory(bucketPath)) {
+                // nothing stored in this bucket
+                return Collections.emptyIterator();
+            }
+            int bucketDepth = bucketLength - bucketPrefix.length();
+            if (scanThreads > 1) {
+                return new ParallelFileSystemIterator(bucketPath, bucketDepth, bucketPrefix, verifyChecksums,
+                    scanThreads, true);
+            }
+            return new SortedFileSystemIterator(bucketPath, bucketDepth, bucketPrefix, verifyChecksums);
+        } catch (IOException e) {
+            throw new StorageEngageException("failed to obtain iterator", e);
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid bucket: " + storageBucket);
+        }
     }
     
     /**
@@ -526,10 +973,23 @@ public class FileSystemStorageAdapter implements StorageAdapter {
             if (!Files.exists(bucketPath) || !Files.isDirectory(bucketPath)) {
                 throw new IllegalArgumentException("Invalid bucket: " + storageBucket);
             }
-            Iterator<StorageMetadata> iter = new FileSystemIterator(bucketPath, bucketDepth, fixedParentDir);
+            Iterator<StorageMetadata> iter;
+            if (scanThreads > 1 && BucketMode.URIBUCKET.equals(bucketMode)) {
+                String bucketPrefix = storageBucket == null ? "" : storageBucket;
+                iter = new ParallelFileSystemIterator(bucketPath, bucketDepth, bucketPrefix, verifyChecksums,
+                    scanThreads, false);
+            } else {
+                iter = new FileSystemIterator(bucketPath, bucketDepth, fixedParentDir, verifyChecksums);
+            }
             SortedSet<StorageMetadata> ret = new TreeSet<>();
             while (iter.hasNext()) {
-                ret.add(iter.next());
+                StorageMetadata sm = iter.next();
+                StorageLocation loc = sm.getStorageLocation();
+                if (loc.storageBucket == null) {
+                    // FileSystemIterator does not track buckets: assign them as put does
+                    loc.storageBucket = createStorageLocation(loc.getStorageID()).storageBucket;
+                }
+                ret.add(sm);
             }
             return ret;
         } catch (IOException e) {
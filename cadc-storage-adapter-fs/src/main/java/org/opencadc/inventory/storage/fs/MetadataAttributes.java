@@ -0,0 +1,177 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persists the checksum and length of a stored file in user extended attributes
+ * (user.md5, user.contentLength, user.lastModified) so they can be reported without
+ * reading the file again. The stored values are only trusted while the size and
+ * modification time of the file still match the recorded ones. File systems without
+ * user extended attribute support simply fall back to computing the checksum.
+ * 
+ * @author majorb
+ */
+class MetadataAttributes {
+    
+    private static final Logger log = Logger.getLogger(MetadataAttributes.class);
+    
+    static final String CHECKSUM_ATTR = "md5";
+    static final String LENGTH_ATTR = "contentLength";
+    static final String LASTMODIFIED_ATTR = "lastModified";
+    
+    private MetadataAttributes() {
+    }
+    
+    /**
+     * Record the checksum of a file along with its current size and modification time.
+     * 
+     * @param path The file.
+     * @param checksum The md5 checksum URI of the file.
+     * @return true if the attributes were written, false if not supported.
+     */
+    static boolean write(Path path, URI checksum) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            log.debug("user attributes not supported: " + path);
+            return false;
+        }
+        try {
+            long length = Files.size(path);
+            FileTime lastModified = Files.getLastModifiedTime(path);
+            setAttribute(view, CHECKSUM_ATTR, checksum.getSchemeSpecificPart());
+            setAttribute(view, LENGTH_ATTR, Long.toString(length));
+            setAttribute(view, LASTMODIFIED_ATTR, Long.toString(lastModified.toMillis()));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("failed to write user attributes: " + path + " reason: " + e);
+            return false;
+        }
+    }
+    
+    /**
+     * Get the recorded checksum of a file.
+     * 
+     * @param path The file.
+     * @param length The current size of the file.
+     * @param lastModified The current modification time of the file.
+     * @return The md5 checksum URI, or null if not recorded or recorded for different
+     *     file content (size or modification time changed).
+     */
+    static URI read(Path path, long length, FileTime lastModified) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return null;
+        }
+        try {
+            List<String> names = view.list();
+            String md5 = getAttribute(view, names, CHECKSUM_ATTR);
+            String len = getAttribute(view, names, LENGTH_ATTR);
+            String lastMod = getAttribute(view, names, LASTMODIFIED_ATTR);
+            if (md5 == null || len == null || lastMod == null) {
+                log.debug("no recorded checksum: " + path);
+                return null;
+            }
+            if (Long.parseLong(len) != length || Long.parseLong(lastMod) != lastModified.toMillis()) {
+                log.debug("stale recorded checksum: " + path);
+                return null;
+            }
+            return URI.create(FileSystemStorageAdapter.MD5_CHECKSUM_SCHEME + ":" + md5);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            log.debug("failed to read user attributes: " + path + " reason: " + e);
+            return null;
+        }
+    }
+    
+    private static void setAttribute(UserDefinedFileAttributeView view, String name, String value) throws IOException {
+        view.write(name, ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII)));
+    }
+    
+    private static String getAttribute(UserDefinedFileAttributeView view, List<String> names, String name)
+        throws IOException {
+        if (!names.contains(name)) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(view.size(name));
+        view.read(name, buf);
+        buf.flip();
+        return StandardCharsets.US_ASCII.decode(buf).toString();
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fs;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.InventoryUtil;
+import org.opencadc.inventory.storage.StorageMetadata;
+
+/**
+ * An iterator of files stored in URIBUCKET mode that scans bucket directories in parallel.
+ * The tree is split into partitions by bucket prefix directory and each partition is scanned
+ * by a worker thread with a SortedFileSystemIterator. Results are handed to the caller through
+ * bounded queues so memory use does not depend on the number of files.
+ * 
+ * <p>In ordered mode each partition has its own queue and the partitions are consumed in bucket
+ * order, so the items are in the same order as SortedFileSystemIterator while up to the configured
+ * number of partitions are read ahead. In unordered mode all partitions share one queue and items
+ * are returned as soon as they are found (still sorted within each bucket).
+ * 
+ * <p>Worker threads finish when the iteration is complete; callers that stop iterating early
+ * should call close() to release them. Workers only hold a weak reference to the iterator, so
+ * if it is abandoned without close() they stop once it has been garbage collected.
+ * 
+ * @author majorb
+ */
+public class ParallelFileSystemIterator implements Iterator<StorageMetadata>, AutoCloseable {
+    
+    private static final Logger log = Logger.getLogger(ParallelFileSystemIterator.class);
+    
+    static final int QUEUE_CAPACITY = 1000;
+    
+    // how long a worker waits on a full queue before checking that the iterator is still in use
+    static final long OFFER_TIMEOUT_SECONDS = 10L;
+    
+    // number of bucket directory levels used to create partitions
+    private static final int MAX_PARTITION_DEPTH = 2;
+    
+    private static final AtomicInteger POOL_NUM = new AtomicInteger();
+    
+    private final ExecutorService executor;
+    private final List<Partition> partitions = new ArrayList<Partition>();
+    private final boolean ordered;
+    private int current = 0;
+    private int completed = 0;
+    private StorageMetadata next = null;
+
+    /**
+     * ParallelFileSystemIterator constructor.
+     * 
+     * @param dir The directory to iterate.
+     * @param bucketDepth The depth of bucket directories below dir.
+     * @param bucketPrefix The bucket prefix represented by dir (empty for the root).
+     * @param verifyChecksums If true, always compute checksums from the file content.
+     * @param threads The number of worker threads.
+     * @param ordered If true, return items in bucket and storageID order.
+     * @throws IOException If there is a problem with file-system interaction.
+     */
+    public ParallelFileSystemIterator(Path dir, int bucketDepth, String bucketPrefix, boolean verifyChecksums,
+        int threads, boolean ordered) throws IOException {
+        InventoryUtil.assertNotNull(ParallelFileSystemIterator.class, "dir", dir);
+        InventoryUtil.assertNotNull(ParallelFileSystemIterator.class, "bucketPrefix", bucketPrefix);
+        if (threads < 1) {
+            throw new IllegalArgumentException("invalid threads: " + threads);
+        }
+        this.ordered = ordered;
+        
+        int partitionDepth = Math.min(bucketDepth, MAX_PARTITION_DEPTH);
+        List<Path> dirs = new ArrayList<Path>();
+        List<String> prefixes = new ArrayList<String>();
+        findPartitions(dir, bucketPrefix, partitionDepth, dirs, prefixes);
+        log.debug("partitions: " + dirs.size() + " depth: " + partitionDepth + " threads: " + threads);
+        
+        BlockingQueue<Object> shared = null;
+        if (!ordered) {
+            shared = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+        }
+        for (int i = 0; i < dirs.size(); i++) {
+            Partition p = new Partition();
+            p.dir = dirs.get(i);
+            p.bucketPrefix = prefixes.get(i);
+            p.bucketDepth = bucketDepth - partitionDepth;
+            p.verifyChecksums = verifyChecksums;
+            p.queue = ordered ? new ArrayBlockingQueue<Object>(QUEUE_CAPACITY) : shared;
+            partitions.add(p);
+        }
+        
+        final String poolName = ParallelFileSystemIterator.class.getSimpleName() + "-" + POOL_NUM.incrementAndGet();
+        this.executor = Executors.newFixedThreadPool(threads, newThreadFactory(poolName));
+        // the pool runs tasks in submission order so in ordered mode the partition
+        // being consumed has always been started
+        WeakReference<ParallelFileSystemIterator> owner = new WeakReference<ParallelFileSystemIterator>(this);
+        for (Partition p : partitions) {
+            p.owner = owner;
+            p.executor = executor;
+            executor.execute(p);
+        }
+        executor.shutdown();
+    }
+    
+    // static so that the worker threads do not hold a reference to the iterator
+    private static ThreadFactory newThreadFactory(final String poolName) {
+        return new ThreadFactory() {
+            private final AtomicInteger num = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, poolName + "-" + num.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+    
+    // sorted bucket directories at the partition depth
+    private static void findPartitions(Path dir, String prefix, int depth, List<Path> dirs, List<String> prefixes)
+        throws IOException {
+        if (depth == 0) {
+            dirs.add(dir);
+            prefixes.add(prefix);
+            return;
+        }
+        List<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if (Files.isDirectory(p)) {
+                    names.add(p.getFileName().toString());
+                }
+            }
+        }
+        Collections.sort(names);
+        for (String name : names) {
+            findPartitions(dir.resolve(name), prefix + name, depth - 1, dirs, prefixes);
+        }
+    }
+    
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public StorageMetadata next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StorageMetadata ret = next;
+        next = null;
+        return ret;
+    }
+    
+    /**
+     * Stop the worker threads. Only needed when the iteration is abandoned before the end.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+    
+    private StorageMetadata advance() {
+        try {
+            while (completed < partitions.size()) {
+                Object o = partitions.get(current).queue.take();
+                if (o instanceof StorageMetadata) {
+                    return (StorageMetadata) o;
+                }
+                if (o instanceof Throwable) {
+                    close();
+                    Throwable t = (Throwable) o;
+                    throw new IllegalStateException("scan failed: " + t.getMessage(), t);
+                }
+                // end of a partition
+                completed++;
+                if (ordered) {
+                    current++;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for scan results", e);
+        }
+    }
+    
+    private static final Object END = new Object();
+    
+    private static class Partition implements Runnable {
+        Path dir;
+        String bucketPrefix;
+        int bucketDepth;
+        boolean verifyChecksums;
+        BlockingQueue<Object> queue;
+        WeakReference<ParallelFileSystemIterator> owner;
+        ExecutorService executor;
+        
+        @Override
+        public void run() {
+            try {
+                try {
+                    Iterator<StorageMetadata> iter = new SortedFileSystemIterator(dir, bucketDepth, bucketPrefix,
+                        verifyChecksums);
+                    while (iter.hasNext()) {
+                        if (!put(iter.next())) {
+                            return;
+                        }
+                    }
+                    put(END);
+                } catch (InterruptedException e) {
+                    log.debug("scan interrupted: " + dir);
+                } catch (Throwable t) {
+                    log.debug("scan failed: " + dir, t);
+                    put(t);
+                }
+            } catch (InterruptedException e) {
+                log.debug("scan interrupted: " + dir);
+            }
+        }
+        
+        // returns false if the iterator was abandoned, after stopping the other workers
+        private boolean put(Object o) throws InterruptedException {
+            while (!queue.offer(o, OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                if (owner.get() == null) {
+                    log.debug("scan abandoned: " + dir);
+                    executor.shutdownNow();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.InventoryUtil;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.StorageMetadata;
+
+/**
+ * A sorted iterator of files stored in URIBUCKET mode. Items are returned in
+ * StorageLocation order: by storageBucket and then by storageID.
+ * 
+ * <p>The iterator streams: it holds the sorted listing of one directory per level
+ * of the tree currently being visited and nothing else. Bucket directories are single
+ * characters so a sorted walk of them is in bucket order. Below the buckets, directory
+ * names are sorted as if they ended with the path separator so that a depth-first walk
+ * visits storageID values in string order.
+ * 
+ * @author majorb
+ */
+public class SortedFileSystemIterator implements Iterator<StorageMetadata> {
+    
+    private static final Logger log = Logger.getLogger(SortedFileSystemIterator.class);
+    
+    private final Deque<Level> stack = new ArrayDeque<Level>();
+    private final boolean verifyChecksums;
+    private StorageMetadata next = null;
+
+    /**
+     * SortedFileSystemIterator constructor.
+     * 
+     * @param dir The directory to iterate.
+     * @param bucketDepth The depth of bucket directories below dir.
+     * @param bucketPrefix The bucket prefix represented by dir (empty for the root).
+     * @param verifyChecksums If true, always compute checksums from the file content.
+     * @throws IOException If there is a problem with file-system interaction.
+     */
+    public SortedFileSystemIterator(Path dir, int bucketDepth, String bucketPrefix, boolean verifyChecksums)
+        throws IOException {
+        InventoryUtil.assertNotNull(SortedFileSystemIterator.class, "dir", dir);
+        InventoryUtil.assertNotNull(SortedFileSystemIterator.class, "bucketPrefix", bucketPrefix);
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalArgumentException("not a directory: " + dir);
+        }
+        this.verifyChecksums = verifyChecksums;
+        stack.push(new Level(dir, bucketPrefix, "", bucketDepth));
+    }
+    
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = advance();
+            } catch (IOException e) {
+                throw new IllegalStateException("io exception: " + e.getMessage(), e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public StorageMetadata next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StorageMetadata ret = next;
+        next = null;
+        return ret;
+    }
+    
+    private StorageMetadata advance() throws IOException {
+        while (!stack.isEmpty()) {
+            Level cur = stack.peek();
+            if (cur.pos == cur.entries.size()) {
+                stack.pop();
+                continue;
+            }
+            Entry e = cur.entries.get(cur.pos);
+            // release entries as they are consumed
+            cur.entries.set(cur.pos++, null);
+            if (cur.bucketDepth > 0) {
+                if (e.attrs.isDirectory()) {
+                    stack.push(new Level(e.path, cur.bucket + e.name, "", cur.bucketDepth - 1));
+                } else {
+                    log.debug("skipping file in bucket directory: " + e.path);
+                }
+            } else if (e.attrs.isDirectory()) {
+                stack.push(new Level(e.path, cur.bucket, cur.parentDir + e.name + "/", 0));
+            } else if (e.attrs.isRegularFile()) {
+                return toStorageMetadata(e, cur);
+            }
+        }
+        return null;
+    }
+    
+    private StorageMetadata toStorageMetadata(Entry e, Level level) {
+        URI storageID = URI.create(level.parentDir + e.name);
+        StorageLocation storageLocation = new StorageLocation(storageID);
+        storageLocation.storageBucket = level.bucket;
+        try {
+            long length = e.attrs.size();
+            URI checksum = FileSystemIterator.getChecksum(e.path, length, e.attrs.lastModifiedTime(), verifyChecksums);
+            StorageMetadata meta = new StorageMetadata(storageLocation, checksum, length);
+            meta.artifactURI = storageID;
+            return meta;
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to compute file metadata: " + ex.getMessage(), ex);
+        }
+    }
+    
+    // one directory in the current path of the walk
+    private static class Level {
+        List<Entry> entries;
+        int pos = 0;
+        String bucket;
+        String parentDir;
+        int bucketDepth;
+        
+        Level(Path dir, String bucket, String parentDir, int bucketDepth) throws IOException {
+            this.bucket = bucket;
+            this.parentDir = parentDir;
+            this.bucketDepth = bucketDepth;
+            this.entries = new ArrayList<Entry>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path p : ds) {
+                    Entry e = new Entry();
+                    e.path = p;
+                    e.name = p.getFileName().toString();
+                    e.attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    e.sortKey = e.attrs.isDirectory() ? e.name + "/" : e.name;
+                    entries.add(e);
+                }
+            }
+            if (bucketDepth == 0 && parentDir.isEmpty()) {
+                Collections.sort(entries, TOP_LEVEL_ORDER);
+            } else {
+                Collections.sort(entries, ENTRY_ORDER);
+            }
+            log.debug("entering directory [physical][logical]: [" + dir + "][" + bucket + ":" + parentDir + "] "
+                + entries.size() + " entries");
+        }
+    }
+    
+    private static class Entry {
+        Path path;
+        String name;
+        String sortKey;
+        BasicFileAttributes attrs;
+    }
+    
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.sortKey.compareTo(rhs.sortKey);
+        }
+    };
+    
+    // the first path component of a storageID starts with the URI scheme, which
+    // URI.compareTo compares ignoring case and before the scheme-specific part
+    private static final Comparator<Entry> TOP_LEVEL_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            int li = lhs.sortKey.indexOf(':');
+            int ri = rhs.sortKey.indexOf(':');
+            if (li < 0 || ri < 0) {
+                return lhs.sortKey.compareTo(rhs.sortKey);
+            }
+            int ret = lhs.sortKey.substring(0, li).compareToIgnoreCase(rhs.sortKey.substring(0, ri));
+            if (ret != 0) {
+                return ret;
+            }
+            return lhs.sortKey.substring(li + 1).compareTo(rhs.sortKey.substring(ri + 1));
+        }
+    };
+
+}
@@ -67,6 +67,7 @@
 
 package org.opencadc.inventory.storage.fs;
 
+import ca.nrc.cadc.net.IncorrectContentChecksumException;
 import ca.nrc.cadc.net.ResourceNotFoundException;
 import ca.nrc.cadc.util.HexUtil;
 import ca.nrc.cadc.util.Log4jInit;
@@ -74,18 +75,28 @@ import ca.nrc.cadc.util.Log4jInit;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import java.util.SortedSet;
 import static java.util.Spliterators.iterator;
@@ -94,7 +105,10 @@ import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
 import org.opencadc.inventory.storage.NewArtifact;
+import org.opencadc.inventory.storage.StorageEngageException;
 import org.opencadc.inventory.storage.StorageMetadata;
 import org.opencadc.inventory.storage.fs.FileSystemStorageAdapter.BucketMode;
 
@@ -191,6 +205,312 @@ public class FileSystemStorageAdapterTest {
         }
     }
     
+    @Test
+    public void testBatchDelete() {
+        try {
+            
+            log.info("testBatchDelete - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testBatchDelete";
+            this.createInstanceTestRoot(testDir);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(testDir, BucketMode.URIBUCKET);
+            fs.deleteThreads = 3;
+            List<StorageLocation> locations = new ArrayList<StorageLocation>();
+            for (int i = 0; i < 20; i++) {
+                NewArtifact newArtifact = new NewArtifact(URI.create("test:path/file-" + i));
+                StorageMetadata storageMetadata = fs.put(newArtifact, new ByteArrayInputStream(data));
+                locations.add(storageMetadata.getStorageLocation());
+            }
+            StorageLocation missing = new StorageLocation(URI.create("uuid:" + UUID.randomUUID()));
+            missing.storageBucket = "abc";
+            locations.add(missing);
+            
+            Map<StorageLocation, Exception> failures = fs.delete(locations);
+            Assert.assertEquals("failures", 1, failures.size());
+            Assert.assertTrue("not found", failures.get(missing) instanceof ResourceNotFoundException);
+            
+            for (StorageLocation loc : locations) {
+                try {
+                    fs.get(loc, new TestOutputStream());
+                    Assert.fail("Should have received resource not found exception: " + loc);
+                } catch (ResourceNotFoundException e) {
+                    // expected
+                }
+            }
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testBatchDelete - end");
+        }
+    }
+    
+    @Test
+    public void testHead() {
+        try {
+            
+            log.info("testHead - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testHead";
+            this.createInstanceTestRoot(testDir);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(testDir, BucketMode.URIBUCKET);
+            fs.headThreads = 3;
+            List<StorageLocation> locations = new ArrayList<StorageLocation>();
+            List<StorageMetadata> expected = new ArrayList<StorageMetadata>();
+            for (int i = 0; i < 10; i++) {
+                NewArtifact newArtifact = new NewArtifact(URI.create("test:path/file-" + i));
+                StorageMetadata storageMetadata = fs.put(newArtifact, new ByteArrayInputStream(data));
+                locations.add(storageMetadata.getStorageLocation());
+                expected.add(storageMetadata);
+            }
+            
+            StorageMetadata first = fs.head(locations.get(0));
+            Assert.assertEquals("storageLocation", locations.get(0), first.getStorageLocation());
+            Assert.assertEquals("checksum", expected.get(0).getContentChecksum(), first.getContentChecksum());
+            Assert.assertEquals("length", Long.valueOf(data.length), first.getContentLength());
+            
+            StorageLocation missing = new StorageLocation(URI.create("uuid:" + UUID.randomUUID()));
+            missing.storageBucket = "abc";
+            try {
+                fs.head(missing);
+                Assert.fail("Should have received resource not found exception: " + missing);
+            } catch (ResourceNotFoundException e) {
+                // expected
+            }
+            locations.add(missing);
+            
+            // no bucket: fails on its own without failing the others
+            StorageLocation invalid = new StorageLocation(URI.create("uuid:" + UUID.randomUUID()));
+            locations.add(invalid);
+            
+            Map<StorageLocation, StorageMetadata> found = fs.head(locations);
+            Assert.assertEquals("found", expected.size(), found.size());
+            Assert.assertFalse("missing", found.containsKey(missing));
+            Assert.assertFalse("invalid", found.containsKey(invalid));
+            for (StorageMetadata sm : expected) {
+                StorageMetadata actual = found.get(sm.getStorageLocation());
+                Assert.assertNotNull("found: " + sm.getStorageLocation(), actual);
+                Assert.assertEquals("checksum", sm.getContentChecksum(), actual.getContentChecksum());
+                Assert.assertEquals("length", sm.getContentLength(), actual.getContentLength());
+            }
+            
+            try {
+                fs.head(Collections.singletonList(invalid));
+                Assert.fail("Should have received storage engage exception: " + invalid);
+            } catch (StorageEngageException e) {
+                // expected
+            }
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testHead - end");
+        }
+    }
+    
+    @Test
+    public void testPutOtherChecksum() {
+        try {
+            
+            log.info("testPutOtherChecksum - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testPutOtherChecksum";
+            this.createInstanceTestRoot(testDir);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(testDir, BucketMode.URIBUCKET);
+            URI md5 = URI.create("md5:" + HexUtil.toHex(MessageDigest.getInstance("MD5").digest(data)));
+            URI sha256 = URI.create("sha-256:" + HexUtil.toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+            
+            // verified against the provided sha-256, recorded as md5
+            NewArtifact newArtifact = new NewArtifact(URI.create("test:path/sha256"));
+            newArtifact.contentChecksum = sha256;
+            StorageMetadata storageMetadata = fs.put(newArtifact, new ByteArrayInputStream(data));
+            Assert.assertEquals("checksum", md5, storageMetadata.getContentChecksum());
+            Assert.assertEquals("recorded", md5, fs.head(storageMetadata.getStorageLocation()).getContentChecksum());
+            
+            newArtifact = new NewArtifact(URI.create("test:path/sha256-bad"));
+            newArtifact.contentChecksum = URI.create("sha-256:" + HexUtil.toHex(new byte[32]));
+            try {
+                fs.put(newArtifact, new ByteArrayInputStream(data));
+                Assert.fail("Should have received incorrect content checksum exception");
+            } catch (IncorrectContentChecksumException e) {
+                log.info("expected: " + e);
+            }
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testPutOtherChecksum - end");
+        }
+    }
+    
+    @Test
+    public void testGetTransferModeChannel() {
+        try {
+            
+            log.info("testGetTransferModeChannel - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testGetTransferModeChannel";
+            this.createInstanceTestRoot(testDir);
+            
+            URI artifactURI = URI.create("test:path/channel");
+            NewArtifact newArtifact = new NewArtifact(artifactURI);
+            ByteArrayInputStream source = new ByteArrayInputStream(data);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(
+                testDir, BucketMode.URIBUCKET, FileSystemStorageAdapter.TransferMode.CHANNEL);
+            StorageMetadata storageMetadata = fs.put(newArtifact, source);
+            
+            // buffered
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            fs.get(storageMetadata.getStorageLocation(), dest);
+            Assert.assertEquals("data", dataString, new String(dest.toByteArray()));
+            
+            // zero-copy
+            File copy = new File(testDir, "copy");
+            FileOutputStream fileDest = new FileOutputStream(copy);
+            try {
+                fs.get(storageMetadata.getStorageLocation(), fileDest);
+            } finally {
+                fileDest.close();
+            }
+            Assert.assertEquals("data", dataString, new String(Files.readAllBytes(copy.toPath())));
+            
+            fs.delete(storageMetadata.getStorageLocation());
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testGetTransferModeChannel - end");
+        }
+    }
+    
+    @Test
+    public void testRecordedChecksum() {
+        try {
+            
+            log.info("testRecordedChecksum - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testRecordedChecksum";
+            this.createInstanceTestRoot(testDir);
+            
+            URI artifactURI = URI.create("test:path/recorded");
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            URI checksum = URI.create("md5:" + HexUtil.toHex(md.digest(data)));
+            NewArtifact newArtifact = new NewArtifact(artifactURI);
+            ByteArrayInputStream source = new ByteArrayInputStream(data);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(testDir, BucketMode.URI);
+            StorageMetadata storageMetadata = fs.put(newArtifact, source);
+            Path path = Paths.get(testDir, artifactURI.toString());
+            
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (view == null || !view.list().contains(MetadataAttributes.CHECKSUM_ATTR)) {
+                log.warn("user attributes not supported by test file system: skipping");
+                return;
+            }
+            
+            // replace the recorded value: only visible if the file is not read again
+            URI recorded = URI.create("md5:" + HexUtil.toHex(md.digest("other".getBytes())));
+            view.write(MetadataAttributes.CHECKSUM_ATTR, ByteBuffer.wrap(recorded.getSchemeSpecificPart().getBytes()));
+            String bucket = storageMetadata.getStorageLocation().storageBucket;
+            Assert.assertEquals("recorded", recorded, fs.list(bucket).first().getContentChecksum());
+            
+            fs.verifyChecksums = true;
+            Assert.assertEquals("verified", checksum, fs.list(bucket).first().getContentChecksum());
+            fs.verifyChecksums = false;
+            Assert.assertEquals("re-recorded", checksum, fs.list(bucket).first().getContentChecksum());
+            
+            // a changed modification time invalidates the recorded value
+            view.write(MetadataAttributes.CHECKSUM_ATTR, ByteBuffer.wrap(recorded.getSchemeSpecificPart().getBytes()));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() - 60000L));
+            Assert.assertEquals("stale", checksum, fs.list(bucket).first().getContentChecksum());
+            
+            fs.delete(storageMetadata.getStorageLocation());
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testRecordedChecksum - end");
+        }
+    }
+    
+    @Test
+    public void testGetByteRanges() {
+        try {
+            
+            log.info("testGetByteRanges - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testGetByteRanges";
+            this.createInstanceTestRoot(testDir);
+            
+            URI artifactURI = URI.create("test:path/ranges");
+            NewArtifact newArtifact = new NewArtifact(artifactURI);
+            ByteArrayInputStream source = new ByteArrayInputStream(data);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(testDir, BucketMode.URIBUCKET);
+            StorageMetadata storageMetadata = fs.put(newArtifact, source);
+            
+            List<ByteRange> byteRanges = new ArrayList<ByteRange>();
+            byteRanges.add(new ByteRange(23, 3));
+            byteRanges.add(new ByteRange(0, 1));
+            byteRanges.add(new ByteRange(10, 5));
+            byteRanges.add(new ByteRange(24, 100)); // truncated
+            byteRanges.add(new ByteRange(100, 10)); // beyond end of file
+            
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            fs.get(storageMetadata.getStorageLocation(), dest, byteRanges);
+            
+            String resultData = new String(dest.toByteArray());
+            log.info("result data: " + resultData);
+            Assert.assertEquals("data", "xyzaklmnoyz", resultData);
+            
+            // a channel that sometimes takes nothing, like a non-blocking one
+            SlowChannelOutputStream slowDest = new SlowChannelOutputStream();
+            fs.get(storageMetadata.getStorageLocation(), slowDest, byteRanges);
+            Assert.assertEquals("data", "xyzaklmnoyz", new String(slowDest.toByteArray()));
+            Assert.assertTrue("zero writes", slowDest.zeroWrites > 0);
+            
+            fs.delete(storageMetadata.getStorageLocation());
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testGetByteRanges - end");
+        }
+    }
+    
+    private static class SlowChannelOutputStream extends ByteArrayOutputStream implements WritableByteChannel {
+        int writes = 0;
+        int zeroWrites = 0;
+        
+        @Override
+        public int write(ByteBuffer src) {
+            if (writes++ % 2 == 0) {
+                zeroWrites++;
+                return 0;
+            }
+            int num = Math.min(2, src.remaining());
+            for (int i = 0; i < num; i++) {
+                write(src.get());
+            }
+            return num;
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+    
     @Test
     public void testList_URIMode() {
         this.testList(BucketMode.URI);
@@ -269,6 +589,8 @@ public class FileSystemStorageAdapterTest {
                 Assert.assertEquals("checksum", checksum, next.getContentChecksum());
                 Assert.assertEquals("length", new Long(length), next.getContentLength());
                 Assert.assertEquals("artifactURI", orig.artifactURI, next.artifactURI);
+                Assert.assertEquals("storageBucket", orig.getStorageLocation().storageBucket,
+                    next.getStorageLocation().storageBucket);
                 visitedStorageIDs.add(nextStorageID);
                 count++;
             }
@@ -283,6 +605,115 @@ public class FileSystemStorageAdapterTest {
         }
     }
     
+    @Test
+    public void testSortedIterator() {
+        try {
+            
+            log.info("testSortedIterator - start");
+            
+            String testDir = TEST_ROOT + File.separator + "testSortedIterator";
+            this.createInstanceTestRoot(testDir);
+            
+            FileSystemStorageAdapter fs = new FileSystemStorageAdapter(testDir, BucketMode.URIBUCKET);
+            
+            // names that sort differently as paths and as strings
+            String[] files = new String[] {
+                "test:dir/file1",
+                "test:dir-1/file2",
+                "test:dir.x",
+                "test:dir/sub/file3",
+                "test:dir/sub-file4",
+                "test:dir0",
+                "other:file5",
+                "test:a/b/c/d/file6",
+            };
+            for (int i = 0; i < 40; i++) {
+                files = Arrays.copyOf(files, files.length + 1);
+                files[files.length - 1] = "test:many/file" + i;
+            }
+            
+            List<StorageMetadata> expected = new ArrayList<StorageMetadata>();
+            for (String file : files) {
+                NewArtifact newArtifact = new NewArtifact(URI.create(file));
+                expected.add(fs.put(newArtifact, new ByteArrayInputStream(data)));
+            }
+            Collections.sort(expected);
+            
+            List<StorageMetadata> actual = new ArrayList<StorageMetadata>();
+            Iterator<StorageMetadata> iter = fs.iterator();
+            while (iter.hasNext()) {
+                StorageMetadata next = iter.next();
+                log.debug("sorted: " + next.getStorageLocation());
+                actual.add(next);
+            }
+            Assert.assertEquals("count", expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                StorageLocation exp = expected.get(i).getStorageLocation();
+                StorageLocation act = actual.get(i).getStorageLocation();
+                Assert.assertEquals("storageID", exp.getStorageID(), act.getStorageID());
+                Assert.assertEquals("storageBucket", exp.storageBucket, act.storageBucket);
+                Assert.assertEquals("length", new Long(data.length), actual.get(i).getContentLength());
+            }
+            
+            // bucket prefix
+            String prefix = expected.get(expected.size() / 2).getStorageLocation().storageBucket.substring(0, 1);
+            int count = 0;
+            for (StorageMetadata sm : expected) {
+                if (sm.getStorageLocation().storageBucket.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            iter = fs.iterator(prefix);
+            StorageMetadata prev = null;
+            while (iter.hasNext()) {
+                StorageMetadata next = iter.next();
+                Assert.assertTrue("prefix", next.getStorageLocation().storageBucket.startsWith(prefix));
+                if (prev != null) {
+                    Assert.assertTrue("order", prev.compareTo(next) < 0);
+                }
+                prev = next;
+                count--;
+            }
+            Assert.assertEquals("prefix count", 0, count);
+            
+            Assert.assertFalse("empty bucket", fs.iterator("zz").hasNext());
+            
+            // parallel scan: same order
+            fs.scanThreads = 4;
+            iter = fs.iterator();
+            for (StorageMetadata sm : actual) {
+                Assert.assertTrue("hasNext", iter.hasNext());
+                Assert.assertEquals("parallel", sm.getStorageLocation(), iter.next().getStorageLocation());
+            }
+            Assert.assertFalse("parallel done", iter.hasNext());
+            Assert.assertEquals("parallel list", actual.size(), fs.list(null).size());
+            fs.scanThreads = 1;
+            
+            // single bucket: path order must match storageID order
+            String flatDir = TEST_ROOT + File.separator + "testSortedIterator-flat";
+            List<URI> storageIDs = new ArrayList<URI>();
+            for (String file : files) {
+                Path p = Paths.get(flatDir, file);
+                Files.createDirectories(p.getParent());
+                Files.write(p, data);
+                storageIDs.add(URI.create(file));
+            }
+            Collections.sort(storageIDs);
+            iter = new SortedFileSystemIterator(Paths.get(flatDir), 0, "", false);
+            for (URI storageID : storageIDs) {
+                Assert.assertTrue("hasNext", iter.hasNext());
+                Assert.assertEquals("storageID", storageID, iter.next().getStorageLocation().getStorageID());
+            }
+            Assert.assertFalse("done", iter.hasNext());
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            log.info("testSortedIterator - end");
+        }
+    }
+    
     @Test
     public void testIterateSubsetURIMode() {
         try {
@@ -0,0 +1,470 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.StorageLocation;
+
+/**
+ * Iterator that returns the StorageMetadata of an unordered source in natural (storageLocation) order.
+ * This is an external merge sort for adapters that cannot list in order: the source is read in runs
+ * that fit in the given memory budget, each run is sorted and written to a temporary file, and the
+ * run files are merged lazily as this iterator is consumed. When the whole source fits in the budget
+ * nothing is written to disk.
+ * 
+ * <p>At most maxFanIn run files are open at once. Runs are not opened while the source is read, and
+ * whenever maxFanIn runs of the same size have been written they are merged into one larger run, so
+ * the final merge has a bounded number of inputs however large the source is.
+ * 
+ * <p>The final run files are unlinked as soon as they are opened, so their space is reclaimed once the
+ * iterator is exhausted, closed, or garbage collected, even by callers that only see an Iterator.
+ * Where open files cannot be deleted they are deleted as they are merged, by close(), or on exit.
+ * 
+ * @author majorb
+ */
+public class SortedStorageMetadataIterator implements Iterator<StorageMetadata>, Closeable {
+    private static final Logger log = Logger.getLogger(SortedStorageMetadataIterator.class);
+
+    public static final long DEFAULT_BUFFER_SIZE = 64 * 1024 * 1024L; // 64MiB
+    public static final int DEFAULT_MAX_FAN_IN = 64;
+    
+    private static final String RUN_FILE_PREFIX = "storage-metadata-run-";
+    private static final int RUN_FILE_BUFFER_SIZE = 64 * 1024;
+    
+    // rough heap cost of a StorageMetadata and its StorageLocation, URIs, and boxed length
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+    
+    private final File tmpDir;
+    private final int maxFanIn;
+    
+    // run files that have not been deleted yet
+    private final List<File> runFiles = new ArrayList<>();
+    
+    // unopened run files by merge level: a run at level n holds about maxFanIn^n buffers
+    private final List<List<File>> levels = new ArrayList<>();
+    
+    private final PriorityQueue<Run> queue = new PriorityQueue<>();
+
+    /**
+     * Sort the source using at most the default buffer size of heap, spilling to the default
+     * temporary directory.
+     * 
+     * @param source the unordered metadata
+     * @throws IOException failure to read the source or write a run file
+     */
+    public SortedStorageMetadataIterator(Iterator<StorageMetadata> source) throws IOException {
+        this(source, DEFAULT_BUFFER_SIZE, null);
+    }
+    
+    /**
+     * Sort the source using at most bufferSize bytes of heap (approximately) for a run.
+     * 
+     * @param source the unordered metadata
+     * @param bufferSize heap budget in bytes for sorting one run in memory
+     * @param tmpDir directory for run files; null for the default temporary directory
+     * @throws IOException failure to read the source or write a run file
+     */
+    public SortedStorageMetadataIterator(Iterator<StorageMetadata> source, long bufferSize, File tmpDir)
+        throws IOException {
+        this(source, bufferSize, tmpDir, DEFAULT_MAX_FAN_IN);
+    }
+    
+    /**
+     * Sort the source using at most bufferSize bytes of heap (approximately) for a run, and at most
+     * maxFanIn open run files.
+     * 
+     * @param source the unordered metadata
+     * @param bufferSize heap budget in bytes for sorting one run in memory
+     * @param tmpDir directory for run files; null for the default temporary directory
+     * @param maxFanIn maximum number of run files merged at once
+     * @throws IOException failure to read the source or write a run file
+     */
+    public SortedStorageMetadataIterator(Iterator<StorageMetadata> source, long bufferSize, File tmpDir,
+        int maxFanIn) throws IOException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("invalid bufferSize: " + bufferSize);
+        }
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException("invalid maxFanIn: " + maxFanIn);
+        }
+        this.tmpDir = tmpDir;
+        this.maxFanIn = maxFanIn;
+        try {
+            List<StorageMetadata> buffer = new ArrayList<>();
+            long size = 0L;
+            while (source.hasNext()) {
+                StorageMetadata sm = source.next();
+                buffer.add(sm);
+                size += estimateSize(sm);
+                if (size >= bufferSize) {
+                    Collections.sort(buffer);
+                    addRun(0, writeRun(buffer.iterator()));
+                    buffer.clear();
+                    size = 0L;
+                }
+            }
+            
+            // merge down to maxFanIn runs, smallest first, then open them for the final merge
+            List<File> files = new ArrayList<>();
+            for (List<File> level : levels) {
+                files.addAll(level);
+            }
+            levels.clear();
+            while (files.size() > maxFanIn) {
+                List<File> inputs = files.subList(0, Math.min(maxFanIn, files.size() - maxFanIn + 1));
+                File merged = merge(inputs);
+                inputs.clear();
+                files.add(merged);
+            }
+            for (File f : files) {
+                add(open(f));
+            }
+            
+            // the last run is merged straight from memory
+            Collections.sort(buffer);
+            add(new MemoryRun(buffer.iterator()));
+            log.debug("merging " + files.size() + " run file(s) + " + buffer.size() + " in memory");
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+    
+    private static long estimateSize(StorageMetadata sm) {
+        long ret = ENTRY_OVERHEAD_BYTES;
+        StorageLocation loc = sm.getStorageLocation();
+        ret += 2 * loc.getStorageID().toString().length();
+        if (loc.storageBucket != null) {
+            ret += 2 * loc.storageBucket.length();
+        }
+        ret += 2 * sm.getContentChecksum().toString().length();
+        if (sm.artifactURI != null) {
+            ret += 2 * sm.artifactURI.toString().length();
+        }
+        return ret;
+    }
+    
+    // write the sorted entries to a new run file
+    private File writeRun(Iterator<StorageMetadata> sorted) throws IOException {
+        File f = File.createTempFile(RUN_FILE_PREFIX, ".bin", tmpDir);
+        runFiles.add(f);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f), RUN_FILE_BUFFER_SIZE))) {
+            while (sorted.hasNext()) {
+                write(out, sorted.next());
+            }
+        }
+        log.debug("wrote run: " + f + " bytes: " + f.length());
+        return f;
+    }
+    
+    // add a run file to a level, merging the level into the next one when it is full
+    private void addRun(int level, File f) throws IOException {
+        if (levels.size() == level) {
+            levels.add(new ArrayList<File>());
+        }
+        List<File> files = levels.get(level);
+        files.add(f);
+        if (files.size() == maxFanIn) {
+            File merged = merge(files);
+            files.clear();
+            addRun(level + 1, merged);
+        }
+    }
+    
+    // merge run files into a new one, deleting them
+    private File merge(List<File> inputs) throws IOException {
+        final PriorityQueue<Run> runs = new PriorityQueue<>();
+        try {
+            for (File f : inputs) {
+                Run run = new FileRun(f);
+                if (run.advance()) {
+                    runs.add(run);
+                } else {
+                    run.close();
+                }
+            }
+            File ret = writeRun(new Iterator<StorageMetadata>() {
+                @Override
+                public boolean hasNext() {
+                    return !runs.isEmpty();
+                }
+                
+                @Override
+                public StorageMetadata next() {
+                    Run run = runs.poll();
+                    StorageMetadata sm = run.current;
+                    try {
+                        if (run.advance()) {
+                            runs.add(run);
+                        } else {
+                            run.close();
+                        }
+                    } catch (IOException ex) {
+                        run.close();
+                        throw new RuntimeException("failed to read sorted run: " + ex.getMessage(), ex);
+                    }
+                    return sm;
+                }
+            });
+            log.debug("merged " + inputs.size() + " runs into " + ret);
+            runFiles.removeAll(inputs);
+            return ret;
+        } finally {
+            while (!runs.isEmpty()) {
+                runs.poll().close();
+            }
+        }
+    }
+    
+    // open a run file for the final merge, unlinking it where the platform allows
+    private Run open(File f) throws IOException {
+        Run ret = new FileRun(f);
+        if (f.delete()) {
+            runFiles.remove(f);
+        } else {
+            f.deleteOnExit();
+        }
+        return ret;
+    }
+    
+    private void add(Run run) throws IOException {
+        if (run.advance()) {
+            queue.add(run);
+        } else {
+            run.close();
+        }
+    }
+    
+    // number of runs in the final merge
+    int getRunCount() {
+        return queue.size();
+    }
+    
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public StorageMetadata next() {
+        Run run = queue.poll();
+        if (run == null) {
+            throw new NoSuchElementException();
+        }
+        StorageMetadata ret = run.current;
+        try {
+            add(run);
+        } catch (IOException ex) {
+            throw new RuntimeException("failed to read sorted run: " + ex.getMessage(), ex);
+        }
+        return ret;
+    }
+
+    /**
+     * Release the remaining run files. This is done automatically once the iterator is exhausted.
+     */
+    @Override
+    public void close() {
+        while (!queue.isEmpty()) {
+            queue.poll().close();
+        }
+        for (File f : runFiles) {
+            if (f.exists() && !f.delete()) {
+                log.warn("failed to delete run file: " + f);
+            }
+        }
+    }
+    
+    // compact binary form: storageID, optional storageBucket, contentChecksum, contentLength, optional artifactURI
+    static void write(DataOutputStream out, StorageMetadata sm) throws IOException {
+        StorageLocation loc = sm.getStorageLocation();
+        out.writeUTF(loc.getStorageID().toString());
+        writeOptional(out, loc.storageBucket);
+        out.writeUTF(sm.getContentChecksum().toString());
+        out.writeLong(sm.getContentLength());
+        writeOptional(out, (sm.artifactURI == null) ? null : sm.artifactURI.toString());
+    }
+    
+    // returns null at the end of the run
+    static StorageMetadata read(DataInputStream in) throws IOException {
+        String storageID;
+        try {
+            storageID = in.readUTF();
+        } catch (EOFException end) {
+            return null;
+        }
+        StorageLocation loc = new StorageLocation(URI.create(storageID));
+        loc.storageBucket = readOptional(in);
+        URI contentChecksum = URI.create(in.readUTF());
+        long contentLength = in.readLong();
+        StorageMetadata ret = new StorageMetadata(loc, contentChecksum, contentLength);
+        String artifactURI = readOptional(in);
+        if (artifactURI != null) {
+            ret.artifactURI = URI.create(artifactURI);
+        }
+        return ret;
+    }
+    
+    private static void writeOptional(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+    
+    private static String readOptional(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+    
+    private abstract static class Run implements Comparable<Run> {
+        StorageMetadata current;
+        
+        // load the next entry into current; false when the run is exhausted
+        abstract boolean advance() throws IOException;
+        
+        abstract void close();
+        
+        @Override
+        public int compareTo(Run rhs) {
+            return current.compareTo(rhs.current);
+        }
+    }
+    
+    private static class MemoryRun extends Run {
+        private final Iterator<StorageMetadata> iter;
+        
+        MemoryRun(Iterator<StorageMetadata> iter) {
+            this.iter = iter;
+        }
+        
+        @Override
+        boolean advance() {
+            if (iter.hasNext()) {
+                current = iter.next();
+                return true;
+            }
+            current = null;
+            return false;
+        }
+        
+        @Override
+        void close() {
+            current = null;
+        }
+    }
+    
+    private static class FileRun extends Run {
+        private final File file;
+        private final DataInputStream in;
+        
+        FileRun(File file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_FILE_BUFFER_SIZE));
+        }
+        
+        @Override
+        boolean advance() throws IOException {
+            current = read(in);
+            return current != null;
+        }
+        
+        @Override
+        void close() {
+            current = null;
+            try {
+                in.close();
+            } catch (IOException ex) {
+                log.debug("failed to close run file: " + file, ex);
+            }
+            if (file.exists() && !file.delete()) {
+                log.warn("failed to delete run file: " + file);
+            }
+        }
+    }
+}
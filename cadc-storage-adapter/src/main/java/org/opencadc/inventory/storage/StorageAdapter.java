@@ -78,7 +78,10 @@ import ca.nrc.cadc.net.TransientException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import org.opencadc.inventory.StorageLocation;
@@ -121,7 +124,54 @@ public interface StorageAdapter {
      */
     public void get(StorageLocation storageLocation, OutputStream dest, Set<String> operations)
         throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException;
+
+    /**
+     * Get from storage the specified byte ranges of the artifact identified by storageLocation.
+     * The bytes of each range are written to dest in the order the ranges are listed, with
+     * nothing in between. A range that extends beyond the end of the stored object is truncated
+     * to the bytes that are available.
+     *
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @param dest The destination stream.
+     * @param byteRanges The byte ranges to get.
+     *
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the storage system failed to stream.
+     * @throws WriteException If the client failed to stream.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    public void get(StorageLocation storageLocation, OutputStream dest, List<ByteRange> byteRanges)
+        throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException;
+
+    /**
+     * Get the metadata of the artifact identified by storageLocation without reading its content.
+     * 
+     * @param storageLocation The storage location containing storageID and storageBucket.
+     * @return The storage metadata: contentLength, contentChecksum, and artifactURI if recorded.
+     * 
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    public StorageMetadata head(StorageLocation storageLocation)
+        throws ResourceNotFoundException, StorageEngageException, TransientException;
     
+    /**
+     * Get the metadata of the artifacts identified by storageLocations without reading their
+     * content. Implementations make the requests concurrently; the failure to read one artifact
+     * does not stop the others.
+     * 
+     * @param storageLocations The storage locations.
+     * @return The storage metadata by storage location. Artifacts that could not be found, or
+     *     whose metadata could not be read, are not included.
+     * 
+     * @throws StorageEngageException If the metadata of every artifact could not be read.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    public Map<StorageLocation, StorageMetadata> head(Collection<StorageLocation> storageLocations)
+        throws StorageEngageException, TransientException;
+
     /**
      * Write an artifact to storage. The returned storage location will be used for future get and 
      * delete calls. If the storage implementation overwrites a previously used StorageLocation, it must
@@ -164,6 +214,21 @@ public interface StorageAdapter {
      */
     public void delete(StorageLocation storageLocation)
         throws ResourceNotFoundException, IOException, StorageEngageException, TransientException;
+
+    /**
+     * Delete from storage the artifacts identified by storageLocations. Implementations delete in
+     * batches or concurrently; the failure to delete one artifact does not stop the others.
+     * 
+     * @param storageLocations Identifies the artifacts to delete.
+     * @return The artifacts that were not deleted, each with the cause: ResourceNotFoundException
+     *     if the artifact could not be found, where the storage can tell (an S3 batch delete of a
+     *     missing key succeeds). Empty if all were deleted.
+     * 
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred. 
+     */
+    public Map<StorageLocation, Exception> delete(Collection<StorageLocation> storageLocations)
+        throws StorageEngageException, TransientException;
     
     /**
      * Iterator of items ordered by their storageIDs.
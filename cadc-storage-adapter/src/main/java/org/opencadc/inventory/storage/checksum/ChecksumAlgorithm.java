@@ -0,0 +1,172 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.checksum;
+
+import ca.nrc.cadc.util.HexUtil;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Checksum algorithms supported by storage adapters. Each algorithm is identified by the
+ * scheme used in checksum URIs (e.g. Artifact.contentChecksum) and maps to a JCA digest.
+ * 
+ * @author majorb
+ */
+public enum ChecksumAlgorithm {
+    MD5("md5", "MD5"),
+    SHA1("sha-1", "SHA-1"),
+    SHA256("sha-256", "SHA-256"),
+    SHA512("sha-512", "SHA-512");
+    
+    private final String scheme;
+    private final String digestAlgorithm;
+    
+    private ChecksumAlgorithm(String scheme, String digestAlgorithm) {
+        this.scheme = scheme;
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * @return the checksum URI scheme
+     */
+    public String getScheme() {
+        return scheme;
+    }
+
+    /**
+     * @return the JCA MessageDigest algorithm name
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+    
+    /**
+     * Create a checksum URI from a digest value.
+     * 
+     * @param digest the digest value
+     * @return checksum URI in the form scheme:hex
+     */
+    public URI toChecksum(byte[] digest) {
+        return URI.create(scheme + ":" + HexUtil.toHex(digest));
+    }
+    
+    MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("BUG: failed to create " + digestAlgorithm + " digest", ex);
+        }
+    }
+    
+    /**
+     * Find the algorithm for a checksum URI scheme.
+     * 
+     * @param scheme checksum URI scheme
+     * @return the algorithm or null if the scheme is not supported
+     */
+    public static ChecksumAlgorithm forScheme(String scheme) {
+        for (ChecksumAlgorithm ca : values()) {
+            if (ca.scheme.equalsIgnoreCase(scheme)) {
+                return ca;
+            }
+        }
+        return null;
+    }
+    
+    static ChecksumAlgorithm forDigestAlgorithm(String digestAlgorithm) {
+        for (ChecksumAlgorithm ca : values()) {
+            if (ca.digestAlgorithm.equalsIgnoreCase(digestAlgorithm)) {
+                return ca;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Negotiate the algorithms to compute for an incoming stream: the algorithm the storage
+     * system records plus the algorithm of the checksum provided by the client, if that one is
+     * supported, so both can be computed in a single pass.
+     * 
+     * @param stored the algorithm recorded by the storage system
+     * @param expected the checksum provided by the client, may be null
+     * @return the algorithms to compute
+     */
+    public static Set<ChecksumAlgorithm> negotiate(ChecksumAlgorithm stored, URI expected) {
+        Set<ChecksumAlgorithm> ret = EnumSet.of(stored);
+        if (expected != null) {
+            ChecksumAlgorithm ca = forScheme(expected.getScheme());
+            if (ca != null) {
+                ret.add(ca);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.checksum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.InventoryUtil;
+
+/**
+ * Compute one or more digests of a byte stream in a single pass. In threaded mode the bytes
+ * are copied into chunks that are digested by a worker thread, so digest computation overlaps
+ * with the I/O of the caller instead of adding to it. Small updates are collected into full
+ * chunks before they are handed off.
+ * 
+ * @author majorb
+ */
+public class DigestPipeline implements Closeable {
+    private static final Logger log = Logger.getLogger(DigestPipeline.class);
+    
+    static final int CHUNK_SIZE = 64 * 1024;
+    
+    // max number of chunks waiting for the worker; bounds memory use to (QUEUE_DEPTH + 2) chunks
+    static final int QUEUE_DEPTH = 8;
+    
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(runnable -> {
+        Thread t = new Thread(runnable, "digest-pipeline");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private static final Chunk END = new Chunk(null, -1);
+    
+    private final Map<ChecksumAlgorithm, MessageDigest> digests = new EnumMap<>(ChecksumAlgorithm.class);
+    private final BlockingQueue<Chunk> pending;
+    private final BlockingQueue<byte[]> free;
+    private final Future<Void> worker;
+    
+    private byte[] fill;
+    private int fillLength = 0;
+    private Map<ChecksumAlgorithm, URI> checksums;
+    private boolean closed = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param algorithms the algorithms to compute
+     * @param threaded compute the digests on a worker thread
+     */
+    public DigestPipeline(Set<ChecksumAlgorithm> algorithms, boolean threaded) {
+        InventoryUtil.assertNotNull(DigestPipeline.class, "algorithms", algorithms);
+        if (algorithms.isEmpty()) {
+            throw new IllegalArgumentException("no checksum algorithms");
+        }
+        for (ChecksumAlgorithm ca : algorithms) {
+            digests.put(ca, DigestPool.acquire(ca));
+        }
+        if (threaded) {
+            this.pending = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+            this.free = new ArrayBlockingQueue<>(QUEUE_DEPTH + 1);
+            this.fill = new byte[CHUNK_SIZE];
+            this.worker = WORKERS.submit(this::digestLoop);
+        } else {
+            this.pending = null;
+            this.free = null;
+            this.worker = null;
+        }
+    }
+    
+    /**
+     * Add bytes to the digests.
+     * 
+     * @param b the bytes
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @throws IOException if interrupted while waiting for the worker
+     */
+    public void update(byte[] b, int off, int len) throws IOException {
+        if (checksums != null || closed) {
+            throw new IllegalStateException("digest already complete");
+        }
+        if (worker == null) {
+            for (MessageDigest md : digests.values()) {
+                md.update(b, off, len);
+            }
+            return;
+        }
+        while (len > 0) {
+            int n = Math.min(len, fill.length - fillLength);
+            System.arraycopy(b, off, fill, fillLength, n);
+            fillLength += n;
+            off += n;
+            len -= n;
+            if (fillLength == fill.length) {
+                handOff();
+            }
+        }
+    }
+    
+    /**
+     * Complete the digests. The pipeline does not accept more bytes after this.
+     * 
+     * @return checksum URIs by algorithm
+     * @throws IOException if interrupted while waiting for the worker
+     */
+    public Map<ChecksumAlgorithm, URI> digest() throws IOException {
+        if (checksums != null) {
+            return checksums;
+        }
+        if (closed) {
+            throw new IllegalStateException("closed");
+        }
+        if (worker != null) {
+            if (fillLength > 0) {
+                handOff();
+            }
+            try {
+                pending.put(END);
+                worker.get();
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException("interrupted while computing checksum");
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("BUG: checksum computation failed", ex.getCause());
+            }
+        }
+        Map<ChecksumAlgorithm, URI> ret = new EnumMap<>(ChecksumAlgorithm.class);
+        for (Map.Entry<ChecksumAlgorithm, MessageDigest> me : digests.entrySet()) {
+            ret.put(me.getKey(), me.getKey().toChecksum(me.getValue().digest()));
+        }
+        this.checksums = Collections.unmodifiableMap(ret);
+        log.debug("checksums: " + checksums);
+        return checksums;
+    }
+
+    /**
+     * Stop the worker and return the digests to the pool when they are no longer in use.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (worker != null && !worker.isDone()) {
+            // the worker may still be updating the digests so they cannot go back to the pool
+            worker.cancel(true);
+            return;
+        }
+        for (MessageDigest md : digests.values()) {
+            DigestPool.release(md);
+        }
+    }
+    
+    private void handOff() throws IOException {
+        try {
+            pending.put(new Chunk(fill, fillLength));
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("interrupted while computing checksum");
+        }
+        fill = free.poll();
+        if (fill == null) {
+            fill = new byte[CHUNK_SIZE];
+        }
+        fillLength = 0;
+    }
+    
+    private Void digestLoop() throws InterruptedException {
+        Chunk c = pending.take();
+        while (c != END) {
+            for (MessageDigest md : digests.values()) {
+                md.update(c.buf, 0, c.length);
+            }
+            free.offer(c.buf);
+            c = pending.take();
+        }
+        return null;
+    }
+    
+    private static class Chunk {
+        final byte[] buf;
+        final int length;
+        
+        Chunk(byte[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.checksum;
+
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of MessageDigest instances so that each put does not have to look up the security
+ * provider and allocate new digest state. Digests are reset when released.
+ * 
+ * @author majorb
+ */
+public final class DigestPool {
+    
+    // max number of idle digests kept per algorithm
+    static final int MAX_IDLE = 32;
+    
+    private static final Map<ChecksumAlgorithm, BlockingQueue<MessageDigest>> IDLE =
+        new EnumMap<>(ChecksumAlgorithm.class);
+    
+    static {
+        for (ChecksumAlgorithm ca : ChecksumAlgorithm.values()) {
+            IDLE.put(ca, new ArrayBlockingQueue<>(MAX_IDLE));
+        }
+    }
+
+    private DigestPool() {
+    }
+    
+    /**
+     * Get a digest from the pool, creating one if none are idle.
+     * 
+     * @param algorithm the digest algorithm
+     * @return a digest in the initial state
+     */
+    public static MessageDigest acquire(ChecksumAlgorithm algorithm) {
+        MessageDigest ret = IDLE.get(algorithm).poll();
+        if (ret == null) {
+            ret = algorithm.createDigest();
+        }
+        return ret;
+    }
+    
+    /**
+     * Return a digest to the pool. The digest must not be used by the caller after release.
+     * 
+     * @param digest a digest from acquire
+     */
+    public static void release(MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        ChecksumAlgorithm algorithm = ChecksumAlgorithm.forDigestAlgorithm(digest.getAlgorithm());
+        if (algorithm != null) {
+            digest.reset();
+            IDLE.get(algorithm).offer(digest);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fits;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A cutout of one HDU of a FITS file, in the CFITSIO image section syntax:
+ * <code>[ext][x1:x2,y1:y2]</code>. The extension is optional and is an HDU number
+ * (0 is the primary HDU), an EXTNAME, or an EXTNAME and EXTVER (<code>[SCI,2]</code>).
+ * Pixel ranges are 1-based and inclusive; <code>*</code> selects a whole axis and a
+ * single number selects one pixel. The section is optional; without it the whole HDU
+ * is selected.
+ * 
+ * @author majorb
+ */
+public class FitsCutout {
+
+    private static final Pattern GROUP = Pattern.compile("\\[([^\\[\\]]*)\\]");
+    
+    private final String spec;
+    private Integer extIndex;
+    private String extName;
+    private Integer extVersion;
+    
+    // per axis {first, last} pixel, 1-based inclusive; null for a whole axis
+    private List<long[]> section;
+    
+    private FitsCutout(String spec) {
+        this.spec = spec;
+    }
+    
+    /**
+     * @param operation a storage operation
+     * @return true if the operation is a cutout specification
+     */
+    public static boolean isCutout(String operation) {
+        return operation != null && operation.trim().startsWith("[");
+    }
+    
+    /**
+     * Parse a cutout specification.
+     * 
+     * @param spec the cutout
+     * @return the parsed cutout
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    public static FitsCutout parse(String spec) {
+        FitsCutout ret = new FitsCutout(spec);
+        String s = spec.trim();
+        List<String> groups = new ArrayList<>();
+        Matcher m = GROUP.matcher(s);
+        int end = 0;
+        while (m.find()) {
+            if (m.start() != end) {
+                throw new IllegalArgumentException("invalid cutout: " + spec);
+            }
+            groups.add(m.group(1).trim());
+            end = m.end();
+        }
+        if (end != s.length() || groups.isEmpty() || groups.size() > 2) {
+            throw new IllegalArgumentException("invalid cutout: " + spec);
+        }
+        if (groups.size() == 2) {
+            ret.parseExtension(groups.get(0));
+            ret.parseSection(groups.get(1));
+        } else if (isSection(groups.get(0))) {
+            ret.parseSection(groups.get(0));
+        } else {
+            ret.parseExtension(groups.get(0));
+        }
+        return ret;
+    }
+    
+    private static boolean isSection(String s) {
+        return s.contains(":") || s.contains("*");
+    }
+    
+    private void parseExtension(String s) {
+        if (s.isEmpty()) {
+            throw new IllegalArgumentException("invalid cutout extension: " + spec);
+        }
+        try {
+            int comma = s.indexOf(',');
+            if (comma > 0) {
+                extName = s.substring(0, comma).trim();
+                extVersion = Integer.parseInt(s.substring(comma + 1).trim());
+            } else if (Character.isDigit(s.charAt(0))) {
+                extIndex = Integer.parseInt(s);
+            } else {
+                extName = s;
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid cutout extension: " + spec, ex);
+        }
+    }
+    
+    private void parseSection(String s) {
+        section = new ArrayList<>();
+        for (String axis : s.split(",")) {
+            String a = axis.trim();
+            if ("*".equals(a)) {
+                section.add(null);
+                continue;
+            }
+            try {
+                int colon = a.indexOf(':');
+                long first;
+                long last;
+                if (colon > 0) {
+                    first = Long.parseLong(a.substring(0, colon).trim());
+                    last = Long.parseLong(a.substring(colon + 1).trim());
+                } else {
+                    first = Long.parseLong(a);
+                    last = first;
+                }
+                if (first < 1 || last < first) {
+                    throw new IllegalArgumentException("invalid cutout pixel range " + a + ": " + spec);
+                }
+                section.add(new long[] {first, last});
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("invalid cutout pixel range " + a + ": " + spec, ex);
+            }
+        }
+    }
+    
+    /**
+     * @return true if an extension was specified
+     */
+    public boolean hasExtension() {
+        return extIndex != null || extName != null;
+    }
+    
+    /**
+     * @return true if a pixel section was specified
+     */
+    public boolean hasSection() {
+        return section != null;
+    }
+    
+    /**
+     * Check if the specified extension is the HDU.
+     * 
+     * @param header the HDU header
+     * @param index the HDU number
+     * @return true if the extension matches
+     */
+    public boolean matches(FitsHeader header, int index) {
+        if (extIndex != null) {
+            return extIndex == index;
+        }
+        if (extName == null || !extName.equalsIgnoreCase(header.getValue("EXTNAME"))) {
+            return false;
+        }
+        return extVersion == null || extVersion == header.getIntValue("EXTVER", 1);
+    }
+    
+    /**
+     * Compute the pixels of an image selected by this cutout, clipped to the image.
+     * 
+     * @param dims size of each axis of the image
+     * @return per axis {first, last} pixel, 0-based inclusive
+     * @throws IllegalArgumentException if the section does not match or overlap the image
+     */
+    public long[][] getBounds(long[] dims) {
+        List<long[]> sec = (section == null) ? Collections.emptyList() : section;
+        if (sec.size() > dims.length) {
+            throw new IllegalArgumentException("cutout has " + sec.size() + " axes, image has " + dims.length + ": "
+                + spec);
+        }
+        long[][] ret = new long[dims.length][];
+        for (int i = 0; i < dims.length; i++) {
+            long[] r = (i < sec.size()) ? sec.get(i) : null;
+            if (r == null) {
+                ret[i] = new long[] {0L, dims[i] - 1};
+            } else {
+                if (r[0] > dims[i]) {
+                    throw new IllegalArgumentException("cutout does not overlap image axis " + (i + 1) + ": " + spec);
+                }
+                ret[i] = new long[] {r[0] - 1, Math.min(r[1], dims[i]) - 1};
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fits;
+
+import ca.nrc.cadc.io.ReadException;
+import ca.nrc.cadc.io.WriteException;
+import ca.nrc.cadc.net.ResourceNotFoundException;
+import ca.nrc.cadc.net.TransientException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
+import org.opencadc.inventory.storage.StorageAdapter;
+import org.opencadc.inventory.storage.StorageEngageException;
+
+/**
+ * Apply storage operations to a stored FITS file using byte range requests. Operations in the
+ * FitsCutout syntax select pixels of uncompressed images (or whole HDUs): only the row segments
+ * that intersect each section are read, and they are streamed straight to the output. Any other
+ * operation returns the headers of the file.
+ * 
+ * <p>A single cutout of the primary HDU is written as a primary HDU. Otherwise the output is the
+ * primary header without data followed by one IMAGE extension per cutout. In both cases NAXISn
+ * and CRPIXn are adjusted to the section.
+ * 
+ * @author majorb
+ */
+public class FitsCutoutWriter {
+    private static final Logger log = Logger.getLogger(FitsCutoutWriter.class);
+
+    // row segments per ranged get call
+    static final int MAX_RANGES = 1024;
+    
+    private static final Pattern CRPIX = Pattern.compile("CRPIX(\\d+)[A-Z]?");
+    private static final Pattern NAXIS = Pattern.compile("NAXIS(\\d+)");
+    
+    private final StorageAdapter storageAdapter;
+    private final StorageLocation storageLocation;
+    
+    public FitsCutoutWriter(StorageAdapter storageAdapter, StorageLocation storageLocation) {
+        this.storageAdapter = storageAdapter;
+        this.storageLocation = storageLocation;
+    }
+    
+    /**
+     * Write the result of the operations to the output.
+     * 
+     * @param operations cutouts to apply; operations that are not cutouts select the headers
+     * @param dest The destination stream.
+     * @throws IllegalArgumentException If a cutout is invalid or does not match the file.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the file is not FITS or the storage system failed to stream.
+     * @throws WriteException If the client failed to stream.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    public void write(Set<String> operations, OutputStream dest)
+        throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException {
+        List<FitsCutout> cutouts = new ArrayList<>();
+        for (String op : operations) {
+            if (FitsCutout.isCutout(op)) {
+                cutouts.add(FitsCutout.parse(op));
+            }
+        }
+        
+        FitsHeaderReader reader = new FitsHeaderReader(storageAdapter, storageLocation);
+        if (cutouts.isEmpty()) {
+            reader.writeHeaders(dest);
+            return;
+        }
+        
+        List<FitsHeader> headers = new ArrayList<>();
+        FitsHeader h;
+        while ((h = reader.next()) != null) {
+            headers.add(h);
+        }
+        
+        List<FitsHeader> targets = new ArrayList<>(cutouts.size());
+        for (FitsCutout c : cutouts) {
+            targets.add(findHDU(c, headers));
+        }
+        
+        try {
+            FitsHeader primary = headers.get(0);
+            if (cutouts.size() == 1 && targets.get(0) == primary) {
+                writeImage(primary, cutouts.get(0), false, dest);
+                return;
+            }
+            
+            primary.writeWithoutData(dest);
+            for (int i = 0; i < cutouts.size(); i++) {
+                FitsHeader target = targets.get(i);
+                if (target == primary) {
+                    writeImage(target, cutouts.get(i), true, dest);
+                } else if (cutouts.get(i).hasSection()) {
+                    writeImage(target, cutouts.get(i), false, dest);
+                } else {
+                    // whole extension: copy as-is, including the data padding
+                    target.write(dest);
+                    long dataLength = FitsHeader.pad(target.getDataSize());
+                    if (dataLength > 0L) {
+                        ByteRange data = new ByteRange(target.getDataOffset(), dataLength);
+                        writeRanges(Collections.singletonList(data), dest);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new WriteException(ex.getMessage(), ex);
+        }
+    }
+    
+    private FitsHeader findHDU(FitsCutout cutout, List<FitsHeader> headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            FitsHeader h = headers.get(i);
+            if (cutout.hasExtension()) {
+                if (cutout.matches(h, i)) {
+                    return h;
+                }
+            } else if (isImage(h) && h.getDataSize() > 0L) {
+                // default: the first image with data
+                return h;
+            }
+        }
+        throw new IllegalArgumentException("no matching HDU for cutout " + cutout + " in " + storageLocation);
+    }
+    
+    private static boolean isImage(FitsHeader h) {
+        if (h.isPrimary()) {
+            return !"T".equals(h.getValue("GROUPS"));
+        }
+        return "IMAGE".equals(h.getValue(FitsHeader.XTENSION));
+    }
+    
+    private void writeImage(FitsHeader header, FitsCutout cutout, boolean toExtension, OutputStream dest)
+        throws IOException, ResourceNotFoundException, ReadException, WriteException, StorageEngageException,
+            TransientException {
+        if (!isImage(header) || header.getIntValue("NAXIS", 0) == 0) {
+            throw new IllegalArgumentException("cutout " + cutout + " requires an image with data: " 
+                + header.getValue(FitsHeader.XTENSION));
+        }
+        int naxis = header.getIntValue("NAXIS", 0);
+        long[] dims = new long[naxis];
+        for (int i = 0; i < naxis; i++) {
+            dims[i] = header.getLongValue("NAXIS" + (i + 1), 0L);
+        }
+        long[][] bounds = cutout.getBounds(dims);
+        
+        FitsHeader.write(dest, getCutoutCards(header, bounds, toExtension));
+        
+        long bytesPerPixel = Math.abs(header.getIntValue("BITPIX", 8)) / 8;
+        long segmentLength = bytesPerPixel * (bounds[0][1] - bounds[0][0] + 1);
+        long numSegments = 1L;
+        for (int i = 1; i < naxis; i++) {
+            numSegments *= bounds[i][1] - bounds[i][0] + 1;
+        }
+        long dataLength = segmentLength * numSegments;
+        log.debug("cutout " + cutout + ": " + numSegments + " segments of " + segmentLength + " bytes");
+        
+        // odometer over the axes above the first, starting at the lower corner
+        long[] index = new long[naxis];
+        for (int i = 0; i < naxis; i++) {
+            index[i] = bounds[i][0];
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        ByteRange prev = null;
+        for (long n = 0; n < numSegments; n++) {
+            long pixel = 0L;
+            for (int i = naxis - 1; i >= 0; i--) {
+                pixel = pixel * dims[i] + index[i];
+            }
+            long offset = header.getDataOffset() + bytesPerPixel * pixel;
+            if (prev != null && prev.getOffset() + prev.getLength() == offset) {
+                // adjacent rows of a full width section
+                prev = new ByteRange(prev.getOffset(), prev.getLength() + segmentLength);
+                ranges.set(ranges.size() - 1, prev);
+            } else {
+                if (ranges.size() == MAX_RANGES) {
+                    writeRanges(ranges, dest);
+                    ranges.clear();
+                }
+                prev = new ByteRange(offset, segmentLength);
+                ranges.add(prev);
+            }
+            for (int i = 1; i < naxis; i++) {
+                if (index[i] < bounds[i][1]) {
+                    index[i]++;
+                    break;
+                }
+                index[i] = bounds[i][0];
+            }
+        }
+        writeRanges(ranges, dest);
+        
+        long padding = FitsHeader.pad(dataLength) - dataLength;
+        dest.write(new byte[(int) padding]);
+    }
+    
+    // write ranges from storage and check that they were not truncated
+    private void writeRanges(List<ByteRange> ranges, OutputStream dest)
+        throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException {
+        long len = 0L;
+        for (ByteRange br : ranges) {
+            len += br.getLength();
+        }
+        CountingOutputStream out = new CountingOutputStream(dest);
+        storageAdapter.get(storageLocation, out, ranges);
+        if (out.count != len) {
+            throw new ReadException("truncated FITS data in " + storageLocation + ": read " + out.count + " of " 
+                + len + " bytes");
+        }
+    }
+    
+    private static List<String> getCutoutCards(FitsHeader header, long[][] bounds, boolean toExtension) {
+        List<String> ret = new ArrayList<>();
+        int naxis = bounds.length;
+        for (String card : header.getCards()) {
+            String key = FitsHeader.getKeyword(card);
+            Matcher nm = NAXIS.matcher(key);
+            Matcher cm = CRPIX.matcher(key);
+            if (toExtension && FitsHeader.SIMPLE.equals(key)) {
+                ret.add(String.format("%-80s", "XTENSION= 'IMAGE   '           / image extension"));
+            } else if (toExtension && "EXTEND".equals(key)) {
+                continue;
+            } else if ("CHECKSUM".equals(key) || "DATASUM".equals(key)) {
+                // no longer valid
+                continue;
+            } else if (nm.matches() && Integer.parseInt(nm.group(1)) <= naxis) {
+                int i = Integer.parseInt(nm.group(1)) - 1;
+                ret.add(FitsHeader.formatCard(card, bounds[i][1] - bounds[i][0] + 1));
+                if (toExtension && i == naxis - 1) {
+                    ret.add(FitsHeader.formatCard(String.format("%-80s", "PCOUNT"), 0L));
+                    ret.add(FitsHeader.formatCard(String.format("%-80s", "GCOUNT"), 1L));
+                }
+            } else if (cm.matches() && Integer.parseInt(cm.group(1)) <= naxis) {
+                int i = Integer.parseInt(cm.group(1)) - 1;
+                String val = header.getValue(key);
+                if (val == null) {
+                    throw new IllegalArgumentException("invalid " + key + " card: " + card);
+                }
+                try {
+                    double crpix = Double.parseDouble(val.replace('D', 'E')) - bounds[i][0];
+                    ret.add(FitsHeader.formatCard(card, Double.toString(crpix)));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("invalid " + key + " value: " + val, ex);
+                }
+            } else {
+                ret.add(card);
+            }
+        }
+        return ret;
+    }
+    
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0L;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
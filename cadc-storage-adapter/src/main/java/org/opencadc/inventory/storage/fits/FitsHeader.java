@@ -0,0 +1,310 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fits;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The header of one HDU in a FITS file, with the location and size of its data unit.
+ * Only the keywords needed to navigate the file are interpreted; all cards are kept
+ * as-is so the header can be written back out.
+ * 
+ * @author majorb
+ */
+public class FitsHeader {
+
+    public static final int BLOCK_SIZE = 2880;
+    public static final int CARD_SIZE = 80;
+    
+    static final String SIMPLE = "SIMPLE";
+    static final String XTENSION = "XTENSION";
+    static final String END = "END";
+    
+    private final long offset;
+    private final List<String> cards;
+    
+    /**
+     * Constructor.
+     * 
+     * @param offset byte offset of the header in the file
+     * @param cards the 80 character header cards, up to and including END
+     */
+    public FitsHeader(long offset, List<String> cards) {
+        this.offset = offset;
+        this.cards = Collections.unmodifiableList(new ArrayList<>(cards));
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public List<String> getCards() {
+        return cards;
+    }
+    
+    /**
+     * @return true if this is the primary header
+     */
+    public boolean isPrimary() {
+        return !cards.isEmpty() && SIMPLE.equals(getKeyword(cards.get(0)));
+    }
+    
+    /**
+     * @return byte offset of the data unit in the file
+     */
+    public long getDataOffset() {
+        return offset + pad(cards.size() * (long) CARD_SIZE);
+    }
+    
+    /**
+     * Compute the size of the data unit from BITPIX, NAXISn, PCOUNT, and GCOUNT.
+     * 
+     * @return size of the data unit in bytes, not including the padding to a full block
+     */
+    public long getDataSize() {
+        int naxis = getIntValue("NAXIS", 0);
+        if (naxis == 0) {
+            return 0L;
+        }
+        int first = 1;
+        if (isPrimary() && getIntValue("NAXIS1", -1) == 0 && "T".equals(getValue("GROUPS"))) {
+            // random groups: NAXIS1 = 0 is a placeholder
+            first = 2;
+        }
+        long num = 1L;
+        for (int i = first; i <= naxis; i++) {
+            num *= getLongValue("NAXIS" + i, 0L);
+        }
+        long bytesPerValue = Math.abs(getIntValue("BITPIX", 8)) / 8;
+        return bytesPerValue * getLongValue("GCOUNT", 1L) * (getLongValue("PCOUNT", 0L) + num);
+    }
+    
+    /**
+     * @return byte offset of the next HDU in the file
+     */
+    public long getNextOffset() {
+        return getDataOffset() + pad(getDataSize());
+    }
+    
+    /**
+     * Find the value of a keyword. String values are returned without quotes or trailing blanks.
+     * 
+     * @param keyword the keyword
+     * @return the value, or null if the keyword is not found or has no value
+     */
+    public String getValue(String keyword) {
+        for (String card : cards) {
+            if (keyword.equals(getKeyword(card))) {
+                return parseValue(card);
+            }
+        }
+        return null;
+    }
+    
+    public int getIntValue(String keyword, int defaultValue) {
+        return (int) getLongValue(keyword, defaultValue);
+    }
+    
+    public long getLongValue(String keyword, long defaultValue) {
+        String val = getValue(keyword);
+        if (val == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(val);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid " + keyword + " value: " + val, ex);
+        }
+    }
+    
+    /**
+     * Write the header cards padded to a full block.
+     * 
+     * @param out destination
+     * @throws IOException failure to write
+     */
+    public void write(OutputStream out) throws IOException {
+        write(out, cards);
+    }
+    
+    /**
+     * Write the header modified to describe an empty data unit: NAXISn and PCOUNT are set to 0.
+     * 
+     * @param out destination
+     * @throws IOException failure to write
+     */
+    public void writeWithoutData(OutputStream out) throws IOException {
+        List<String> ret = new ArrayList<>(cards.size());
+        for (String card : cards) {
+            String key = getKeyword(card);
+            if ((key.startsWith("NAXIS") && key.length() > 5) || "PCOUNT".equals(key)) {
+                ret.add(formatCard(card, 0L));
+            } else {
+                ret.add(card);
+            }
+        }
+        write(out, ret);
+    }
+    
+    static void write(OutputStream out, List<String> cards) throws IOException {
+        StringBuilder sb = new StringBuilder((int) pad(cards.size() * (long) CARD_SIZE));
+        for (String card : cards) {
+            sb.append(card);
+        }
+        while (sb.length() % BLOCK_SIZE != 0) {
+            sb.append(' ');
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    /**
+     * Replace the value of an integer card, keeping the keyword and comment.
+     * 
+     * @param card the original card
+     * @param value the new value
+     * @return the new card
+     */
+    static String formatCard(String card, long value) {
+        return formatCard(card, Long.toString(value));
+    }
+    
+    /**
+     * Replace the value of a card with a numeric or logical value, keeping the keyword and comment.
+     * 
+     * @param card the original card
+     * @param value the new value, formatted
+     * @return the new card
+     */
+    static String formatCard(String card, String value) {
+        StringBuilder sb = new StringBuilder(CARD_SIZE);
+        sb.append(String.format("%-8s= %20s", getKeyword(card), value));
+        int slash = card.indexOf('/', 10);
+        if (slash > 0) {
+            sb.append(" ").append(card.substring(slash));
+        }
+        while (sb.length() < CARD_SIZE) {
+            sb.append(' ');
+        }
+        return sb.substring(0, CARD_SIZE);
+    }
+    
+    /**
+     * Round a size up to a whole number of blocks.
+     * 
+     * @param size size in bytes
+     * @return size of the blocks needed to hold it
+     */
+    public static long pad(long size) {
+        long rem = size % BLOCK_SIZE;
+        if (rem == 0) {
+            return size;
+        }
+        return size + BLOCK_SIZE - rem;
+    }
+    
+    static String getKeyword(String card) {
+        return card.substring(0, Math.min(8, card.length())).trim();
+    }
+    
+    // value follows "= " in columns 9-10; strings are quoted with '' as an embedded quote
+    private static String parseValue(String card) {
+        if (card.length() < 10 || card.charAt(8) != '=' || card.charAt(9) != ' ') {
+            return null;
+        }
+        String s = card.substring(10).trim();
+        if (s.startsWith("'")) {
+            StringBuilder sb = new StringBuilder();
+            int i = 1;
+            while (i < s.length()) {
+                char c = s.charAt(i);
+                if (c == '\'') {
+                    if (i + 1 < s.length() && s.charAt(i + 1) == '\'') {
+                        sb.append(c);
+                        i += 2;
+                        continue;
+                    }
+                    break;
+                }
+                sb.append(c);
+                i++;
+            }
+            return sb.toString().trim();
+        }
+        int slash = s.indexOf('/');
+        if (slash >= 0) {
+            s = s.substring(0, slash);
+        }
+        s = s.trim();
+        return s.isEmpty() ? null : s;
+    }
+}
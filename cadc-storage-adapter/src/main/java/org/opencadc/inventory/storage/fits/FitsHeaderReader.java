@@ -0,0 +1,209 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fits;
+
+import ca.nrc.cadc.io.ReadException;
+import ca.nrc.cadc.io.WriteException;
+import ca.nrc.cadc.net.ResourceNotFoundException;
+import ca.nrc.cadc.net.TransientException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
+import org.opencadc.inventory.storage.StorageAdapter;
+import org.opencadc.inventory.storage.StorageEngageException;
+
+/**
+ * Read the headers of a stored FITS file with byte range requests. Only header blocks are
+ * read: the size of each data unit is computed from the header and skipped, so the cost of
+ * reading the headers does not depend on the size of the file. This works with any adapter
+ * that implements StorageAdapter.get(StorageLocation, OutputStream, List&lt;ByteRange&gt;).
+ * 
+ * @author majorb
+ */
+public class FitsHeaderReader {
+    private static final Logger log = Logger.getLogger(FitsHeaderReader.class);
+
+    // most headers fit in a few blocks so read several at a time
+    static final int READ_SIZE = 16 * FitsHeader.BLOCK_SIZE;
+    
+    private final StorageAdapter storageAdapter;
+    private final StorageLocation storageLocation;
+    
+    private long offset = 0L;
+    
+    // the most recently read bytes; the next header often starts inside them when data units are small
+    private byte[] buffer = new byte[0];
+    private long bufferOffset = 0L;
+    
+    public FitsHeaderReader(StorageAdapter storageAdapter, StorageLocation storageLocation) {
+        this.storageAdapter = storageAdapter;
+        this.storageLocation = storageLocation;
+    }
+    
+    /**
+     * Read the next header.
+     * 
+     * @return the next header, or null if there are no more HDUs
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the file is not FITS or the storage system failed to stream.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    public FitsHeader next() 
+        throws ResourceNotFoundException, ReadException, StorageEngageException, TransientException {
+        final long start = offset;
+        List<String> cards = new ArrayList<>();
+        long pos = start;
+        boolean end = false;
+        while (!end) {
+            byte[] block = readBlock(pos);
+            if (block == null) {
+                if (pos == start && start > 0L) {
+                    return null;
+                }
+                throw new ReadException("truncated FITS header at offset " + start + " in " + storageLocation);
+            }
+            for (int i = 0; i < FitsHeader.BLOCK_SIZE && !end; i += FitsHeader.CARD_SIZE) {
+                String card = new String(block, i, FitsHeader.CARD_SIZE, StandardCharsets.US_ASCII);
+                if (cards.isEmpty()) {
+                    String key = FitsHeader.getKeyword(card);
+                    if (start == 0L && !FitsHeader.SIMPLE.equals(key)) {
+                        throw new ReadException("not a FITS file: " + storageLocation);
+                    }
+                    if (start > 0L && !FitsHeader.XTENSION.equals(key)) {
+                        // trailing bytes after the last HDU
+                        log.debug("no XTENSION at offset " + start + " in " + storageLocation + ": ignoring remainder");
+                        return null;
+                    }
+                }
+                cards.add(card);
+                end = FitsHeader.END.equals(FitsHeader.getKeyword(card));
+            }
+            pos += FitsHeader.BLOCK_SIZE;
+        }
+        FitsHeader ret = new FitsHeader(start, cards);
+        try {
+            offset = ret.getNextOffset();
+        } catch (IllegalArgumentException ex) {
+            throw new ReadException("invalid FITS header at offset " + start + " in " + storageLocation, ex);
+        }
+        log.debug("header at " + start + ": " + cards.size() + " cards, data size " + ret.getDataSize());
+        return ret;
+    }
+    
+    /**
+     * Write all headers to the output, each modified to describe an empty data unit
+     * so the output is a valid FITS stream.
+     * 
+     * @param dest The destination stream.
+     * @throws ResourceNotFoundException If the artifact could not be found.
+     * @throws ReadException If the file is not FITS or the storage system failed to stream.
+     * @throws WriteException If the client failed to stream.
+     * @throws StorageEngageException If the adapter failed to interact with storage.
+     * @throws TransientException If an unexpected, temporary exception occurred.
+     */
+    public void writeHeaders(OutputStream dest) 
+        throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException {
+        FitsHeader header;
+        while ((header = next()) != null) {
+            try {
+                header.writeWithoutData(dest);
+            } catch (IOException ex) {
+                throw new WriteException(ex.getMessage(), ex);
+            }
+        }
+    }
+    
+    // returns null if there is not a complete block at pos
+    private byte[] readBlock(long pos) 
+        throws ResourceNotFoundException, ReadException, StorageEngageException, TransientException {
+        if (pos < bufferOffset || pos + FitsHeader.BLOCK_SIZE > bufferOffset + buffer.length) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(READ_SIZE);
+            try {
+                storageAdapter.get(storageLocation, bos, Collections.singletonList(new ByteRange(pos, READ_SIZE)));
+            } catch (WriteException ex) {
+                throw new RuntimeException("BUG: failed to write to memory buffer", ex);
+            }
+            buffer = bos.toByteArray();
+            bufferOffset = pos;
+            if (buffer.length < FitsHeader.BLOCK_SIZE) {
+                return null;
+            }
+        }
+        byte[] ret = new byte[FitsHeader.BLOCK_SIZE];
+        System.arraycopy(buffer, (int) (pos - bufferOffset), ret, 0, FitsHeader.BLOCK_SIZE);
+        return ret;
+    }
+}
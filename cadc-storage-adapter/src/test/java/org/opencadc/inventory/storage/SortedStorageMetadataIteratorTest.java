@@ -0,0 +1,224 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencadc.inventory.StorageLocation;
+
+/**
+ * Test the external sort of StorageMetadata.
+ *
+ * @author majorb
+ */
+public class SortedStorageMetadataIteratorTest {
+
+    private static final Logger log = Logger.getLogger(SortedStorageMetadataIteratorTest.class);
+
+    static {
+        Log4jInit.setLevel("org.opencadc.inventory", Level.INFO);
+    }
+
+    private List<StorageMetadata> createMetadata(int num) {
+        Random rnd = new Random(num);
+        List<StorageMetadata> ret = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            StorageLocation loc = new StorageLocation(URI.create("test:" + UUID.randomUUID()));
+            if (i % 3 == 0) {
+                loc.storageBucket = Integer.toHexString(rnd.nextInt(16));
+            }
+            StorageMetadata sm = new StorageMetadata(loc, URI.create("md5:" + Integer.toHexString(i)), (long) i);
+            if (i % 2 == 0) {
+                sm.artifactURI = URI.create("cadc:TEST/file-" + i + ".fits");
+            }
+            ret.add(sm);
+        }
+        return ret;
+    }
+
+    private void assertSorted(List<StorageMetadata> expected, SortedStorageMetadataIterator iter) {
+        List<StorageMetadata> sorted = new ArrayList<>(expected);
+        Collections.sort(sorted);
+        for (StorageMetadata sm : sorted) {
+            Assert.assertTrue("hasNext", iter.hasNext());
+            StorageMetadata actual = iter.next();
+            Assert.assertEquals("storageLocation", sm.getStorageLocation(), actual.getStorageLocation());
+            Assert.assertEquals("storageBucket", sm.getStorageLocation().storageBucket,
+                actual.getStorageLocation().storageBucket);
+            Assert.assertEquals("contentChecksum", sm.getContentChecksum(), actual.getContentChecksum());
+            Assert.assertEquals("contentLength", sm.getContentLength(), actual.getContentLength());
+            Assert.assertEquals("artifactURI", sm.artifactURI, actual.artifactURI);
+        }
+        Assert.assertFalse("hasNext", iter.hasNext());
+        try {
+            iter.next();
+            Assert.fail("expected NoSuchElementException");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInMemory() {
+        try {
+            List<StorageMetadata> metadata = createMetadata(100);
+            File tmpDir = Files.createTempDirectory("sort-test").toFile();
+            SortedStorageMetadataIterator iter = new SortedStorageMetadataIterator(metadata.iterator(),
+                SortedStorageMetadataIterator.DEFAULT_BUFFER_SIZE, tmpDir);
+            Assert.assertEquals("run files", 0, tmpDir.list().length);
+            assertSorted(metadata, iter);
+            Assert.assertTrue(tmpDir.delete());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSpill() {
+        try {
+            List<StorageMetadata> metadata = createMetadata(1000);
+            File tmpDir = Files.createTempDirectory("sort-test").toFile();
+            // about 20 entries per run
+            SortedStorageMetadataIterator iter = new SortedStorageMetadataIterator(metadata.iterator(), 8 * 1024L,
+                tmpDir);
+            log.info("runs: " + iter.getRunCount());
+            Assert.assertTrue("runs", iter.getRunCount() > 10);
+            // unlinked once open
+            Assert.assertEquals("run files", 0, tmpDir.list().length);
+            assertSorted(metadata, iter);
+            Assert.assertEquals("run files", 0, tmpDir.list().length);
+            Assert.assertTrue(tmpDir.delete());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testFanIn() {
+        try {
+            List<StorageMetadata> metadata = createMetadata(2000);
+            File tmpDir = Files.createTempDirectory("sort-test").toFile();
+            // about 100 runs, merged 3 at a time
+            SortedStorageMetadataIterator iter = new SortedStorageMetadataIterator(metadata.iterator(), 8 * 1024L,
+                tmpDir, 3);
+            log.info("runs: " + iter.getRunCount());
+            Assert.assertTrue("runs", iter.getRunCount() <= 3 + 1);
+            Assert.assertEquals("run files", 0, tmpDir.list().length);
+            assertSorted(metadata, iter);
+            Assert.assertTrue(tmpDir.delete());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testClose() {
+        try {
+            List<StorageMetadata> metadata = createMetadata(200);
+            File tmpDir = Files.createTempDirectory("sort-test").toFile();
+            SortedStorageMetadataIterator iter = new SortedStorageMetadataIterator(metadata.iterator(), 8 * 1024L,
+                tmpDir);
+            Assert.assertTrue("runs", iter.getRunCount() > 1);
+            iter.next();
+            iter.close();
+            Assert.assertEquals("run files", 0, tmpDir.list().length);
+            Assert.assertFalse("hasNext", iter.hasNext());
+            Assert.assertTrue(tmpDir.delete());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        try {
+            SortedStorageMetadataIterator iter = new SortedStorageMetadataIterator(
+                Collections.<StorageMetadata>emptyIterator());
+            Assert.assertFalse("hasNext", iter.hasNext());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+}
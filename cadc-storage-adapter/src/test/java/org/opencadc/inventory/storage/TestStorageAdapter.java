@@ -82,7 +82,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.security.MessageDigest;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import org.apache.log4j.Logger;
@@ -132,6 +135,30 @@ public class TestStorageAdapter implements StorageAdapter {
         throw new UnsupportedOperationException();
     }
 
+    public void get(StorageLocation storageLocation, OutputStream dest, List<ByteRange> byteRanges)
+            throws ResourceNotFoundException, ReadException, WriteException, StorageEngageException, TransientException {
+        for (ByteRange br : byteRanges) {
+            if (br.getOffset() < data.length) {
+                int len = (int) Math.min(br.getLength(), data.length - br.getOffset());
+                try {
+                    dest.write(data, (int) br.getOffset(), len);
+                } catch (IOException ex) {
+                    throw new WriteException("failed to write range " + br, ex);
+                }
+            }
+        }
+    }
+
+    public StorageMetadata head(StorageLocation storageLocation)
+            throws ResourceNotFoundException, StorageEngageException, TransientException {
+        return new StorageMetadata(storageLocation, contentChecksum, contentLength);
+    }
+
+    public Map<StorageLocation, StorageMetadata> head(Collection<StorageLocation> storageLocations)
+            throws StorageEngageException, TransientException {
+        throw new UnsupportedOperationException();
+    }
+
     public StorageMetadata put(NewArtifact newArtifact, InputStream source)
             throws IncorrectContentChecksumException, IncorrectContentLengthException, ReadException,
             WriteException, StorageEngageException, TransientException {
@@ -172,6 +199,11 @@ public class TestStorageAdapter implements StorageAdapter {
         throw new UnsupportedOperationException();
     }
 
+    public Map<StorageLocation, Exception> delete(Collection<StorageLocation> storageLocations)
+            throws StorageEngageException, TransientException {
+        throw new UnsupportedOperationException();
+    }
+
     public Iterator<StorageMetadata> iterator()
             throws StorageEngageException, TransientException {
         throw new UnsupportedOperationException();
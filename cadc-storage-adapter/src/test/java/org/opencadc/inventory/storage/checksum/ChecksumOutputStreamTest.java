@@ -0,0 +1,174 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.checksum;
+
+import ca.nrc.cadc.util.HexUtil;
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test single pass, multi-algorithm checksums.
+ *
+ * @author majorb
+ */
+public class ChecksumOutputStreamTest {
+
+    private static final Logger log = Logger.getLogger(ChecksumOutputStreamTest.class);
+
+    static {
+        Log4jInit.setLevel("org.opencadc.inventory", Level.INFO);
+    }
+
+    private static URI expected(ChecksumAlgorithm ca, byte[] data) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(ca.getDigestAlgorithm());
+        return URI.create(ca.getScheme() + ":" + HexUtil.toHex(md.digest(data)));
+    }
+
+    private void doTest(boolean threaded) throws Exception {
+        // not a multiple of the chunk size so the last chunk is partial
+        byte[] data = new byte[3 * DigestPipeline.CHUNK_SIZE + 1234];
+        new Random(42L).nextBytes(data);
+        Set<ChecksumAlgorithm> algorithms = EnumSet.allOf(ChecksumAlgorithm.class);
+
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        Map<ChecksumAlgorithm, URI> checksums;
+        try (ChecksumOutputStream out = new ChecksumOutputStream(dest, algorithms, threaded)) {
+            // mix of single bytes, small writes and writes larger than a chunk
+            out.write(data[0]);
+            out.write(data, 1, 99);
+            out.write(data, 100, 2 * DigestPipeline.CHUNK_SIZE);
+            out.write(data, 100 + 2 * DigestPipeline.CHUNK_SIZE, data.length - 100 - 2 * DigestPipeline.CHUNK_SIZE);
+            checksums = out.getChecksums();
+            Assert.assertSame("idempotent", checksums, out.getChecksums());
+        }
+
+        Assert.assertArrayEquals("data", data, dest.toByteArray());
+        Assert.assertEquals("algorithms", algorithms, checksums.keySet());
+        for (ChecksumAlgorithm ca : algorithms) {
+            log.info(ca + ": " + checksums.get(ca));
+            Assert.assertEquals(ca.getScheme(), expected(ca, data), checksums.get(ca));
+        }
+    }
+
+    @Test
+    public void testSingleThread() throws Exception {
+        doTest(false);
+    }
+
+    @Test
+    public void testThreaded() throws Exception {
+        doTest(true);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Set<ChecksumAlgorithm> algorithms = EnumSet.of(ChecksumAlgorithm.MD5);
+        try (ChecksumOutputStream out = new ChecksumOutputStream(new ByteArrayOutputStream(), algorithms, true)) {
+            Map<ChecksumAlgorithm, URI> checksums = out.getChecksums();
+            Assert.assertEquals("md5:d41d8cd98f00b204e9800998ecf8427e",
+                checksums.get(ChecksumAlgorithm.MD5).toString());
+        }
+    }
+
+    @Test
+    public void testNegotiate() throws Exception {
+        Assert.assertEquals(EnumSet.of(ChecksumAlgorithm.MD5),
+            ChecksumAlgorithm.negotiate(ChecksumAlgorithm.MD5, null));
+        Assert.assertEquals(EnumSet.of(ChecksumAlgorithm.MD5),
+            ChecksumAlgorithm.negotiate(ChecksumAlgorithm.MD5, URI.create("md5:abc")));
+        Assert.assertEquals(EnumSet.of(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA256),
+            ChecksumAlgorithm.negotiate(ChecksumAlgorithm.MD5, URI.create("sha-256:abc")));
+        Assert.assertEquals(EnumSet.of(ChecksumAlgorithm.MD5),
+            ChecksumAlgorithm.negotiate(ChecksumAlgorithm.MD5, URI.create("xxh64:abc")));
+    }
+
+    @Test
+    public void testDigestPool() throws Exception {
+        MessageDigest md = DigestPool.acquire(ChecksumAlgorithm.SHA1);
+        md.update(new byte[] { 1, 2, 3 });
+        DigestPool.release(md);
+        MessageDigest reused = DigestPool.acquire(ChecksumAlgorithm.SHA1);
+        try {
+            Assert.assertSame("pooled", md, reused);
+            Assert.assertEquals("reset", expected(ChecksumAlgorithm.SHA1, new byte[0]),
+                ChecksumAlgorithm.SHA1.toChecksum(reused.digest()));
+        } finally {
+            DigestPool.release(reused);
+        }
+    }
+}
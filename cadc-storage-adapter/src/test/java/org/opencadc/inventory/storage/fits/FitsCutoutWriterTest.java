@@ -0,0 +1,272 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fits;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencadc.inventory.StorageLocation;
+
+/**
+ * Test FITS image cutouts with byte ranges.
+ *
+ * @author majorb
+ */
+public class FitsCutoutWriterTest {
+
+    private static final Logger log = Logger.getLogger(FitsCutoutWriterTest.class);
+
+    static {
+        Log4jInit.setLevel("org.opencadc.inventory", Level.INFO);
+    }
+
+    private final StorageLocation storageLocation = new StorageLocation(URI.create("test:path/file.fits"));
+
+    private static final int NX = 10;
+    private static final int NY = 8;
+
+    // 16-bit pixel value encodes the 1-based coordinates
+    private static short pixel(int ext, int x, int y) {
+        return (short) (ext * 10000 + y * 100 + x);
+    }
+
+    private static byte[] createImage(int ext) {
+        ByteBuffer buf = ByteBuffer.allocate(2 * NX * NY);
+        for (int y = 1; y <= NY; y++) {
+            for (int x = 1; x <= NX; x++) {
+                buf.putShort(pixel(ext, x, y));
+            }
+        }
+        return buf.array();
+    }
+
+    private static void addImage(ByteArrayOutputStream out, byte[] data) throws IOException {
+        out.write(data);
+        out.write(new byte[(int) (FitsHeader.pad(data.length) - data.length)]);
+    }
+
+    private static byte[] createFits() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FitsHeader.write(out, Arrays.asList(FitsHeaderReaderTest.card("SIMPLE", "T"),
+            FitsHeaderReaderTest.card("BITPIX", "16"), FitsHeaderReaderTest.card("NAXIS", "2"),
+            FitsHeaderReaderTest.card("NAXIS1", Integer.toString(NX)),
+            FitsHeaderReaderTest.card("NAXIS2", Integer.toString(NY)),
+            FitsHeaderReaderTest.card("EXTEND", "T"), FitsHeaderReaderTest.card("CRPIX1", "5.5"),
+            FitsHeaderReaderTest.card("CRPIX2", "4.5"), String.format("%-80s", FitsHeader.END)));
+        addImage(out, createImage(0));
+        FitsHeader.write(out, Arrays.asList(FitsHeaderReaderTest.card("XTENSION", "'IMAGE   '"),
+            FitsHeaderReaderTest.card("BITPIX", "16"), FitsHeaderReaderTest.card("NAXIS", "2"),
+            FitsHeaderReaderTest.card("NAXIS1", Integer.toString(NX)),
+            FitsHeaderReaderTest.card("NAXIS2", Integer.toString(NY)),
+            FitsHeaderReaderTest.card("PCOUNT", "0"), FitsHeaderReaderTest.card("GCOUNT", "1"),
+            FitsHeaderReaderTest.card("EXTNAME", "'SCI'"), FitsHeaderReaderTest.card("CRPIX1", "1.0D0"),
+            String.format("%-80s", FitsHeader.END)));
+        addImage(out, createImage(1));
+        return out.toByteArray();
+    }
+
+    private static FitsHeaderReaderTest.RangeStorageAdapter cutout(byte[] fits, ByteArrayOutputStream out,
+        String... cutouts) throws Exception {
+        FitsHeaderReaderTest.RangeStorageAdapter adapter = new FitsHeaderReaderTest.RangeStorageAdapter(fits);
+        Set<String> ops = new LinkedHashSet<>(Arrays.asList(cutouts));
+        new FitsCutoutWriter(adapter, new StorageLocation(URI.create("test:path/file.fits"))).write(ops, out);
+        return adapter;
+    }
+
+    private void assertPixels(byte[] result, FitsHeader header, int ext, int x1, int x2, int y1, int y2) {
+        Assert.assertEquals("NAXIS1", x2 - x1 + 1, header.getIntValue("NAXIS1", 0));
+        Assert.assertEquals("NAXIS2", y2 - y1 + 1, header.getIntValue("NAXIS2", 0));
+        Assert.assertEquals("dataSize", 2L * (x2 - x1 + 1) * (y2 - y1 + 1), header.getDataSize());
+        ByteBuffer buf = ByteBuffer.wrap(result, (int) header.getDataOffset(), (int) header.getDataSize());
+        for (int y = y1; y <= y2; y++) {
+            for (int x = x1; x <= x2; x++) {
+                Assert.assertEquals("pixel " + x + "," + y, pixel(ext, x, y), buf.getShort());
+            }
+        }
+    }
+
+    @Test
+    public void testPrimaryCutout() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cutout(createFits(), out, "[0][3:5,2:4]");
+            byte[] result = out.toByteArray();
+            Assert.assertEquals("length", 2 * FitsHeader.BLOCK_SIZE, result.length);
+
+            FitsHeaderReader reader = new FitsHeaderReader(new FitsHeaderReaderTest.RangeStorageAdapter(result),
+                storageLocation);
+            FitsHeader header = reader.next();
+            Assert.assertTrue("primary", header.isPrimary());
+            Assert.assertEquals("CRPIX1", "3.5", header.getValue("CRPIX1"));
+            Assert.assertEquals("CRPIX2", "3.5", header.getValue("CRPIX2"));
+            assertPixels(result, header, 0, 3, 5, 2, 4);
+            Assert.assertNull(reader.next());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testFullWidthCutout() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] fits = createFits();
+            FitsHeaderReaderTest.RangeStorageAdapter adapter = cutout(fits, out, "[*,2:7]");
+            byte[] result = out.toByteArray();
+            FitsHeader header = new FitsHeaderReader(new FitsHeaderReaderTest.RangeStorageAdapter(result),
+                storageLocation).next();
+            assertPixels(result, header, 0, 1, NX, 2, 7);
+            // two header reads (the second finds the end of file) + one coalesced range for the rows
+            Assert.assertEquals("ranges", 3, adapter.numRanges);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testMultipleCutouts() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cutout(createFits(), out, "[SCI][2:3,8]", "[0][1:20,1]", "[SCI,1]");
+            byte[] result = out.toByteArray();
+
+            FitsHeaderReader reader = new FitsHeaderReader(new FitsHeaderReaderTest.RangeStorageAdapter(result),
+                storageLocation);
+            FitsHeader primary = reader.next();
+            Assert.assertTrue("primary", primary.isPrimary());
+            Assert.assertEquals("dataSize", 0L, primary.getDataSize());
+
+            FitsHeader sci = reader.next();
+            Assert.assertEquals("EXTNAME", "SCI", sci.getValue("EXTNAME"));
+            Assert.assertEquals("CRPIX1", "0.0", sci.getValue("CRPIX1"));
+            assertPixels(result, sci, 1, 2, 3, 8, 8);
+
+            FitsHeader prim = reader.next();
+            Assert.assertEquals("XTENSION", "IMAGE", prim.getValue("XTENSION"));
+            Assert.assertNull("EXTEND", prim.getValue("EXTEND"));
+            Assert.assertEquals("PCOUNT", 0, prim.getIntValue("PCOUNT", -1));
+            Assert.assertEquals("GCOUNT", 1, prim.getIntValue("GCOUNT", -1));
+            // clipped to the image
+            assertPixels(result, prim, 0, 1, NX, 1, 1);
+
+            FitsHeader whole = reader.next();
+            Assert.assertEquals("EXTNAME", "SCI", whole.getValue("EXTNAME"));
+            assertPixels(result, whole, 1, 1, NX, 1, NY);
+
+            Assert.assertNull(reader.next());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testHeaders() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cutout(createFits(), out, "headers");
+            Assert.assertEquals("length", 2 * FitsHeader.BLOCK_SIZE, out.size());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testInvalidCutout() {
+        String[] invalid = new String[] {
+            "[", "[1][2][3]", "[1:2,3:4]x", "[5:2]", "[0:2]", "[a:b]", "[]", "[4][1:2]",
+            "[NOPE][1:2]", "[0][1:2,1:2,1:2]",
+            "[0][11:12]"
+        };
+        for (String s : invalid) {
+            try {
+                cutout(createFits(), new ByteArrayOutputStream(), s);
+                Assert.fail("expected IllegalArgumentException: " + s);
+            } catch (IllegalArgumentException expected) {
+                log.info("caught expected: " + expected);
+            } catch (Exception unexpected) {
+                log.error("unexpected exception", unexpected);
+                Assert.fail("unexpected exception: " + unexpected);
+            }
+        }
+        Assert.assertFalse(FitsCutout.isCutout("headers"));
+        Assert.assertTrue(FitsCutout.isCutout(" [1]"));
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2020.                            (c) 2020.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.inventory.storage.fits;
+
+import ca.nrc.cadc.io.ReadException;
+import ca.nrc.cadc.io.WriteException;
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencadc.inventory.StorageLocation;
+import org.opencadc.inventory.storage.ByteRange;
+import org.opencadc.inventory.storage.TestStorageAdapter;
+
+/**
+ * Test reading FITS headers with byte ranges.
+ *
+ * @author majorb
+ */
+public class FitsHeaderReaderTest {
+
+    private static final Logger log = Logger.getLogger(FitsHeaderReaderTest.class);
+
+    static {
+        Log4jInit.setLevel("org.opencadc.inventory", Level.INFO);
+    }
+
+    private final StorageLocation storageLocation = new StorageLocation(URI.create("test:path/file.fits"));
+
+    /**
+     * Serves a byte array with ranged reads and counts the bytes read.
+     */
+    static class RangeStorageAdapter extends TestStorageAdapter {
+        final byte[] bytes;
+        long bytesRead = 0L;
+        int numRanges = 0;
+
+        RangeStorageAdapter(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void get(StorageLocation storageLocation, OutputStream dest, List<ByteRange> byteRanges)
+            throws WriteException {
+            for (ByteRange br : byteRanges) {
+                numRanges++;
+                if (br.getOffset() < bytes.length) {
+                    int len = (int) Math.min(br.getLength(), bytes.length - br.getOffset());
+                    try {
+                        dest.write(bytes, (int) br.getOffset(), len);
+                    } catch (IOException ex) {
+                        throw new WriteException("failed to write range " + br, ex);
+                    }
+                    bytesRead += len;
+                }
+            }
+        }
+    }
+
+    static String card(String key, String value) {
+        StringBuilder sb = new StringBuilder(String.format("%-8s= %20s", key, value));
+        sb.append(" / test");
+        while (sb.length() < FitsHeader.CARD_SIZE) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    static void addHDU(ByteArrayOutputStream out, List<String> cards, long dataSize) throws IOException {
+        List<String> all = new ArrayList<>(cards);
+        all.add(String.format("%-80s", FitsHeader.END));
+        FitsHeader.write(out, all);
+        out.write(new byte[(int) FitsHeader.pad(dataSize)]);
+    }
+
+    static byte[] createFits() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        addHDU(out, Arrays.asList(card("SIMPLE", "T"), card("BITPIX", "16"), card("NAXIS", "2"),
+            card("NAXIS1", "100"), card("NAXIS2", "100")), 2 * 100 * 100);
+        addHDU(out, Arrays.asList(card("XTENSION", "'IMAGE   '"), card("BITPIX", "-32"), card("NAXIS", "2"),
+            card("NAXIS1", "1000"), card("NAXIS2", "1000"), card("PCOUNT", "0"), card("GCOUNT", "1"),
+            card("EXTNAME", "'SCI'")), 4 * 1000 * 1000);
+        addHDU(out, Arrays.asList(card("XTENSION", "'BINTABLE'"), card("BITPIX", "8"), card("NAXIS", "2"),
+            card("NAXIS1", "12"), card("NAXIS2", "5"), card("PCOUNT", "100"), card("GCOUNT", "1"),
+            card("TFIELDS", "1"), card("EXTNAME", "'It''s a table'")), 12 * 5 + 100);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testReadHeaders() {
+        try {
+            byte[] fits = createFits();
+            RangeStorageAdapter adapter = new RangeStorageAdapter(fits);
+            FitsHeaderReader reader = new FitsHeaderReader(adapter, storageLocation);
+
+            FitsHeader primary = reader.next();
+            Assert.assertNotNull(primary);
+            Assert.assertTrue("primary", primary.isPrimary());
+            Assert.assertEquals("offset", 0L, primary.getOffset());
+            Assert.assertEquals("dataOffset", 2880L, primary.getDataOffset());
+            Assert.assertEquals("dataSize", 20000L, primary.getDataSize());
+
+            FitsHeader sci = reader.next();
+            Assert.assertNotNull(sci);
+            Assert.assertFalse("primary", sci.isPrimary());
+            Assert.assertEquals("offset", 2880L + FitsHeader.pad(20000L), sci.getOffset());
+            Assert.assertEquals("EXTNAME", "SCI", sci.getValue("EXTNAME"));
+            Assert.assertEquals("XTENSION", "IMAGE", sci.getValue("XTENSION"));
+            Assert.assertEquals("dataSize", 4000000L, sci.getDataSize());
+
+            FitsHeader table = reader.next();
+            Assert.assertNotNull(table);
+            Assert.assertEquals("EXTNAME", "It's a table", table.getValue("EXTNAME"));
+            Assert.assertEquals("dataSize", 160L, table.getDataSize());
+            Assert.assertEquals("end", fits.length, table.getNextOffset());
+
+            Assert.assertNull(reader.next());
+            log.info("read " + adapter.bytesRead + " of " + fits.length + " bytes");
+            Assert.assertTrue("image data skipped", adapter.bytesRead < 4 * FitsHeaderReader.READ_SIZE);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testWriteHeaders() {
+        try {
+            RangeStorageAdapter adapter = new RangeStorageAdapter(createFits());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new FitsHeaderReader(adapter, storageLocation).writeHeaders(out);
+            byte[] headers = out.toByteArray();
+            Assert.assertEquals("length", 3 * FitsHeader.BLOCK_SIZE, headers.length);
+
+            // the output is itself a FITS file with empty data units
+            FitsHeaderReader reader = new FitsHeaderReader(new RangeStorageAdapter(headers), storageLocation);
+            int num = 0;
+            FitsHeader header;
+            while ((header = reader.next()) != null) {
+                Assert.assertEquals("dataSize", 0L, header.getDataSize());
+                Assert.assertEquals("NAXIS1", 0, header.getIntValue("NAXIS1", -1));
+                Assert.assertEquals("comment", "/ test",
+                    header.getCards().get(3).substring(31).trim());
+                num++;
+            }
+            Assert.assertEquals("headers", 3, num);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testNotFits() {
+        try {
+            byte[] bytes = new byte[FitsHeader.BLOCK_SIZE];
+            Arrays.fill(bytes, "x".getBytes(StandardCharsets.US_ASCII)[0]);
+            FitsHeaderReader reader = new FitsHeaderReader(new RangeStorageAdapter(bytes), storageLocation);
+            try {
+                reader.next();
+                Assert.fail("expected ReadException");
+            } catch (ReadException expected) {
+                log.info("caught expected: " + expected);
+            }
+
+            reader = new FitsHeaderReader(new RangeStorageAdapter(Arrays.copyOf(createFits(), 100)), storageLocation);
+            try {
+                reader.next();
+                Assert.fail("expected ReadException");
+            } catch (ReadException expected) {
+                log.info("caught expected: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+}
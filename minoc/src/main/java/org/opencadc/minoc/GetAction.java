@@ -69,11 +69,21 @@ package org.opencadc.minoc;
 
 import ca.nrc.cadc.io.WriteException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
 import org.apache.log4j.Logger;
 import org.opencadc.inventory.Artifact;
+import org.opencadc.inventory.InventoryUtil;
 import org.opencadc.inventory.StorageLocation;
 import org.opencadc.inventory.db.ArtifactDAO;
 import org.opencadc.inventory.permissions.ReadGrant;
+import org.opencadc.inventory.storage.ByteRange;
+import org.opencadc.inventory.storage.StorageAdapter;
 
 /**
  * Interface with storage and inventory to get an artifact.
@@ -83,6 +93,13 @@ import org.opencadc.inventory.permissions.ReadGrant;
 public class GetAction extends ArtifactAction {
     
     private static final Logger log = Logger.getLogger(GetAction.class);
+    
+    // limit on the number of ranges in a single request; more are ignored
+    // and the whole artifact is returned
+    static final int MAX_BYTE_RANGES = 32;
+    
+    private static final String RANGE_UNIT = "bytes";
+    private static final String CRLF = "\r\n";
 
     /**
      * Default, no-arg constructor.
@@ -92,7 +109,7 @@ public class GetAction extends ArtifactAction {
     }
 
     /**
-     * Download the artifact or cutouts of the artifact.
+     * Download the artifact, byte ranges of the artifact, or cutouts of the artifact.
      */
     @Override
     public void doAction() throws Exception {
@@ -101,13 +118,36 @@ public class GetAction extends ArtifactAction {
         
         ArtifactDAO dao = getArtifactDAO();
         Artifact artifact = getArtifact(artifactURI, dao);
-        HeadAction.setHeaders(artifact, syncOutput);
         
         StorageLocation storageLocation = new StorageLocation(artifact.storageLocation.getStorageID());
         storageLocation.storageBucket = artifact.storageLocation.storageBucket;
+        
+        List<ByteRange> byteRanges = null;
+        if (syncInput.getHeader("If-Range") == null) {
+            // If-Range validators are not supported: always return the whole artifact in that case
+            byteRanges = parseRange(syncInput.getHeader("Range"), artifact.getContentLength());
+        }
+        
         log.debug("retrieving artifact from storage...");
         try {
-            getStorageAdapter().get(storageLocation, syncOutput.getOutputStream());
+            if (byteRanges == null) {
+                HeadAction.setHeaders(artifact, syncOutput);
+                getStorageAdapter().get(storageLocation, syncOutput.getOutputStream());
+            } else if (byteRanges.isEmpty()) {
+                log.debug("range not satisfiable: " + syncInput.getHeader("Range"));
+                syncOutput.setCode(416);
+                syncOutput.setHeader("Content-Range", RANGE_UNIT + " */" + artifact.getContentLength());
+                return;
+            } else if (byteRanges.size() == 1) {
+                ByteRange br = byteRanges.get(0);
+                syncOutput.setCode(206);
+                HeadAction.setDescriptiveHeaders(artifact, syncOutput);
+                syncOutput.setHeader("Content-Range", getContentRange(br, artifact.getContentLength()));
+                syncOutput.setHeader("Content-Length", br.getLength());
+                getStorageAdapter().get(storageLocation, syncOutput.getOutputStream(), byteRanges);
+            } else {
+                writeMultipart(artifact, storageLocation, byteRanges);
+            }
         } catch (WriteException e) {
             // error on client write
             String msg = "write output error";
@@ -120,5 +160,130 @@ public class GetAction extends ArtifactAction {
         log.debug("retrieved artifact from storage");
 
     }
+    
+    /**
+     * Write a multipart/byteranges response with one part per byte range.
+     */
+    private void writeMultipart(Artifact artifact, StorageLocation storageLocation, List<ByteRange> byteRanges)
+        throws Exception {
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<byte[]>(byteRanges.size());
+        long contentLength = 0;
+        for (ByteRange br : byteRanges) {
+            StringBuilder sb = new StringBuilder();
+            if (!partHeaders.isEmpty()) {
+                sb.append(CRLF);
+            }
+            sb.append("--").append(boundary).append(CRLF);
+            if (artifact.contentType != null) {
+                sb.append("Content-Type: ").append(artifact.contentType).append(CRLF);
+            }
+            sb.append("Content-Range: ").append(getContentRange(br, artifact.getContentLength())).append(CRLF);
+            sb.append(CRLF);
+            byte[] partHeader = sb.toString().getBytes("US-ASCII");
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + br.getLength();
+        }
+        byte[] trailer = (CRLF + "--" + boundary + "--" + CRLF).getBytes("US-ASCII");
+        contentLength += trailer.length;
+        
+        syncOutput.setCode(206);
+        syncOutput.setHeader("Accept-Ranges", RANGE_UNIT);
+        String filename = InventoryUtil.computeArtifactFilename(artifact.getURI());
+        syncOutput.setHeader("Content-Disposition", "attachment; filename=" + filename);
+        syncOutput.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        syncOutput.setHeader("Content-Length", contentLength);
+        
+        StorageAdapter storageAdapter = getStorageAdapter();
+        OutputStream out = syncOutput.getOutputStream();
+        for (int i = 0; i < byteRanges.size(); i++) {
+            write(out, partHeaders.get(i));
+            storageAdapter.get(storageLocation, out, Collections.singletonList(byteRanges.get(i)));
+        }
+        write(out, trailer);
+    }
+    
+    private void write(OutputStream out, byte[] bytes) throws WriteException {
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new WriteException(e.getMessage(), e);
+        }
+    }
+    
+    private static String getContentRange(ByteRange br, long contentLength) {
+        return RANGE_UNIT + " " + br.getOffset() + "-" + br.getLastOffset() + "/" + contentLength;
+    }
+    
+    /**
+     * Parse the value of an HTTP Range header into byte ranges of an artifact. Ranges
+     * are returned in the order requested and truncated to the content length.
+     * 
+     * @param range The Range header value, possibly null.
+     * @param contentLength The length of the artifact.
+     * @return null if the whole artifact should be returned (no range or a syntactically
+     *     invalid range), an empty list if no range is satisfiable, otherwise the byte ranges
+     */
+    static List<ByteRange> parseRange(String range, long contentLength) {
+        if (range == null) {
+            return null;
+        }
+        String value = range.trim();
+        int eq = value.indexOf('=');
+        if (eq < 0 || !RANGE_UNIT.equalsIgnoreCase(value.substring(0, eq).trim())) {
+            log.debug("ignoring unsupported range: " + range);
+            return null;
+        }
+        String[] specs = value.substring(eq + 1).split(",");
+        if (specs.length > MAX_BYTE_RANGES) {
+            log.debug("ignoring range with " + specs.length + " parts");
+            return null;
+        }
+        List<ByteRange> ret = new ArrayList<ByteRange>(specs.length);
+        try {
+            for (String s : specs) {
+                String spec = s.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    log.debug("ignoring invalid range: " + range);
+                    return null;
+                }
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // suffix range: the final N bytes
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength > 0 && contentLength > 0) {
+                        long offset = Math.max(0, contentLength - suffixLength);
+                        ret.add(new ByteRange(offset, contentLength - offset));
+                    }
+                } else {
+                    long offset = Long.parseLong(first);
+                    long lastOffset = contentLength - 1;
+                    if (!last.isEmpty()) {
+                        long end = Long.parseLong(last);
+                        if (end < offset) {
+                            log.debug("ignoring invalid range: " + range);
+                            return null;
+                        }
+                        lastOffset = Math.min(end, lastOffset);
+                    }
+                    if (offset < 0) {
+                        return null;
+                    }
+                    if (offset < contentLength) {
+                        ret.add(new ByteRange(offset, lastOffset - offset + 1));
+                    }
+                }
+            }
+        } catch (NumberFormatException ex) {
+            log.debug("ignoring invalid range: " + range, ex);
+            return null;
+        }
+        return ret;
+    }
 
 }
@@ -113,6 +113,17 @@ public class HeadAction extends ArtifactAction {
     public static void setHeaders(Artifact artifact, SyncOutput syncOutput) {
         syncOutput.setHeader("Content-MD5", artifact.getContentChecksum().getSchemeSpecificPart());
         syncOutput.setHeader("Content-Length", artifact.getContentLength());
+        setDescriptiveHeaders(artifact, syncOutput);
+    }
+    
+    /**
+     * Set the HTTP response headers that describe an artifact but not the exact bytes
+     * in the response; these also apply to partial content responses.
+     * @param artifact The artifact with metadata
+     * @param syncOutput The target response
+     */
+    static void setDescriptiveHeaders(Artifact artifact, SyncOutput syncOutput) {
+        syncOutput.setHeader("Accept-Ranges", "bytes");
         String filename = InventoryUtil.computeArtifactFilename(artifact.getURI());
         syncOutput.setHeader("Content-Disposition", "attachment; filename=" + filename);
         if (artifact.contentEncoding != null) {
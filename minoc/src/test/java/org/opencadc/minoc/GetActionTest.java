@@ -0,0 +1,133 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2020.                            (c) 2020.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+************************************************************************
+*/
+
+package org.opencadc.minoc;
+
+import ca.nrc.cadc.util.Log4jInit;
+
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencadc.inventory.storage.ByteRange;
+
+public class GetActionTest {
+
+    private static final Logger log = Logger.getLogger(GetActionTest.class);
+
+    static {
+        Log4jInit.setLevel("org.opencadc.minoc", Level.DEBUG);
+    }
+    
+    private void assertRange(String range, long contentLength, long[]... expected) {
+        List<ByteRange> result = GetAction.parseRange(range, contentLength);
+        Assert.assertNotNull("range: " + range, result);
+        Assert.assertEquals("range count: " + range, expected.length, result.size());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals("offset: " + range, expected[i][0], result.get(i).getOffset());
+            Assert.assertEquals("length: " + range, expected[i][1], result.get(i).getLength());
+        }
+    }
+    
+    @Test
+    public void testParseRange() {
+        try {
+            
+            assertRange("bytes=0-499", 1000, new long[] {0, 500});
+            assertRange("bytes=500-", 1000, new long[] {500, 500});
+            assertRange("bytes=-100", 1000, new long[] {900, 100});
+            assertRange("bytes=-2000", 1000, new long[] {0, 1000});
+            assertRange("bytes=900-2000", 1000, new long[] {900, 100});
+            assertRange("bytes=0-0, -1", 1000, new long[] {0, 1}, new long[] {999, 1});
+            assertRange("BYTES=500-599,0-99", 1000, new long[] {500, 100}, new long[] {0, 100});
+            
+            // unsatisfiable parts are dropped
+            assertRange("bytes=0-9,1000-1100", 1000, new long[] {0, 10});
+            assertRange("bytes=1000-", 1000);
+            assertRange("bytes=-0", 1000);
+            
+            // ignored: return the whole artifact
+            Assert.assertNull(GetAction.parseRange(null, 1000));
+            Assert.assertNull(GetAction.parseRange("items=0-9", 1000));
+            Assert.assertNull(GetAction.parseRange("bytes=9-0", 1000));
+            Assert.assertNull(GetAction.parseRange("bytes=abc", 1000));
+            Assert.assertNull(GetAction.parseRange("bytes=a-b", 1000));
+            StringBuilder sb = new StringBuilder("bytes=0-0");
+            for (int i = 1; i <= GetAction.MAX_BYTE_RANGES; i++) {
+                sb.append(",").append(i).append("-").append(i);
+            }
+            Assert.assertNull(GetAction.parseRange(sb.toString(), 1000));
+            
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+    
+}